@@ -52,6 +52,9 @@ import org.talust.network.netty.ConnectionManager;
 import org.talust.network.netty.PeersManager;
 import org.talust.network.netty.queue.MessageQueueHolder;
 import org.talust.core.storage.AccountStorage;
+import org.talust.core.storage.AddressHistoryStorage;
+import org.talust.core.storage.BlockMirrorService;
+import org.talust.core.storage.ChainStateSnapshot;
 
 import java.util.Collection;
 
@@ -116,6 +119,8 @@ public class BlockChainServer {
         addHandler(MessageType.HEIGHT_RESP, new BlockHeightRespHandler());
         addHandler(MessageType.BLOCK_REQ, new BlockDataReqHandler());
         addHandler(MessageType.BLOCK_RESP, new BlockDataRespHandler());
+        addHandler(MessageType.HEADERS_REQ, new BlockHeadersReqHandler());
+        addHandler(MessageType.HEADERS_RESP, new BlockHeadersRespHandler());
         addHandler(MessageType.ERROR_MESSAGE, new ErrorMessageHandler());
         addHandler(MessageType.NODE_EXIT, new NodeExitHandler());
         addHandler(MessageType.TRANSACTION, new TransactionHandler());
@@ -141,6 +146,10 @@ public class BlockChainServer {
         log.info("初始化存储...");
         NtpTimeService.get().start();
         PeersManager.get().initPeers();
+        ChainStateSnapshot.get().importIfConfigured();
+        ChainStateSnapshot.get().exportIfConfigured();
+        BlockMirrorService.get().start();
+        AddressHistoryStorage.get().start();
         AccountStorage.get();
         TransactionStorage.get().init();
         BlockChainServer.get().start();
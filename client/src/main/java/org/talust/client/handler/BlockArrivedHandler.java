@@ -29,7 +29,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.talust.common.model.MessageChannel;
 import org.talust.common.tools.CacheManager;
-import org.talust.common.tools.SerializationUtil;
+import org.talust.core.core.BlockSyncPipeline;
 import org.talust.core.model.Block;
 import org.talust.core.network.MainNetworkParams;
 import org.talust.core.storage.BlockStore;
@@ -62,8 +62,7 @@ public class BlockArrivedHandler implements MessageHandler {
      * @return
      */
     public void saveBlock(MessageChannel messageChannel) {
-        byte[] blockBytes = messageChannel.getMessage().getContent();
-        BlockStore blockStore = SerializationUtil.deserializer(blockBytes, BlockStore.class);
+        BlockStore blockStore = BlockSyncPipeline.getBlockStore(messageChannel);
         try {
             //最值该节点的最新高度
              blockStorage.saveBlock(blockStore);
@@ -64,7 +64,8 @@ public class BlockDataReqHandler implements MessageHandler {
         }else{
             byte[] heightBytes = new byte[4];
             Utils.uint32ToByteArrayBE(Long.parseLong(num), heightBytes, 0);
-            BlockStore blockStore= blockStorage.getBlockByHeight(Long.parseLong(num));
+            //从快照启动的节点没有快照之前的完整区块,按无此区块返回,由远端向其他节点请求
+            BlockStore blockStore = blockStorage.hasFullBlock(Long.parseLong(num)) ? blockStorage.getBlockByHeight(Long.parseLong(num)) : null;
             if (blockStore != null) {
                 byte[] block = SerializationUtil.serializer(blockStore);
                 nodeMessage.setContent(block);//存储区块内容
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.talust.client.handler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.Message;
+import org.talust.common.model.MessageChannel;
+import org.talust.common.model.MessageType;
+import org.talust.core.core.BlockHeaders;
+import org.talust.core.storage.BlockHeaderStore;
+import org.talust.core.storage.BlockStorage;
+import org.talust.network.MessageHandler;
+import org.talust.network.netty.queue.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 远端向当前节点批量请求区块头,请求内容为"起始高度,数量"
+ */
+@Slf4j
+public class BlockHeadersReqHandler implements MessageHandler {
+    private BlockStorage blockStorage = BlockStorage.get();
+    private MessageQueue mq = MessageQueue.get();
+
+    @Override
+    public boolean handle(MessageChannel message) {
+        MessageChannel mc = new MessageChannel();
+        mc.setToIp(message.getFromIp());
+        mc.setChannelId(message.getChannelId());
+        Message nodeMessage = new Message();
+        nodeMessage.setMsgCount(message.getMessage().getMsgCount());
+        byte[] content = message.getMessage().getContent();
+        try {
+            String[] req = new String(content).split(",");
+            long start = Long.parseLong(req[0]);
+            int count = Math.min(Integer.parseInt(req[1]), BlockHeaders.MAX_HEADERS);
+            List<BlockHeaderStore> headers = new ArrayList<>(count);
+            for (long height = start; height < start + count; height++) {
+                BlockHeaderStore header = blockStorage.getHeaderByHeight(height);
+                if (header == null) {
+                    break;
+                }
+                headers.add(header);
+            }
+            nodeMessage.setContent(BlockHeaders.encode(headers));
+            nodeMessage.setType(MessageType.HEADERS_RESP.getType());
+            log.info("向远端ip:{} 返回从高度:{}开始的{}个区块头", message.getFromIp(), start, headers.size());
+        } catch (Exception e) {
+            nodeMessage.setContent(content);
+            nodeMessage.setType(MessageType.ERROR_MESSAGE.getType());
+            log.error("远端ip:{} 的区块头请求错误:{}", message.getFromIp(), e.getMessage());
+        }
+        mc.setMessage(nodeMessage);
+        mq.addMessage(mc);
+        return true;
+    }
+}
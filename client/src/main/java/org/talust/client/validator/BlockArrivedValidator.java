@@ -34,8 +34,10 @@ import org.talust.common.model.MessageChannel;
 import org.talust.common.tools.CacheManager;
 import org.talust.common.tools.Configure;
 import org.talust.common.tools.SerializationUtil;
+import org.talust.core.core.BlockSyncPipeline;
 import org.talust.core.core.ByteHash;
 import org.talust.core.core.Definition;
+import org.talust.core.core.SignatureVerifier;
 import org.talust.core.core.SynBlock;
 import org.talust.core.model.Block;
 import org.talust.core.model.BlockHeader;
@@ -64,7 +66,7 @@ public class BlockArrivedValidator implements MessageValidator {
     @Override
     public boolean check(MessageChannel messageChannel) {
         boolean result = false;
-        BlockStore blockStore = SerializationUtil.deserializer(messageChannel.getMessage().getContent(), BlockStore.class);
+        BlockStore blockStore = BlockSyncPipeline.getBlockStore(messageChannel);
         Block block = blockStore.getBlock();
         long height = block.getHeight();
         long nowHeight = MainNetworkParams.get().getBestBlockHeight();
@@ -89,9 +91,13 @@ public class BlockArrivedValidator implements MessageValidator {
                 log.info("获取上一个区块的内容失败，且区块高度不为0!,需要重新同步！");
             }
             if (result) {//继续校验区块里面的每一条数据
-                block.verify();
-                block.verifyScript();
-                if (verifyBlock(block)) {
+                try {
+                    result = verifyBlock(block);
+                } catch (VerificationException e) {
+                    log.info("区块高度：{}的区块验证失败:{}", height, e.getMessage());
+                    result = false;
+                }
+                if (result) {
                     List<Transaction> data = block.getTxs();
                     for (Transaction datum : data) {
                         MessageChannel nm = new MessageChannel();
@@ -121,6 +127,13 @@ public class BlockArrivedValidator implements MessageValidator {
 
 
     public boolean verifyBlock(Block block) {
+        //并行预验证区块及交易签名，任意一个签名错误立即返回，之后的脚本验证直接命中验证缓存
+        List<SignatureVerifier.SignatureItem> signatures = SignatureVerifier.collectSignatures(block);
+        int invalid = SignatureVerifier.get().findFirstInvalid(signatures);
+        if (invalid >= 0) {
+            log.info("区块高度：{}的签名验证失败，第{}个签名错误", block.getHeight(), invalid);
+            return false;
+        }
         try {
             if (!block.verify()) {
                 return false;
@@ -198,6 +211,4 @@ public class BlockArrivedValidator implements MessageValidator {
         }
         return true;
     }
-
-
 }
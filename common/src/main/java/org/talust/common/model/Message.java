@@ -43,6 +43,8 @@ public class Message {
     private Long time;
     @Tag(6)//消息计数器,由一个AtomicLong不断累加,主要针对请求响应模型的,通过此来定位请求点
     private Long msgCount;
+    @Tag(7)//内容的压缩方式,为空表示未压缩,只在协商过压缩的连接上使用
+    private Integer compress;
 
     public Integer getType() {
         return type;
@@ -93,5 +95,11 @@ public class Message {
         this.signContent = signContent;
     }
 
-}
+    public Integer getCompress() {
+        return compress;
+    }
 
+    public void setCompress(Integer compress) {
+        this.compress = compress;
+    }
+}
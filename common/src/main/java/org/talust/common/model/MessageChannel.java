@@ -37,6 +37,8 @@ public class MessageChannel {
     private String toIp;
 
     private String channelId;
+    //本地已解码的消息内容,避免在校验、处理时重复反序列化,不传到网络中
+    private Object decoded;
 
     public Message getMessage() {
         return message;
@@ -69,4 +71,12 @@ public class MessageChannel {
     public void setChannelId(String channelId) {
         this.channelId = channelId;
     }
+
+    public Object getDecoded() {
+        return decoded;
+    }
+
+    public void setDecoded(Object decoded) {
+        this.decoded = decoded;
+    }
 }
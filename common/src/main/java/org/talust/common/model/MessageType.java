@@ -62,6 +62,12 @@ public enum MessageType {
     DEPOSITS_STATUS_REQ(22),
     //所有节点的储蓄状态相应
     DEPOSITS_STATUS_RESP(23),
+    //批量区块头请求
+    HEADERS_REQ(24),
+    //批量区块头响应
+    HEADERS_RESP(25),
+    //连接建立时协商消息压缩方式
+    COMPRESS_NEGOTIATE(26),
 
     //结束,主要是为了开发时新增消息类型方便/
     END(10000)
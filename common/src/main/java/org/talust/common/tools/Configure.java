@@ -70,6 +70,14 @@ public final class Configure {
      * 与帐户有关的交易存储目录
      */
     public static String DATA_TRANSACTION = DATA_DIR + File.separator + "transaction";
+    /**
+     * 地址交易历史索引存储目录
+     */
+    public static String DATA_ADDRESS_HISTORY = DATA_DIR + File.separator + "history";
+    /**
+     * 账户索引存储目录
+     */
+    public static String DATA_ACCOUNT_INDEX = DATA_DIR + File.separator + "accountindex";
 
     /**
      * peers 文件储存目录
@@ -107,6 +115,14 @@ public final class Configure {
      * 网络检查间隔时间，单位秒
      */
     public static int NET_CHECK_TIME = 20;
+    /**
+     * 区块预组装提前于出块时间的时长，单位毫秒
+     */
+    public static int BLOCK_PREPARE_TIME = 1000;
+    /**
+     * 预组装后补充新到达交易的间隔时间，单位毫秒
+     */
+    public static int BLOCK_TOP_UP_INTERVAL = 200;
 
     public static byte[] CONSENSUS_ACCOUNT_KEYS =Sha256Hash.hashTwice("consensus_keys".getBytes());
     public static String VOLUNTARILY_EXIT = "VOLUNTARILY_EXIT";
@@ -122,6 +138,116 @@ public final class Configure {
      */
     public static String GENESIS_SERVER_ADDR ;
 
+    /**
+     * 区块镜像存储MongoDB地址，为空时不启用镜像
+     */
+    public static String MONGODB_URI;
+
+    /**
+     * 区块镜像同步队列长度
+     */
+    public static int MIRROR_QUEUE_SIZE = 1000;
+
+    /**
+     * Linux下是否使用epoll原生传输，不可用时自动使用nio
+     */
+    public static boolean NETTY_EPOLL = true;
+
+    /**
+     * 网络工作线程数，服务端与客户端连接共用，小于等于0时为cpu核数的2倍
+     */
+    public static int NETTY_WORKER_THREADS = 0;
+
+    /**
+     * 服务端等待接受的连接队列长度
+     */
+    public static int NETTY_SO_BACKLOG = 1024;
+
+    /**
+     * 是否关闭Nagle算法，共识消息需要低延迟
+     */
+    public static boolean NETTY_TCP_NODELAY = true;
+
+    /**
+     * 连接写缓冲低水位，单位字节
+     */
+    public static int NETTY_WRITE_BUFFER_LOW = 32 * 1024;
+
+    /**
+     * 连接写缓冲高水位，超过后连接不可写，单位字节
+     */
+    public static int NETTY_WRITE_BUFFER_HIGH = 1024 * 1024;
+
+    /**
+     * 是否使用池化的内存分配
+     */
+    public static boolean NETTY_POOLED_ALLOCATOR = true;
+
+    /**
+     * 交易选中的未花费输出预占的有效时间，单位秒，超时未释放的预占自动失效
+     */
+    public static long UTXO_RESERVATION_TTL = 300;
+
+    /**
+     * 批量转账单次请求最多的收款数量
+     */
+    public static int MAX_BATCH_TRANSFER_COUNT = 10000;
+
+    /**
+     * 加密账户密码校验通过后保持解锁的时间，单位秒，到期自动锁定
+     */
+    public static long KEY_SESSION_TTL = 300;
+
+    /**
+     * 账户解锁接口允许指定的最长有效时间，单位秒
+     */
+    public static long KEY_SESSION_MAX_TTL = 3600;
+
+    /**
+     * 内存中缓存的最近使用账户数量，其余账户使用时从账户索引存储中加载
+     */
+    public static int ACCOUNT_CACHE_SIZE = 1000;
+
+    /**
+     * 每个连接发送队列的最大字节数，超过后丢弃交易消息，丢弃后仍放不下其他消息时关闭连接
+     */
+    public static long PEER_QUEUE_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * 每个连接每秒最大发送字节数，小于等于0时不限速
+     */
+    public static long PEER_MAX_BYTES_PER_SECOND = 0;
+
+    /**
+     * 是否在网络连接上启用消息压缩，需双方都支持时才会压缩
+     */
+    public static boolean COMPRESS_ENABLE = true;
+
+    /**
+     * 消息内容超过该字节数时才压缩，心跳、共识等小消息不压缩
+     */
+    public static int COMPRESS_THRESHOLD = 1024;
+
+    /**
+     * 网络消息内容的最大字节数，解压后超过该长度的消息丢弃
+     */
+    public static int MAX_MESSAGE_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * 链状态快照文件，本地没有区块时从该快照启动，为空时从创世块开始同步
+     */
+    public static String SNAPSHOT_FILE;
+
+    /**
+     * 链状态快照的校验hash，导入前需与快照文件一致
+     */
+    public static String SNAPSHOT_HASH;
+
+    /**
+     * 链状态快照导出文件，配置后节点启动时在后台导出当前最新区块的快照
+     */
+    public static String SNAPSHOT_EXPORT_FILE;
+
 
     public static void setMaxPassivityConnectCount(int maxPassivityConnectCount) {
         MAX_PASSIVITY_CONNECT_COUNT = maxPassivityConnectCount;
@@ -141,4 +267,16 @@ public final class Configure {
     public static void setGenesisServerAddr(String genesisServerAddr) {
         GENESIS_SERVER_ADDR = genesisServerAddr;
     }
+    public static void setMongodbUri(String mongodbUri) {
+        MONGODB_URI = mongodbUri;
+    }
+    public static void setSnapshotFile(String snapshotFile) {
+        SNAPSHOT_FILE = snapshotFile;
+    }
+    public static void setSnapshotHash(String snapshotHash) {
+        SNAPSHOT_HASH = snapshotHash;
+    }
+    public static void setSnapshotExportFile(String snapshotExportFile) {
+        SNAPSHOT_EXPORT_FILE = snapshotExportFile;
+    }
 }
@@ -2,19 +2,16 @@ package org.talust.consensus;
 
 import lombok.extern.slf4j.Slf4j;
 import org.talust.common.model.Message;
-import org.talust.common.model.MessageChannel;
 import org.talust.common.model.MessageType;
 import org.talust.common.model.SuperNode;
 import org.talust.common.tools.CacheManager;
-import org.talust.common.tools.ThreadPool;
 import org.talust.network.model.MyChannel;
 import org.talust.network.netty.ChannelContain;
 import org.talust.network.netty.ConnectionManager;
 import org.talust.network.netty.SynRequest;
 
 import java.util.*;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Slf4j //进入共识的会议,里面含有各个会议成员
@@ -29,15 +26,18 @@ public class Conference {
     }
 
     //当前的master
-    private SuperNode master;
-    //构造一个线程池
-    private ThreadPoolExecutor threadPool = ThreadPool.get().threadPool;
+    private volatile SuperNode master;
     private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     private int voteState = VoteStatus.NOT_NEED.getType();
+    //master请求超时时间,单位毫秒
+    private static final long MASTER_REQ_TIMEOUT = 3000;
+    //进行中的master投票
+    private MasterVote masterVote;
 
     /**
      * 获取当前的master节点
+     * 有其他超级节点时发起投票后立即返回,投票完成后才设置master,调用方需稍后再次获取
      *
      * @return
      */
@@ -46,96 +46,26 @@ public class Conference {
             Collection<MyChannel> superChannels = ChannelContain.get().getSuperChannels();
             int superSize = superChannels.size();
             if (superSize > 0) {//说明当前超级节点网络有多个
-                int needOkNumber = superSize / 2;//需要回应的数量
-                //向每一个超级节点请求加入结果
+                //向每一个超级节点请求加入结果,过半数认同或全部回应后在回调中设置master,不阻塞调用线程
                 log.info("当前节点ip:{} 向各个超级节点请求当前master节点,其他超级节点数量为:{}", ConnectionManager.get().getSelfIp(), superSize);
-                List<Future<String>> results = new ArrayList<>();
-                for (final MyChannel superChannel : superChannels) {
-                    Future<String> submit = threadPool.submit(() -> {
-                        Message nodeMessage = new Message();
-                        nodeMessage.setType(MessageType.MASTER_REQ.getType());//master请求
-                        MessageChannel nm = SynRequest.get().synReq(nodeMessage, superChannel.getRemoteIp());
-                        if (nm != null) {
-                            byte[] content = nm.getMessage().getContent();
-                            if (content != null) {//ip
-                                log.info("reqNetMaster 节点返回master 节点IP为：{},来源于", new String(content), nm.getFromIp());
-                                return new String(content);
+                voteNetMaster(superChannels).thenAccept(masterIp -> {
+                    if (masterIp != null) {
+                        log.info("reqNetMaster 认定节点IP为：{}", masterIp);
+                        SuperNode superNode = ConnectionManager.get().getSuperNodeByIp(masterIp);
+                        if (superNode != null) {
+                            lock.writeLock().lock();
+                            try {
+                                setMaster(superNode);
+                            } finally {
+                                lock.writeLock().unlock();
                             }
                         }
-                        return null;
-                    });
-                    results.add(submit);
-                }
-
-                Map<String, Integer> rc = new HashMap<>();
-                while (true) {
-                    boolean isOk = false;
-                    for (Future<String> result : results) {
-                        try {
-                            boolean done = result.isDone();
-                            if (done) {
-                                String conferenceMemeber = result.get();
-                                Integer number = rc.get(conferenceMemeber);
-                                if (number == null) {
-                                    number = 0;
-                                }
-                                number++;
-                                rc.put(conferenceMemeber, number);
-                                if (number > needOkNumber) {
-                                    isOk = true;
-                                }
-                                results.remove(result);
-                                break;
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    if (isOk) {
-                        break;
                     }
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                Iterator<Map.Entry<String, Integer>> it = rc.entrySet().iterator();
-                while (it.hasNext()) {
-                    Map.Entry<String, Integer> next = it.next();
-                    Integer value = next.getValue();
-                    if ("NO_MASTER".equals(next.getKey())) {
-                        needOkNumber = (superSize - value) / 2;
-                        log.info("NO_MASTER 数据数量为：{},需要确认的节点IP数量为:{}", value, needOkNumber);
-                        continue;
-                    }
-                    log.info("数据数量为：{},需要确认的节点IP数量为:{}", value, needOkNumber);
-                    if (value > needOkNumber) {
-                        log.info("reqNetMaster 认定节点IP为：{}", next.getKey());
-                        master = ConnectionManager.get().getSuperNodeByIp(next.getKey());
-                        log.info("reqNetMaster 当前出块节点IP 为：{}", master.getIp());
-                        ConnectionManager.get().setMasterIp(master.getIp());
-                        CacheManager.get().setCurrentBlockGenIp(master.getIp());
-                        if (master.getIp().equals(ConnectionManager.get().getSelfIp())) {//如果是自己,则开始生成块
-                            ConsensusService.get().startGenBlock();
-                        } else {
-                            ConsensusService.get().stopGenBlock();
-                        }
-                    }
-                }
+                });
             } else {
                 boolean superNode = ConnectionManager.get().superNode;
                 if (superNode) {//如果当前节点是超级节点,则启动共识机制
-                    master = ConnectionManager.get().getSuperNodeByIp(ConnectionManager.get().getSelfIp());
-                    log.info("reqNetMaster 当前出块节点IP 为：{}", master.getIp());
-                    ConnectionManager.get().setMasterIp(master.getIp());
-                    CacheManager.get().setCurrentBlockGenIp(master.getIp());
-                    if (master.getIp().equals(ConnectionManager.get().getSelfIp())) {//如果是自己,则开始生成块
-                        ConsensusService.get().startGenBlock();
-                    } else {
-                        ConsensusService.get().stopGenBlock();
-                    }
+                    setMaster(ConnectionManager.get().getSuperNodeByIp(ConnectionManager.get().getSelfIp()));
                 }
             }
         } catch (Exception e) {
@@ -145,6 +75,46 @@ public class Conference {
         return master;
     }
 
+    private void setMaster(SuperNode superNode) {
+        master = superNode;
+        log.info("reqNetMaster 当前出块节点IP 为：{}", master.getIp());
+        ConnectionManager.get().setMasterIp(master.getIp());
+        CacheManager.get().setCurrentBlockGenIp(master.getIp());
+        if (master.getIp().equals(ConnectionManager.get().getSelfIp())) {//如果是自己,则开始生成块
+            ConsensusService.get().startGenBlock();
+        } else {
+            ConsensusService.get().stopGenBlock();
+        }
+    }
+
+    /**
+     * 向各个超级节点发起master投票,不阻塞调用线程
+     * 若上一轮投票仍在进行,则直接复用,不重复发送请求
+     *
+     * @return 投票结果, 为认定的master ip, 未产生master时为null
+     */
+    public synchronized CompletableFuture<String> voteNetMaster(Collection<MyChannel> superChannels) {
+        if (masterVote != null && !masterVote.getResult().isDone()) {
+            return masterVote.getResult();
+        }
+        MasterVote vote = new MasterVote(superChannels.size());
+        for (MyChannel superChannel : superChannels) {
+            Message nodeMessage = new Message();
+            nodeMessage.setType(MessageType.MASTER_REQ.getType());//master请求
+            SynRequest.get().asynReq(nodeMessage, superChannel.getRemoteIp(), MASTER_REQ_TIMEOUT)
+                    .thenAccept(nm -> {
+                        String masterIp = null;
+                        if (nm != null && nm.getMessage().getContent() != null) {//ip
+                            masterIp = new String(nm.getMessage().getContent());
+                            log.info("reqNetMaster 节点返回master 节点IP为：{},来源于:{}", masterIp, nm.getFromIp());
+                        }
+                        vote.vote(masterIp);
+                    });
+        }
+        masterVote = vote;
+        return vote.getResult();
+    }
+
     /**
      * 改变当前master节点
      */
@@ -155,24 +125,7 @@ public class Conference {
             String currentBlockGenIp = CacheManager.get().getCurrentBlockGenIp();
             if (null != master) {
                 if (this.master.getIp().equals(currentBlockGenIp)) {//说明需要改变master节点
-                    Collection<SuperNode> superNodes = ConnectionManager.get().getSuperNodes();
-                    List<SuperNode> sns = new ArrayList<>();
-                    for (SuperNode superNode : superNodes) {
-                        sns.add(superNode);
-                    }
-                    Collections.sort(sns, Comparator.comparing(SuperNode::getIp));
-
-                    boolean selOk = false;
-                    SuperNode nextMaster = sns.get(0);
-                    for (SuperNode superNode : sns) {
-                        if (selOk) {
-                            nextMaster = superNode;
-                            break;
-                        }
-                        if (superNode.getIp().equals(currentBlockGenIp)) {
-                            selOk = true;
-                        }
-                    }
+                    SuperNode nextMaster = ProducerSchedule.get().getSuccessor(currentBlockGenIp);
                     this.master = nextMaster;
                     log.info("changeMaster  改变当前master节点,当前出块节点IP 为：{}", master.getIp());
                     ConnectionManager.get().setMasterIp(master.getIp());
@@ -198,7 +151,7 @@ public class Conference {
      * @return
      */
     public boolean checkNewMaster(String newMasterIp) {
-        if (newMasterIp.equals(master)) {//说明当前节点已经成功切换了,所以直接验证其ok
+        if (master != null && newMasterIp.equals(master.getIp())) {//说明当前节点已经成功切换了,所以直接验证其ok
             return true;
         }
         boolean haveIp = false;//用于判断要切换的ip是否在本地存储有
@@ -213,25 +166,9 @@ public class Conference {
         if (haveIp) {
             if (voteState == VoteStatus.LOOKING.getType()) {//当前节点也在更新master节点
                 String currentBlockGenIp = CacheManager.get().getCurrentBlockGenIp();
-                Collection<SuperNode> superNodes = ConnectionManager.get().getSuperNodes();
-                List<SuperNode> sns = new ArrayList<>();
-                for (SuperNode superNode : superNodes) {
-                    sns.add(superNode);
-                }
-                Collections.sort(sns, Comparator.comparing(SuperNode::getIp));
-
-                boolean selOk = false;
-                SuperNode nextMaster = sns.get(0);
-                for (SuperNode superNode : sns) {
-                    if (selOk) {
-                        nextMaster = superNode;
-                        break;
-                    }
-                    if (superNode.getIp().equals(currentBlockGenIp)) {
-                        selOk = true;
-                    }
-                }
-                if (nextMaster.equals(newMasterIp)) {//说明当前节点认同此更新
+                SuperNode nextMaster = ProducerSchedule.get().getSuccessor(currentBlockGenIp);
+                if (nextMaster != null && nextMaster.getIp().equals(newMasterIp)) {//说明当前节点认同此更新
+                    master = nextMaster;
                     log.info("checkNewMaster 改变当前master节点,当前出块节点IP 为：{}", master.getIp());
                     ConnectionManager.get().setMasterIp(newMasterIp);
                     if (master.getIp().equals(ConnectionManager.get().getSelfIp())) {//如果是自己,则开始生成块
@@ -243,7 +180,7 @@ public class Conference {
                 }
             } else {
                 changeMaster();
-                if (newMasterIp.equals(master)) {
+                if (master != null && newMasterIp.equals(master.getIp())) {
                     log.info("checkNewMaster 改变当前master节点,当前出块节点IP 为：{}", master.getIp());
                     ConnectionManager.get().setMasterIp(newMasterIp);
                     if (master.getIp().equals(ConnectionManager.get().getSelfIp())) {//如果是自己,则开始生成块
@@ -37,6 +37,7 @@ public class ConsensusService {
     private ScheduledExecutorService blockService = new ScheduledThreadPoolExecutor(1);
     private AtomicBoolean genRunning = new AtomicBoolean(false);
     private int checkSecond;//检测区块是否正常的时长
+    private long lastSlotMillis;//上一个出块时段,单位毫秒
 
     public void start() {
         boolean superNode = ConnectionManager.get().superNode;
@@ -74,15 +75,8 @@ public class ConsensusService {
                 delay = 0;
             }
         }
-
-//        service.scheduleAtFixedRate(() -> {
-//            if (genRunning.get()) {
-//                log.info("打包ip:{}", ConnectionManager.get().masterIp);
-//                long packageTime = NtpTimeService.currentTimeSeconds();
-//                packBlockTool.pack(packageTime);//打包
-//            }
-//        }, delay, Configure.BLOCK_GEN_TIME, TimeUnit.SECONDS);
-//        log.info("启动定时任务生成区块,延时:{}...", delay);
+        service.schedule(this::scheduleNextSlot, delay, TimeUnit.SECONDS);
+        log.info("启动定时任务生成区块,延时:{}...", delay);
 
 //        blockService.scheduleAtFixedRate(() -> {
 //            log.info("出块节点检查，当前连接节点数：{}，同步状态：{}", ChannelContain.get().getSuperChannels().size(), SynBlock.get().getSyning().get());
@@ -128,6 +122,52 @@ public class ConsensusService {
 //        log.info("启动定时任务检查出块节点区块,延时:{}...", delay);
     }
 
+    /**
+     * 从上一个出块时段推进到下一个时段,提前预组装候选区块,预组装后定时补充新到达的交易,到达时段边界时再签名广播
+     * 定时任务提前触发时也不会再次选中同一时段,错过的时段按网络时间对齐到下一个时段
+     */
+    private void scheduleNextSlot() {
+        try {
+            long genMillis = Configure.BLOCK_GEN_TIME * 1000L;
+            long now = NtpTimeService.currentTimeMillis();
+            long slotMillis = lastSlotMillis + genMillis;
+            if (lastSlotMillis == 0 || slotMillis <= now) {
+                slotMillis = (now / genMillis + 1) * genMillis;
+            }
+            lastSlotMillis = slotMillis;
+            long packageTime = slotMillis / 1000;
+            long slotDelay = slotMillis - now;
+            long prepareDelay = Math.max(0, slotDelay - Configure.BLOCK_PREPARE_TIME);
+            service.schedule(() -> {
+                if (genRunning.get()) {
+                    packBlockTool.prepare(packageTime);//预组装
+                }
+            }, prepareDelay, TimeUnit.MILLISECONDS);
+            for (long delay = prepareDelay + Configure.BLOCK_TOP_UP_INTERVAL; delay < slotDelay; delay += Configure.BLOCK_TOP_UP_INTERVAL) {
+                service.schedule(() -> {
+                    if (genRunning.get()) {
+                        packBlockTool.topUp(packageTime);//补充新到达的交易
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            service.schedule(() -> {
+                try {
+                    if (genRunning.get()) {
+                        log.info("打包ip:{}", ConnectionManager.get().masterIp);
+                        packBlockTool.publish(packageTime);//打包
+                    } else {
+                        packBlockTool.discard();
+                    }
+                } finally {
+                    scheduleNextSlot();
+                }
+            }, slotDelay, TimeUnit.MILLISECONDS);
+        } catch (Throwable e) {
+            log.error("error:", e);
+            service.schedule(this::scheduleNextSlot, Configure.BLOCK_GEN_TIME, TimeUnit.SECONDS);
+        }
+    }
+
     /**
      * 开始生成块
      */
@@ -0,0 +1,61 @@
+package org.talust.consensus;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一轮master投票的收集,每收到一个超级节点的回应即计票
+ * 某个ip得到过半数认同,或过半数节点回应没有master,或所有节点都已回应(含超时)时结束
+ */
+@Slf4j
+public class MasterVote {
+    public static final String NO_MASTER = "NO_MASTER";
+
+    //参与投票的超级节点数量
+    private final int superSize;
+    //已回应(含超时)的数量
+    private int responded;
+    //各个ip得到的票数
+    private final Map<String, Integer> votes = new HashMap<>();
+    //投票结果,为认定的master ip,没有结果时为null
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    public MasterVote(int superSize) {
+        this.superSize = superSize;
+    }
+
+    /**
+     * 计入一个超级节点的回应
+     *
+     * @param masterIp 远端认定的master ip,未回应时为null
+     */
+    public synchronized void vote(String masterIp) {
+        if (result.isDone()) {
+            return;
+        }
+        responded++;
+        if (masterIp != null) {
+            votes.merge(masterIp, 1, Integer::sum);
+        }
+        int noMaster = votes.getOrDefault(NO_MASTER, 0);
+        int needOkNumber = (superSize - noMaster) / 2;//需要确认的数量
+        for (Map.Entry<String, Integer> entry : votes.entrySet()) {
+            if (!NO_MASTER.equals(entry.getKey()) && entry.getValue() > needOkNumber) {
+                log.info("master投票完成,认定节点IP为：{},票数：{},已回应数量：{}", entry.getKey(), entry.getValue(), responded);
+                result.complete(entry.getKey());
+                return;
+            }
+        }
+        if (noMaster > superSize / 2 || responded >= superSize) {
+            log.info("master投票结束,未产生master,NO_MASTER数量为：{},已回应数量：{}", noMaster, responded);
+            result.complete(null);
+        }
+    }
+
+    public CompletableFuture<String> getResult() {
+        return result;
+    }
+}
@@ -35,6 +35,9 @@ public class PackBlockTool {
     private BlockStorage blockStorage = BlockStorage.get();
     private NetworkParams networkParams = MainNetworkParams.get();
     private  TransactionCreator transactionCreator = new TransactionCreator();
+    //预组装的候选区块
+    private Candidate candidate;
+
     //打包
     //TODO  针对所有的交易进行验证， 中心验证共识交易是否出现极限情况。
     /**
@@ -43,18 +46,68 @@ public class PackBlockTool {
      * 整体list中踢出加入金额最小的那个。
      */
     public void  pack(long packageTime) {
+        prepare(packageTime);
+        publish(packageTime);
+    }
+
+    /**
+     * 出块时间到达前预组装候选区块:生成挖矿奖励,验证共识交易,取出待打包交易并排序
+     */
+    public synchronized void prepare(long packageTime) {
         try {
-            Account account = AccountStorage.get().getAccount();  //批量获取需要打包的数据
-            List<Transaction> transactionList = new ArrayList<>();
+            discard();
             long height = blockStorage.getBestBlockHeader().getBlockHeader().getHeight();
             height++;
-            Transaction coinBase = getCoinBase(packageTime, height);
-            networkParams.setBestHeight(height);
-            if (coinBase != null) {  //加入挖矿奖励,挖矿交易生成
-                transactionList.add(coinBase);
-            }
+            Candidate next = new Candidate(height, packageTime);
+            next.coinBase = getCoinBase(packageTime, height);
             validatorConsensus();
-            List<Transaction> dataContain = dataContainer.getBatchRecord();
+            next.txs.addAll(dataContainer.getBatchRecord());
+            candidate = next;
+            log.info("预组装区块完成,高度:{},交易数量:{}", height, next.txs.size());
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 预组装后到出块前,将新到达的交易补充到候选区块
+     */
+    public synchronized void topUp(long packageTime) {
+        if (candidate != null && candidate.packageTime == packageTime) {
+            candidate.topUp(dataContainer);
+        }
+    }
+
+    /**
+     * 出块时间到达,补充预组装后新到达的交易,签名并广播区块
+     * 广播前出错时候选区块中的交易放回交易池
+     */
+    public synchronized void publish(long packageTime) {
+        Candidate current = candidate;
+        candidate = null;
+        try {
+            //本地最新区块
+            BlockHeader BlockHeader = blockStorage.getBestBlockHeader().getBlockHeader();
+            if (current == null || current.packageTime != packageTime || current.height != BlockHeader.getHeight() + 1) {
+                //预组装的区块已过期,重新组装
+                if (current != null) {
+                    current.giveBack(dataContainer);
+                }
+                prepare(packageTime);
+                current = candidate;
+                candidate = null;
+                if (current == null) {
+                    return;
+                }
+            }
+            current.topUp(dataContainer);
+            Account account = AccountStorage.get().getAccount();
+            List<Transaction> transactionList = new ArrayList<>();
+            networkParams.setBestHeight(current.height);
+            if (current.coinBase != null) {  //加入挖矿奖励,挖矿交易生成
+                transactionList.add(current.coinBase);
+            }
+            List<Transaction> dataContain = current.txs;
             dataContain.sort(new Comparator<Transaction>() {
                 @Override
                 public int compare(Transaction o1, Transaction o2) {
@@ -62,12 +115,9 @@ public class PackBlockTool {
                 }
             });
             transactionList.addAll(dataContain );
-            //本地最新区块
-            BlockHeader BlockHeader = blockStorage.getBestBlockHeader().getBlockHeader();
             //获取我的时段开始时间
             Block block = new Block(networkParams);
-            long currentHeight = BlockHeader.getHeight() + 1;
-            block.setHeight(currentHeight);
+            block.setHeight(current.height);
             block.setPreHash(BlockHeader.getHash());
             block.setTime(packageTime);
             block.setVersion(networkParams.getProtocolVersionNum(NetworkParams.ProtocolVersion.CURRENT));
@@ -92,9 +142,21 @@ public class PackBlockTool {
             MessageQueue.get().addMessage(mc);
         } catch (Throwable e) {
             e.printStackTrace();
+            if (current != null) {
+                current.giveBack(dataContainer);
+            }
         }
     }
 
+    /**
+     * 放弃预组装的候选区块,已取出的交易放回交易池
+     */
+    public synchronized void discard() {
+        if (candidate != null) {
+            candidate.giveBack(dataContainer);
+            candidate = null;
+        }
+    }
 
     private void validatorConsensus(){
         log.info("共识交易验证开始：{}",NtpTimeService.currentTimeMillis());
@@ -180,4 +242,48 @@ public class PackBlockTool {
         String res = ArithUtils.div(mul,total,0);
         return res;
     }
+
+    /**
+     * 预组装的候选区块
+     */
+    private static class Candidate {
+        //区块高度
+        private final long height;
+        //出块时间
+        private final long packageTime;
+        //挖矿奖励交易
+        private Transaction coinBase;
+        //待打包的交易
+        private final List<Transaction> txs = new ArrayList<>();
+
+        private Candidate(long height, long packageTime) {
+            this.height = height;
+            this.packageTime = packageTime;
+        }
+
+        /**
+         * 补充预组装后新到达的交易,共识交易未经过验证,留到下一个区块
+         */
+        private void topUp(DataContainer dataContainer) {
+            List<Transaction> arrived = dataContainer.getBatchRecord();
+            for (Transaction tx : arrived) {
+                if (tx.getType() == Definition.TYPE_REG_CONSENSUS || tx.getType() == Definition.TYPE_REM_CONSENSUS
+                        || txs.size() >= dataContainer.getMaxRecordCount()) {
+                    dataContainer.requeueRecord(tx);
+                } else {
+                    txs.add(tx);
+                }
+            }
+        }
+
+        /**
+         * 交易放回交易池
+         */
+        private void giveBack(DataContainer dataContainer) {
+            for (Transaction tx : txs) {
+                dataContainer.requeueRecord(tx);
+            }
+            txs.clear();
+        }
+    }
 }
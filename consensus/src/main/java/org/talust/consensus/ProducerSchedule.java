@@ -0,0 +1,84 @@
+package org.talust.consensus;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.SuperNode;
+import org.talust.network.netty.ConnectionManager;
+
+import java.util.*;
+
+/**
+ * 出块节点排班表
+ * 由超级节点集合按ip排序后确定master的轮换顺序,切换master时各节点在本地直接算出下一个master,
+ * 不再每次复制并排序超级节点集合,切换本身仍由NEW_MASTER_REQ确认
+ * 出块仍由master负责,交易只转发给master,排班表不按区块高度决定出块节点
+ */
+@Slf4j
+public class ProducerSchedule {
+    private static ProducerSchedule instance = new ProducerSchedule();
+
+    private ProducerSchedule() {
+    }
+
+    public static ProducerSchedule get() {
+        return instance;
+    }
+
+    //当前排班表,整体替换,读取时不需要加锁
+    private volatile Schedule schedule = new Schedule(new ArrayList<>());
+
+    /**
+     * 获取指定节点之后的下一个出块节点,指定节点不在排班表中时返回第一个节点
+     */
+    public SuperNode getSuccessor(String ip) {
+        Schedule current = getSchedule();
+        if (current.producers.length == 0) {
+            return null;
+        }
+        Integer index = current.producerIndex.get(ip);
+        if (index == null) {
+            return current.producers[0];
+        }
+        return current.producers[(index + 1) % current.producers.length];
+    }
+
+    /**
+     * 超级节点集合变化后重新生成排班表
+     */
+    public synchronized void reload() {
+        List<SuperNode> sns = new ArrayList<>(ConnectionManager.get().getSuperNodes());
+        Collections.sort(sns, Comparator.comparing(SuperNode::getIp));
+        schedule = new Schedule(sns);
+        log.info("出块节点排班表已生成,超级节点数量:{}", sns.size());
+    }
+
+    /**
+     * 获取排班表,超级节点集合只在启动时从配置加载,数量变化时才重新生成
+     */
+    private Schedule getSchedule() {
+        Schedule current = schedule;
+        if (current.producers.length != ConnectionManager.get().getSuperNodes().size()) {
+            reload();
+            current = schedule;
+        }
+        return current;
+    }
+
+    /**
+     * 排班表快照,生成后不再修改
+     */
+    private static class Schedule {
+        //按ip排序后的超级节点
+        private final SuperNode[] producers;
+        //ip对应的出块顺序
+        private final Map<String, Integer> producerIndex;
+
+        private Schedule(List<SuperNode> sorted) {
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < sorted.size(); i++) {
+                index.put(sorted.get(i).getIp(), i);
+            }
+            this.producers = sorted.toArray(new SuperNode[sorted.size()]);
+            this.producerIndex = Collections.unmodifiableMap(index);
+        }
+    }
+}
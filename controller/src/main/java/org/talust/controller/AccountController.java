@@ -32,10 +32,12 @@ import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.talust.common.crypto.EncryptedData;
+import org.talust.common.model.Coin;
 import org.talust.common.tools.ArithUtils;
 import org.talust.common.tools.Configure;
 import org.talust.common.tools.FileUtil;
 import org.talust.core.core.ECKey;
+import org.talust.core.core.KeySessionManager;
 import org.talust.core.core.SynBlock;
 import org.talust.core.model.Account;
 import org.talust.core.model.Address;
@@ -43,10 +45,12 @@ import org.talust.core.network.MainNetworkParams;
 import org.talust.core.server.NtpTimeService;
 import org.talust.core.storage.AccountStorage;
 import org.talust.core.storage.BlockStorage;
-import org.talust.core.storage.TransactionStorage;
+import org.talust.core.storage.WalletRefreshService;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.util.Collection;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/user")
@@ -59,12 +63,11 @@ public class AccountController {
     JSONObject getCoins(@RequestParam String address) {
         JSONObject jsonObject = new JSONObject();
         Address addr = Address.fromBase58(MainNetworkParams.get(), address);
-        if (AccountStorage.get().reloadCoin()) {
-            long value = TransactionStorage.get().getBalanceAndUnconfirmedBalance(addr.getHash160())[0].value;
-            long lockValue = TransactionStorage.get().getBalanceAndUnconfirmedBalance(addr.getHash160())[1].value;
-            jsonObject.put("value", ArithUtils.div(value + "", "100000000", 8));
-            jsonObject.put("lockValue", ArithUtils.div(lockValue + "", "100000000", 8));
-        }
+        Coin[] balances = WalletRefreshService.get().getBalances(addr.getHash160());
+        long value = balances[0].value;
+        long lockValue = balances[1].value;
+        jsonObject.put("value", ArithUtils.div(value + "", "100000000", 8));
+        jsonObject.put("lockValue", ArithUtils.div(lockValue + "", "100000000", 8));
         return jsonObject;
     }
 
@@ -75,6 +78,45 @@ public class AccountController {
         return AccountStorage.get().encryptWallet(password, address);
     }
 
+    @ApiOperation(value = "账户解锁", notes = "加密账户解锁后在有效期内转账不再解密私钥,timeout为有效期秒数,不传时使用默认有效期,最长不超过KEY_SESSION_MAX_TTL")
+    @PostMapping(value = "unlockAccount")
+    JSONObject unlockAccount(@RequestParam String address, @RequestParam String password, @RequestParam(required = false) Long timeout) {
+        JSONObject resp = new JSONObject();
+        Account account = AccountStorage.get().getAccountByAddress(address);
+        if (null == account) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00010");
+            return resp;
+        }
+        if (account.isEncrypted()) {
+            long ttl = (timeout == null || timeout <= 0) ? Configure.KEY_SESSION_TTL : Math.min(timeout, Configure.KEY_SESSION_MAX_TTL);
+            if (!KeySessionManager.get().unlock(account, password, ttl)) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00013");
+                return resp;
+            }
+            resp.put("expireTime", KeySessionManager.get().getExpireTime(account));
+        }
+        resp.put("retCode", "0");
+        resp.put("encrypted", account.isEncrypted());
+        return resp;
+    }
+
+    @ApiOperation(value = "账户锁定", notes = "立即锁定已解锁的账户,清除缓存的私钥")
+    @PostMapping(value = "lockAccount")
+    JSONObject lockAccount(@RequestParam String address) {
+        JSONObject resp = new JSONObject();
+        Account account = AccountStorage.get().getAccountByAddress(address);
+        if (null == account) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00010");
+            return resp;
+        }
+        KeySessionManager.get().lock(account);
+        resp.put("retCode", "0");
+        return resp;
+    }
+
     @ApiOperation(value = "查询全部地址拥 有的代币", notes = "查询拥有的代币")
     @PostMapping(value = "getAllCoins")
     JSONObject getAllCoins() {
@@ -86,53 +128,63 @@ public class AccountController {
             jsonObject.put("msgCode", "E00001");
             return jsonObject;
         }
-        Collection<Account> accountList = AccountStorage.get().getAccountMap().values();
         try{
-            if (null != accountList) {
-                JSONArray accounts = new JSONArray();
-                for (Account account : accountList) {
-                    JSONObject data = new JSONObject();
-                    if (AccountStorage.get().reloadCoin()) {
-                        data.put("value", ArithUtils.div(account.getAddress().getBalance() + "", "100000000", 8));
-                        data.put("lockValue", ArithUtils.div(account.getAddress().getUnconfirmedBalance() + "", "100000000", 8));
-                    }
-                    data.put("address", account.getAddress().getBase58());
-                    accounts.add(data);
-                }
-                jsonObject.put("data", accounts);
-            } else {
-                jsonObject.put("msgCode", "E00001");
-            }
+            putBalances(jsonObject);
         }catch (Exception e ){
-
+            log.error(e.getMessage(), e);
         }
         return jsonObject;
     }
 
 
-    @ApiOperation(value = "查询全部地址拥有的代币", notes = "查询拥有的代币")
+    @ApiOperation(value = "查询全部地址拥有的代币", notes = "强制重新扫描区块后查询拥有的代币,并发请求共用同一次扫描")
     @PostMapping(value = "getAllCoinsForce")
-    JSONObject getAllCoinsForce() {
+    JSONObject getAllCoinsForce(@RequestParam(required = false, defaultValue = "true") boolean wait) {
         JSONObject jsonObject = new JSONObject();
-        Collection<Account> accountList = AccountStorage.get().getAccountMap().values();
-        if (null != accountList) {
-            JSONArray accounts = new JSONArray();
-            for (Account account : accountList) {
-                JSONObject data = new JSONObject();
-                if (AccountStorage.get().reloadCoinForce()) {
-                    data.put("value", ArithUtils.div(account.getAddress().getBalance() + "", "100000000", 8));
-                    data.put("lockValue", ArithUtils.div(account.getAddress().getUnconfirmedBalance() + "", "100000000", 8));
-                }
-                data.put("address", account.getAddress().getBase58());
-                accounts.add(data);
-            }
-            jsonObject.put("data", accounts);
-        } else {
+        WalletRefreshService refreshService = WalletRefreshService.get();
+        if (!wait) {
+            refreshService.refresh();
+            return getRefreshStatus();
+        }
+        if (!refreshService.refreshAndWait()) {
             jsonObject.put("msgCode", "E00001");
+            return jsonObject;
         }
+        putBalances(jsonObject);
         return jsonObject;
     }
 
+    @ApiOperation(value = "查询钱包重扫进度", notes = "查询钱包重扫进度")
+    @PostMapping(value = "getRefreshStatus")
+    JSONObject getRefreshStatus() {
+        WalletRefreshService refreshService = WalletRefreshService.get();
+        JSONObject resp = new JSONObject();
+        resp.put("refreshing", refreshService.isRefreshing());
+        resp.put("scanHeight", refreshService.getScanHeight());
+        resp.put("bestHeight", MainNetworkParams.get().getBestHeight());
+        resp.put("startTime", refreshService.getStartTime());
+        resp.put("finishTime", refreshService.getFinishTime());
+        resp.put("lastResult", refreshService.getLastResult());
+        return resp;
+    }
+
+    private void putBalances(JSONObject jsonObject) {
+        Map<String, Coin[]> balances = WalletRefreshService.get().getAllBalances();
+        if (balances.isEmpty()) {
+            jsonObject.put("msgCode", "E00001");
+            return;
+        }
+        JSONArray accounts = new JSONArray();
+        for (Map.Entry<String, Coin[]> entry : balances.entrySet()) {
+            JSONObject data = new JSONObject();
+            data.put("value", ArithUtils.div(entry.getValue()[0].value + "", "100000000", 8));
+            data.put("lockValue", ArithUtils.div(entry.getValue()[1].value + "", "100000000", 8));
+            data.put("address", entry.getKey());
+            accounts.add(data);
+        }
+        jsonObject.put("data", accounts);
+    }
+
 
 
     @ApiOperation(value = "导入账户", notes = "导入账户")
@@ -234,7 +286,7 @@ public class AccountController {
 
     @ApiOperation(value = "查询同步状态", notes = "查询同步状态")
     @PostMapping(value = "searchSyncStatus")
-    JSONObject searchSyncStatus() {
+    JSONObject searchSyncStatus(HttpServletRequest request, HttpServletResponse response) {
         boolean isSync = SynBlock.get().isSync();
         long maxHeight = SynBlock.get().getMaxHeight();
         long nowHeight = MainNetworkParams.get().getBestHeight();
@@ -245,6 +297,6 @@ public class AccountController {
             maxHeight = nowHeight;
         }
         resp.put("maxHeight", maxHeight);
-        return resp;
+        return ChainResponseCache.get().withETag(resp, request, response);
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.controller;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.crypto.Hex;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.core.storage.BlockStorage;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 链状态查询结果缓存
+ * 缓存的结果只在区块连接或回滚后才会变化,每个缓存项记录计算时的最新区块hash,只返回与当前链头一致的缓存项
+ * 计算前后链头发生变化的结果不缓存,链头变化时整体清空
+ * 同时为响应生成ETag,请求带有相同的If-None-Match时直接返回304
+ */
+@Slf4j
+public class ChainResponseCache {
+    private static ChainResponseCache instance = new ChainResponseCache();
+
+    private ChainResponseCache() {
+    }
+
+    public static ChainResponseCache get() {
+        return instance;
+    }
+
+    //最大缓存数量,按地址查询的结果会产生较多的缓存项
+    private static final int MAX_CACHE_SIZE = 1000;
+
+    private final Map<String, CachedResponse> cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedResponse>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    });
+    //缓存对应的最新区块hash
+    private volatile Sha256Hash cachedTip;
+
+    /**
+     * 获取缓存结果,链头变化或没有缓存时重新计算,只缓存成功的结果
+     * 请求的If-None-Match与结果一致时返回null,响应状态为304
+     */
+    public JSONObject get(String key, Supplier<JSONObject> loader, HttpServletRequest request, HttpServletResponse response) {
+        Sha256Hash tip = checkTip();
+        CachedResponse cached = cache.get(key);
+        if (cached == null || tip == null || !tip.equals(cached.tip)) {
+            JSONObject resp = loader.get();
+            cached = new CachedResponse(resp, etag(resp), tip);
+            if ("0".equals(resp.getString("retCode")) && tip != null && tip.equals(BlockStorage.get().getBestBlockHash())) {
+                cache.put(key, cached);
+            }
+        }
+        return notModified(cached, request, response) ? null : cached.response;
+    }
+
+    /**
+     * 不缓存的结果只生成ETag
+     */
+    public JSONObject withETag(JSONObject resp, HttpServletRequest request, HttpServletResponse response) {
+        return notModified(new CachedResponse(resp, etag(resp), null), request, response) ? null : resp;
+    }
+
+    /**
+     * 链头变化时清空缓存,返回当前最新区块hash
+     */
+    private Sha256Hash checkTip() {
+        Sha256Hash tip = BlockStorage.get().getBestBlockHash();
+        if (tip != null && !tip.equals(cachedTip)) {
+            synchronized (this) {
+                if (!tip.equals(cachedTip)) {
+                    cache.clear();
+                    cachedTip = tip;
+                }
+            }
+        }
+        return tip;
+    }
+
+    private boolean notModified(CachedResponse cached, HttpServletRequest request, HttpServletResponse response) {
+        response.setHeader("ETag", cached.etag);
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(cached.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    private String etag(JSONObject resp) {
+        byte[] hash = Sha256Hash.hash(resp.toJSONString().getBytes(StandardCharsets.UTF_8));
+        return "\"" + Hex.encode(hash).substring(0, 32) + "\"";
+    }
+
+    private static class CachedResponse {
+        private final JSONObject response;
+        private final String etag;
+        //计算结果时的最新区块hash
+        private final Sha256Hash tip;
+
+        private CachedResponse(JSONObject response, String etag, Sha256Hash tip) {
+            this.response = response;
+            this.etag = etag;
+            this.tip = tip;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.talust.core.core.ByteHash;
+import org.talust.core.data.ChainEventBus;
+import org.talust.core.model.Address;
+import org.talust.core.network.MainNetworkParams;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+@RestController
+@RequestMapping("/api/events")
+@Api("链事件推送API")
+@Slf4j
+public class EventController {
+    //订阅连接超时时间,单位毫秒,客户端超时后重新订阅
+    private static final long SUBSCRIBE_TIMEOUT = 30 * 60 * 1000L;
+    //每个订阅者最多缓存的待发送事件数量,超过后断开该订阅者
+    private static final int MAX_SUBSCRIBER_BUFFER = 256;
+    //最大订阅者数量
+    private static final int MAX_SUBSCRIBERS = 1000;
+
+    //向订阅者发送事件的线程池,慢订阅者只会积压自己的缓存
+    private static final ExecutorService sender = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "event-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    @ApiOperation(value = "订阅链事件", notes = "以Server-Sent Events推送事件,types为block,revert,tx,balance,sync,逗号分隔,为空时订阅全部;"
+            + "addresses为关注的地址,逗号分隔,设置后tx及balance事件只推送与这些地址有关的")
+    @GetMapping(value = "subscribe", produces = "text/event-stream")
+    SseEmitter subscribe(@RequestParam(required = false) String types, @RequestParam(required = false) String addresses) {
+        SseEmitter emitter = new SseEmitter(SUBSCRIBE_TIMEOUT);
+        if (subscribers.size() >= MAX_SUBSCRIBERS) {
+            emitter.completeWithError(new IllegalStateException("订阅者数量已达上限"));
+            return emitter;
+        }
+        Set<String> typeFilter = StringUtils.isEmpty(types) ? null : new HashSet<>(Arrays.asList(types.split(",")));
+        Set<ByteHash> addressFilter = null;
+        if (!StringUtils.isEmpty(addresses)) {
+            addressFilter = new HashSet<>();
+            for (String address : addresses.split(",")) {
+                addressFilter.add(new ByteHash(Address.fromBase58(MainNetworkParams.get(), address.trim()).getHash160()));
+            }
+        }
+        Subscriber subscriber = new Subscriber(emitter, typeFilter, addressFilter);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        subscribers.add(subscriber);
+        ChainEventBus.get().addListener(subscriber);
+        return emitter;
+    }
+
+    /**
+     * 一个事件订阅者,事件先放入有界缓存,再由发送线程写出
+     */
+    private static class Subscriber implements ChainEventBus.Listener {
+        private final SseEmitter emitter;
+        private final Set<String> types;
+        private final Set<ByteHash> addresses;
+        private final BlockingQueue<ChainEventBus.ChainEvent> buffer = new ArrayBlockingQueue<>(MAX_SUBSCRIBER_BUFFER);
+        //是否已安排发送任务
+        private boolean sending;
+        private volatile boolean closed;
+
+        private Subscriber(SseEmitter emitter, Set<String> types, Set<ByteHash> addresses) {
+            this.emitter = emitter;
+            this.types = types;
+            this.addresses = addresses;
+        }
+
+        @Override
+        public void onEvent(ChainEventBus.ChainEvent event) {
+            if (closed || !accept(event)) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                log.info("事件订阅者处理过慢,断开订阅");
+                close();
+                emitter.complete();
+                return;
+            }
+            synchronized (this) {
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            sender.execute(this::send);
+        }
+
+        private boolean accept(ChainEventBus.ChainEvent event) {
+            if (types != null && !types.contains(event.getType())) {
+                return false;
+            }
+            if (addresses == null || event.getAddresses() == null) {
+                return true;
+            }
+            for (ByteHash hash160 : event.getAddresses()) {
+                if (addresses.contains(hash160)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void send() {
+            while (!closed) {
+                ChainEventBus.ChainEvent event;
+                synchronized (this) {
+                    event = buffer.poll();
+                    if (event == null) {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(SseEmitter.event().name(event.getType()).data(event.getData().toJSONString()));
+                } catch (Exception e) {
+                    close();
+                    emitter.completeWithError(e);
+                }
+            }
+        }
+
+        private void close() {
+            closed = true;
+            buffer.clear();
+            subscribers.remove(this);
+            ChainEventBus.get().removeListener(this);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.controller;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.talust.common.crypto.Hex;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.tools.ArithUtils;
+import org.talust.core.core.NetworkParams;
+import org.talust.core.data.TransactionCache;
+import org.talust.core.model.Address;
+import org.talust.core.network.MainNetworkParams;
+import org.talust.core.script.Script;
+import org.talust.core.storage.BlockHeaderStore;
+import org.talust.core.storage.BlockStorage;
+import org.talust.core.storage.TransactionStore;
+import org.talust.core.transaction.Transaction;
+import org.talust.core.transaction.TransactionInput;
+import org.talust.core.transaction.TransactionOutput;
+
+@RestController
+@RequestMapping("/api/tx")
+@Api("交易查询相关API")
+@Slf4j
+public class TransactionController {
+
+    @ApiOperation(value = "查询交易", notes = "根据交易hash查询交易内容、所在区块、区块中的序号及确认数,未打包的交易status为pending")
+    @GetMapping(value = "{hash}")
+    JSONObject getTransaction(@PathVariable String hash) {
+        JSONObject resp = new JSONObject();
+        Sha256Hash txHash;
+        try {
+            txHash = Sha256Hash.wrap(hash);
+        } catch (Exception e) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00029");
+            return resp;
+        }
+        BlockStorage blockStorage = BlockStorage.get();
+        JSONObject data;
+        TransactionStore txs = blockStorage.getTransaction(txHash.getBytes());
+        if (txs != null) {
+            data = toJson(txs.getTransaction());
+            long height = txs.getHeight();
+            BlockHeaderStore header = blockStorage.getHeaderByHeight(height);
+            long bestHeight = MainNetworkParams.get().getBestBlockHeight();
+            data.put("status", "confirmed");
+            data.put("height", height);
+            data.put("blockHash", header == null ? null : header.getBlockHeader().getHash().toString());
+            data.put("index", blockStorage.getTransactionIndex(txHash, height));
+            data.put("confirmations", bestHeight >= height ? bestHeight - height + 1 : 0);
+        } else {
+            Transaction tx = TransactionCache.getInstace().get(txHash);
+            if (tx == null) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00030");
+                return resp;
+            }
+            data = toJson(tx);
+            data.put("status", "pending");
+            data.put("confirmations", 0);
+        }
+        resp.put("retCode", "0");
+        resp.put("data", data);
+        return resp;
+    }
+
+    private JSONObject toJson(Transaction tx) {
+        NetworkParams network = MainNetworkParams.get();
+        JSONObject data = new JSONObject();
+        data.put("hash", tx.getHash().toString());
+        data.put("type", tx.getType());
+        data.put("version", tx.getVersion());
+        data.put("time", tx.getTime());
+        data.put("lockTime", tx.getLockTime());
+        JSONArray inputs = new JSONArray();
+        if (tx.getInputs() != null) {
+            for (TransactionInput input : tx.getInputs()) {
+                if (input.getFroms() == null) {
+                    continue;
+                }
+                for (TransactionOutput from : input.getFroms()) {
+                    JSONObject item = new JSONObject();
+                    item.put("txHash", from.getParent().getHash().toString());
+                    item.put("index", from.getIndex());
+                    TransactionStore fromTx = BlockStorage.get().getTransaction(from.getParent().getHash().getBytes());
+                    if (fromTx != null) {
+                        TransactionOutput spent = (TransactionOutput) fromTx.getTransaction().getOutput(from.getIndex());
+                        item.put("address", getAddress(network, spent.getScript()));
+                        item.put("value", ArithUtils.div(spent.getValue() + "", "100000000", 8));
+                    }
+                    inputs.add(item);
+                }
+            }
+        }
+        data.put("inputs", inputs);
+        JSONArray outputs = new JSONArray();
+        if (tx.getOutputs() != null) {
+            for (TransactionOutput output : tx.getOutputs()) {
+                JSONObject item = new JSONObject();
+                item.put("address", getAddress(network, output.getScript()));
+                item.put("value", ArithUtils.div(output.getValue() + "", "100000000", 8));
+                item.put("lockTime", output.getLockTime());
+                outputs.add(item);
+            }
+        }
+        data.put("outputs", outputs);
+        data.put("raw", Hex.encode(tx.baseSerialize()));
+        return data;
+    }
+
+    private String getAddress(NetworkParams network, Script script) {
+        if (script == null || !script.isSentToAddress()) {
+            return null;
+        }
+        return Address.fromP2PKHash(network, network.getSystemAccountVersion(), script.getChunks().get(2).data).getBase58();
+    }
+}
@@ -35,12 +35,17 @@ import org.talust.common.crypto.Base58;
 import org.talust.common.model.DepositAccount;
 import org.talust.common.model.Deposits;
 import org.talust.common.tools.ArithUtils;
+import org.talust.common.tools.Configure;
 import org.talust.core.model.Account;
 import org.talust.core.model.Address;
 import org.talust.core.network.MainNetworkParams;
 import org.talust.service.TransferAccountService;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Axe-Liu
@@ -54,51 +59,91 @@ public class TransferAccountsController {
     @Autowired
     private TransferAccountService transferAccountService;
 
-    @ApiOperation(value = "发起转账", notes = "帐户信息已经存在的情况下,转账")
+    @ApiOperation(value = "发起转账", notes = "帐户信息已经存在的情况下,转账,成功时返回交易hash")
     @PostMapping(value = "transfer")
-    JSONObject transfer(@RequestParam String toAddress, @RequestParam String money, @RequestParam String address, @RequestParam String password) {
+    CompletableFuture<JSONObject> transfer(@RequestParam String toAddress, @RequestParam String money, @RequestParam String address, @RequestParam String password) {
         JSONObject resp = new JSONObject();
         if (StringUtil.isNullOrEmpty(toAddress) || StringUtil.isNullOrEmpty(money)) {
             resp.put("retCode", "1");
             resp.put("msgCode", "E00008");
-            return resp;
+            return CompletableFuture.completedFuture(resp);
         }
         try {
             money = ArithUtils.mul(money, "1", 8);
         } catch (Exception e) {
             resp.put("retCode", "1");
             resp.put("msgCode", "E00009");
-            return resp;
+            return CompletableFuture.completedFuture(resp);
         }
         Account account = transferAccountService.getAccountByAddress(address);
         if (null == account) {
             resp.put("retCode", "1");
             resp.put("msgCode", "E00010");
-            return resp;
+            return CompletableFuture.completedFuture(resp);
         }
         try {
             Base58.decodeChecked(toAddress);
         } catch (Exception e) {
             resp.put("retCode", "1");
             resp.put("msgCode", "E00011");
+            return CompletableFuture.completedFuture(resp);
+        }
+        //密码校验、选择输出及签名在转账线程池中进行
+        return transferAccountService.transferAsync(toAddress, money, address, password);
+    }
+
+    @ApiOperation(value = "批量转账", notes = "payouts为收款列表的json数组,格式:[{\"toAddress\":\"\",\"money\":\"\"}],按交易大小拆分为多笔多输出的交易一起提交,成功时返回全部交易hash")
+    @PostMapping(value = "transferBatch")
+    JSONObject transferBatch(@RequestParam String payouts, @RequestParam String address, @RequestParam String password) {
+        JSONObject resp = new JSONObject();
+        JSONArray items;
+        try {
+            items = JSONArray.parseArray(payouts);
+        } catch (Exception e) {
+            items = null;
+        }
+        if (null == items || items.isEmpty()) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00008");
             return resp;
         }
-        if (account.isEncrypted()) {
-            if (StringUtil.isNullOrEmpty(password)) {
+        if (items.size() > Configure.MAX_BATCH_TRANSFER_COUNT) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00032");
+            return resp;
+        }
+        List<String> toAddresses = new ArrayList<>(items.size());
+        List<String> moneys = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            String toAddress = item.getString("toAddress");
+            String money = item.getString("money");
+            if (StringUtil.isNullOrEmpty(toAddress) || StringUtil.isNullOrEmpty(money)) {
                 resp.put("retCode", "1");
-                resp.put("msgCode", "E00012");
+                resp.put("msgCode", "E00008");
+                resp.put("index", i);
+                return resp;
+            }
+            try {
+                money = ArithUtils.mul(money, "1", 8);
+            } catch (Exception e) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00009");
+                resp.put("index", i);
+                return resp;
+            }
+            try {
+                Base58.decodeChecked(toAddress);
+            } catch (Exception e) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00011");
+                resp.put("index", i);
                 return resp;
-            } else {
-                boolean pswCorrect = transferAccountService.decryptAccount(password, account);
-                if (!pswCorrect) {
-                    resp.put("retCode", "1");
-                    resp.put("msgCode", "E00013");
-                    return resp;
-                }
             }
+            toAddresses.add(toAddress);
+            moneys.add(money);
         }
-        JSONObject isOk = transferAccountService.transfer(toAddress, money, address, password);
-        return isOk;
+        return transferAccountService.transferBatch(toAddresses, moneys, address, password);
     }
 
     @ApiOperation(value = "查询储蓄状态", notes = "查询某一个节点的储蓄状态")
@@ -126,7 +171,11 @@ public class TransferAccountsController {
 
     @ApiOperation(value = "查询储蓄状态", notes = "查询全部节点的储蓄状态")
     @PostMapping(value = "searchAllSuperNodeDeposite")
-    JSONObject searchAllSuperNodeDeposite() {
+    JSONObject searchAllSuperNodeDeposite(HttpServletRequest request, HttpServletResponse response) {
+        return ChainResponseCache.get().get("searchAllSuperNodeDeposite", this::loadAllSuperNodeDeposite, request, response);
+    }
+
+    private JSONObject loadAllSuperNodeDeposite() {
         JSONObject resp = new JSONObject();
         try {
             resp.put("retCode", "0");
@@ -260,9 +309,34 @@ public class TransferAccountsController {
     }
 
 
+    @ApiOperation(value = "分页查询地址交易历史", notes = "按时间倒序分页查询任意地址的交易记录,时间单位为秒,nextCursor为空表示没有更多记录")
+    @PostMapping(value = "searchAddressHistory")
+    JSONObject searchAddressHistory(@RequestParam String address,
+                                    @RequestParam(required = false, defaultValue = "0") long startTime,
+                                    @RequestParam(required = false, defaultValue = "0") long endTime,
+                                    @RequestParam(required = false, defaultValue = "-1") int type,
+                                    @RequestParam(required = false) String cursor,
+                                    @RequestParam(required = false, defaultValue = "20") int size) {
+        JSONObject resp = new JSONObject();
+        try {
+            JSONObject data = transferAccountService.searchAddressHistory(address, startTime, endTime, type, cursor, size);
+            resp.put("retCode", "0");
+            resp.put("data", data);
+        } catch (Exception e) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00014");
+        }
+        return resp;
+    }
+
+
     @ApiOperation(value = "查询当前账户的共识情况", notes = "查询当前账户的共识情况")
     @PostMapping(value = "searchAddressConsensusStatus")
-    JSONObject searchAddressConsensusStatus(@RequestParam String address) {
+    JSONObject searchAddressConsensusStatus(@RequestParam String address, HttpServletRequest request, HttpServletResponse response) {
+        return ChainResponseCache.get().get("searchAddressConsensusStatus:" + address, () -> loadAddressConsensusStatus(address), request, response);
+    }
+
+    private JSONObject loadAddressConsensusStatus(String address) {
         JSONObject resp = new JSONObject();
         try {
             if(address==null||address.equals("undefind")||address.equals("")){
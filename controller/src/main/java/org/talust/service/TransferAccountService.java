@@ -5,6 +5,9 @@ import com.alibaba.fastjson.JSONObject;
 import org.talust.common.model.Deposits;
 import org.talust.core.model.Account;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Axe-Liu
  * @date 2018/8/1.
@@ -13,11 +16,14 @@ public interface TransferAccountService {
     boolean decryptAccount(String password , Account account);
     Account getAccountByAddress(String address);
     JSONObject transfer(String toAddress, String money, String address, String password);
+    CompletableFuture<JSONObject> transferAsync(String toAddress, String money, String address, String password);
+    JSONObject transferBatch(List<String> toAddresses, List<String> moneys, String address, String password);
     Deposits getDeposits(byte[] hash160);
     JSONArray getAllDeposits();
     JSONObject consensusJoin(String nodeAddress, String money, String address, String password);
     JSONObject consensusLeave(String nodeAddress, String address, String password);
     JSONObject searchAllTransfer(String address);
     JSONObject searchAllCoinBaseTransfer(String address,String date);
+    JSONObject searchAddressHistory(String address, long startTime, long endTime, int type, String cursor, int size);
     JSONObject searchAddressConsensusStatus(String address);
 }
@@ -32,11 +32,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.talust.client.validator.TransactionValidator;
 import org.talust.common.crypto.*;
-import org.talust.common.exception.KeyCrypterException;
 import org.talust.common.model.*;
 import org.talust.common.tools.*;
 import org.talust.core.core.Definition;
 import org.talust.core.core.ECKey;
+import org.talust.core.core.KeySessionManager;
 import org.talust.core.core.NetworkParams;
 import org.talust.core.core.SynBlock;
 import org.talust.core.data.TransactionCache;
@@ -57,6 +57,7 @@ import org.talust.service.TransferAccountService;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -67,7 +68,15 @@ import java.util.concurrent.locks.ReentrantLock;
 @Service
 @Slf4j
 public class TransferAccountServiceImpl implements TransferAccountService {
-    private final static Lock locker = new ReentrantLock();
+    //每个账户一把锁
+    private final static Map<String, Lock> accountLocks = new ConcurrentHashMap<>();
+    //处理异步转账的线程池
+    private final static ExecutorService transferExecutor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10000), r -> {
+        Thread thread = new Thread(r, "transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private TransactionStorage transactionStorage = TransactionStorage.get();
     private ChainStateStorage chainStateStorage = ChainStateStorage.get();
@@ -85,20 +94,8 @@ public class TransferAccountServiceImpl implements TransferAccountService {
         if (account == null) {
             return false;
         }
-        try {
-            ECKey keys = account.getEcKey();
-            if(keys.getEncryptedPrivateKey()==null){
-                EncryptedData encryptedData = new EncryptedData(account.getPriSeed());
-                keys.setEncryptedPrivateKey(encryptedData);
-            }
-            keys = keys.decrypt(password);
-            if(null==keys){
-                return false;
-            }
-        } catch (KeyCrypterException e) {
-            return false;
-        }
-        return true;
+        //只校验密码,不创建解锁会话,已解锁的账户与会话中的密码摘要比对
+        return KeySessionManager.get().verifyPassword(account, password);
     }
 
     @Override
@@ -111,57 +108,36 @@ public class TransferAccountServiceImpl implements TransferAccountService {
     public JSONObject transfer(String toAddress, String money, String address, String password) {
         JSONObject resp = new JSONObject();
         Utils.checkNotNull(toAddress);
-        Collection<MyChannel> connects = ChannelContain.get().getMyChannels();
-        if (connects.size() <= 0) {
+        if (!checkChainReady(resp)) {
+            return resp;
+        }
+        Coin pay;
+        try {
+            pay = Coin.parseCoin(money);
+        } catch (Exception e) {
+            pay = Coin.ZERO;
+        }
+        if (!pay.isPositive()) {
             resp.put("retCode", "1");
-            resp.put("msgCode", "E00022");
+            resp.put("msgCode", "E00025");
             return resp;
         }
-        long height = MainNetworkParams.get().getBestBlockHeight();
-        long localbestheighttime = BlockStorage.get().getBestBlockHeader().getBlockHeader().getTime();
-        if (height == 0) {
-            if (SynBlock.get().getSyning().get()) {
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00023");
-                return resp;
-            } else {
-                ConnectionManager.get().init();
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00024");
-                return resp;
-            }
+        Account account = this.getAccountByAddress(address);
+        if (null == account) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00010");
+            return resp;
         }
-        long now = NtpTimeService.currentTimeSeconds();
-        if (now - localbestheighttime > 6) {
-            if (SynBlock.get().getSyning().get()) {
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00023");
-                return resp;
-            } else {
-                ConnectionManager.get().init();
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00024");
-                return resp;
-            }
+        if (account.getAddress().getBase58().equals(toAddress)) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00026");
+            return resp;
         }
-        locker.lock();
+        //同一账户的密码校验及选择输出串行,选中的输出预占后即释放账户锁,签名及广播可并行
+        List<TransactionOutput> fromOutputs;
+        Lock accountLock = getAccountLock(address);
+        accountLock.lock();
         try {
-            if (money.compareTo("0") <= 0) {
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00025");
-                return resp;
-            }
-            Account account = this.getAccountByAddress(address);
-            if (null == account) {
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00010");
-                return resp;
-            }
-            if (account.getAddress().getBase58().equals(toAddress)) {
-                resp.put("retCode", "1");
-                resp.put("msgCode", "E00026");
-                return resp;
-            }
             if (account.isEncrypted()) {
                 if (StringUtil.isNullOrEmpty(password)) {
                     resp.put("retCode", "1");
@@ -176,9 +152,19 @@ public class TransferAccountServiceImpl implements TransferAccountService {
                     }
                 }
             }
-            //当前余额可用余额
-            long balance = account.getAddress().getBalance().value;
-            if (ArithUtils.compareStr(balance + "", ArithUtils.mul(money, "100000000", 0)) < 0) {
+            //根据交易金额选择当前交易地址下未花费且未被其他交易预占的输出
+            fromOutputs = transactionCreator.selectAndReserve(pay, account.getAddress());
+        } finally {
+            accountLock.unlock();
+        }
+        boolean sent = false;
+        try {
+            Coin totalInputCoin = Coin.ZERO;
+            for (TransactionOutput output : fromOutputs) {
+                totalInputCoin = totalInputCoin.add(Coin.valueOf(output.getValue()));
+            }
+            //可用余额不足
+            if (totalInputCoin.isLessThan(pay)) {
                 resp.put("retCode", "1");
                 resp.put("msgCode", "E00027");
                 return resp;
@@ -186,14 +172,9 @@ public class TransferAccountServiceImpl implements TransferAccountService {
             Transaction tx = new Transaction(MainNetworkParams.get());
             tx.setVersion(Definition.VERSION);
             tx.setType(Definition.TYPE_PAY);
-            Coin totalInputCoin = Coin.ZERO;
-            //根据交易金额获取当前交易地址下所有的未花费交易
-            Coin pay = Coin.COIN.multiply((long) Double.parseDouble(money));
-            List<TransactionOutput> fromOutputs = transactionCreator.selectNotSpentTransaction(pay, account.getAddress());
             TransactionInput input = new TransactionInput();
             for (TransactionOutput output : fromOutputs) {
                 input.addFrom(output);
-                totalInputCoin = totalInputCoin.add(Coin.valueOf(output.getValue()));
             }
             //创建一个输入的空签名
             if (account.getAccountType() == network.getSystemAccountVersion()||account.getAccountType() == network.getMainAccountVersion()) {
@@ -217,7 +198,7 @@ public class TransferAccountServiceImpl implements TransferAccountService {
             try {
                 if (account.getAccountType() == network.getSystemAccountVersion()||account.getAccountType() == network.getMainAccountVersion()) {
                     //普通账户的签名
-                    signer.signInputs(tx, account.getEcKey());
+                    signer.signInputs(tx, KeySessionManager.get().getSigningKey(account));
                 }
             } catch (Exception e) {
                 log.error(e.getMessage(), e);
@@ -233,17 +214,174 @@ public class TransferAccountServiceImpl implements TransferAccountService {
                 message.setTime(NtpTimeService.currentTimeSeconds());
                 //广播交易
                 ConnectionManager.get().TXMessageSend(message);
+                sent = true;
                 resp.put("retCode", "0");
                 resp.put("msgCode", "S00001");
+                resp.put("txHash", tx.getHash().toString());
             }
         } catch (Exception e) {
+            log.error(e.getMessage(), e);
         } finally {
-            locker.unlock();
+            //交易未发出,释放预占的输出
+            if (!sent) {
+                UtxoReservation.get().release(fromOutputs);
+            }
         }
         //验证本账户金额与交易金额是否正常
         return resp;
     }
 
+    @Override
+    public CompletableFuture<JSONObject> transferAsync(String toAddress, String money, String address, String password) {
+        return CompletableFuture.supplyAsync(() -> transfer(toAddress, money, address, password), transferExecutor);
+    }
+
+    /**
+     * 校验节点连接及区块同步状态,不满足转账条件时将错误码写入resp
+     */
+    private boolean checkChainReady(JSONObject resp) {
+        Collection<MyChannel> connects = ChannelContain.get().getMyChannels();
+        if (connects.size() <= 0) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00022");
+            return false;
+        }
+        long height = MainNetworkParams.get().getBestBlockHeight();
+        long localbestheighttime = BlockStorage.get().getBestBlockHeader().getBlockHeader().getTime();
+        if (height == 0) {
+            if (SynBlock.get().getSyning().get()) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00023");
+                return false;
+            } else {
+                ConnectionManager.get().init();
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00024");
+                return false;
+            }
+        }
+        long now = NtpTimeService.currentTimeSeconds();
+        if (now - localbestheighttime > 6) {
+            if (SynBlock.get().getSyning().get()) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00023");
+                return false;
+            } else {
+                ConnectionManager.get().init();
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00024");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public JSONObject transferBatch(List<String> toAddresses, List<String> moneys, String address, String password) {
+        JSONObject resp = new JSONObject();
+        if (!checkChainReady(resp)) {
+            return resp;
+        }
+        Account account = this.getAccountByAddress(address);
+        if (null == account) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00010");
+            return resp;
+        }
+        List<Address> payAddresses = new ArrayList<>(toAddresses.size());
+        List<Coin> amounts = new ArrayList<>(moneys.size());
+        for (int i = 0; i < toAddresses.size(); i++) {
+            Coin pay;
+            try {
+                pay = Coin.parseCoin(moneys.get(i));
+            } catch (Exception e) {
+                pay = Coin.ZERO;
+            }
+            if (!pay.isPositive()) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00025");
+                resp.put("index", i);
+                return resp;
+            }
+            if (account.getAddress().getBase58().equals(toAddresses.get(i))) {
+                resp.put("retCode", "1");
+                resp.put("msgCode", "E00026");
+                resp.put("index", i);
+                return resp;
+            }
+            payAddresses.add(Address.fromBase58(network, toAddresses.get(i)));
+            amounts.add(pay);
+        }
+        Lock accountLock = getAccountLock(address);
+        accountLock.lock();
+        try {
+            if (account.isEncrypted()) {
+                if (StringUtil.isNullOrEmpty(password)) {
+                    resp.put("retCode", "1");
+                    resp.put("msgCode", "E00012");
+                    return resp;
+                } else if (!this.decryptAccount(password, account)) {
+                    resp.put("retCode", "1");
+                    resp.put("msgCode", "E00013");
+                    return resp;
+                }
+            }
+        } finally {
+            accountLock.unlock();
+        }
+        //按交易大小拆分为多笔多输出的交易,每笔交易签名一次
+        List<Transaction> txs = transactionCreator.createBatchPay(account, payAddresses, amounts);
+        if (txs.isEmpty()) {
+            resp.put("retCode", "1");
+            resp.put("msgCode", "E00027");
+            return resp;
+        }
+        //全部交易验证通过后再一起提交,任意一笔不合法则全部不提交
+        boolean sent = false;
+        try {
+            for (Transaction tx : txs) {
+                if (!transactionValidator.checkTransaction(tx, null)) {
+                    resp.put("retCode", "1");
+                    resp.put("msgCode", "E00031");
+                    return resp;
+                }
+            }
+            JSONArray txHashes = new JSONArray();
+            for (Transaction tx : txs) {
+                //加入内存池，因为广播的Inv消息出去，其它对等体会回应getDatas获取交易详情，会从本机内存取出来发送
+                TransactionCache.getInstace().add(tx);
+                Message message = new Message();
+                message.setContent(SerializationUtil.serializer(tx));
+                message.setType(MessageType.TRANSACTION.getType());
+                message.setTime(NtpTimeService.currentTimeSeconds());
+                //广播交易
+                ConnectionManager.get().TXMessageSend(message);
+                txHashes.add(tx.getHash().toString());
+            }
+            sent = true;
+            resp.put("retCode", "0");
+            resp.put("msgCode", "S00001");
+            resp.put("txHashes", txHashes);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            //交易未发出,释放预占的输出
+            if (!sent) {
+                for (Transaction tx : txs) {
+                    UtxoReservation.get().release(tx.getInput(0).getFroms());
+                }
+            }
+        }
+        return resp;
+    }
+
+    /**
+     * 获取账户锁,不同账户的交易互不影响
+     */
+    private Lock getAccountLock(String address) {
+        return accountLocks.computeIfAbsent(address, k -> new ReentrantLock());
+    }
+
     /**
      * 校验密码难度
      *
@@ -358,9 +496,10 @@ public class TransferAccountServiceImpl implements TransferAccountService {
                 return resp;
             }
         }
-        locker.lock();
+        Lock accountLock = getAccountLock(address);
+        accountLock.lock();
         try {
-            if (money.compareTo("10000") < 0) {
+            if (Coin.parseCoin(money).isLessThan(Coin.COIN.multiply(10000))) {
                 resp.put("retCode", "1");
                 resp.put("msgCode", "E00025");
                 return resp;
@@ -387,8 +526,7 @@ public class TransferAccountServiceImpl implements TransferAccountService {
             }
             //当前余额可用余额
             if(AccountStorage.get().reloadCoin()){
-                long balance = account.getAddress().getBalance().value;
-                if (ArithUtils.compareStr(balance + "", ArithUtils.mul(money, "100000000", 0)) < 0) {
+                if (account.getAddress().getBalance().isLessThan(Coin.parseCoin(money))) {
                     resp.put("retCode", "1");
                     resp.put("msgCode", "E00027");
                     return resp;
@@ -421,7 +559,7 @@ public class TransferAccountServiceImpl implements TransferAccountService {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            locker.unlock();
+            accountLock.unlock();
         }
         //验证本账户金额与交易金额是否正常
         return resp;
@@ -464,7 +602,8 @@ public class TransferAccountServiceImpl implements TransferAccountService {
                 return resp;
             }
         }
-        locker.lock();
+        Lock accountLock = getAccountLock(address);
+        accountLock.lock();
         try {
             Account account = this.getAccountByAddress(address);
             if (null == account) {
@@ -504,7 +643,7 @@ public class TransferAccountServiceImpl implements TransferAccountService {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            locker.unlock();
+            accountLock.unlock();
         }
         //验证本账户金额与交易金额是否正常
         return resp;
@@ -625,6 +764,32 @@ public class TransferAccountServiceImpl implements TransferAccountService {
     }
 
 
+    @Override
+    public JSONObject searchAddressHistory(String address, long startTime, long endTime, int type, String cursor, int size) {
+        Address addr = Address.fromBase58(MainNetworkParams.get(), address);
+        byte[] cursorKey = StringUtils.isEmpty(cursor) ? null : Hex.decode(cursor);
+        AddressHistoryStorage.HistoryPage page = AddressHistoryStorage.get().getHistory(addr.getHash160(), startTime, endTime, type, cursorKey, size);
+        JSONArray items = new JSONArray();
+        for (AddressHistoryStorage.HistoryItem item : page.getItems()) {
+            JSONObject data = new JSONObject();
+            data.put("txHash", item.getTxHash().toString());
+            data.put("height", item.getHeight());
+            data.put("txIndex", item.getTxIndex());
+            data.put("time", item.getTime());
+            data.put("type", item.getType());
+            data.put("direction", item.getDirection());
+            data.put("received", ArithUtils.div(item.getReceived() + "", "100000000", 8));
+            data.put("sent", ArithUtils.div(item.getSent() + "", "100000000", 8));
+            items.add(data);
+        }
+        JSONObject resp = new JSONObject();
+        resp.put("address", address);
+        resp.put("items", items);
+        resp.put("nextCursor", page.getNextCursor() == null ? null : Hex.encode(page.getNextCursor()));
+        resp.put("indexedHeight", AddressHistoryStorage.get().getIndexedHeight());
+        return resp;
+    }
+
     public DepositAccount checkAmtLowest(String amt, List<DepositAccount> depositAccounts) {
         long money = Long.parseLong(ArithUtils.mul(amt, "100000000", 0));
         DepositAccount lowest = null;
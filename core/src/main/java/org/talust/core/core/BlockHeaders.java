@@ -0,0 +1,58 @@
+package org.talust.core.core;
+
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.core.model.BlockHeader;
+import org.talust.core.storage.BlockHeaderStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量区块头的编解码,用于区块头优先同步
+ * 格式:依次为每个区块的hash(32字节)加区块头序列化内容
+ * 区块hash由远端提供,解码时用后一个区块头中已签名的preHash确认,最后一个区块头的hash须在下载区块体后由本地计算确认
+ */
+public class BlockHeaders {
+
+    //单次请求的最大区块头数量
+    public static final int MAX_HEADERS = 2000;
+
+    public static byte[] encode(List<BlockHeaderStore> headers) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (BlockHeaderStore header : headers) {
+            stream.write(header.getBlockHeader().getHash().getBytes());
+            stream.write(header.getBlockHeader().baseSerialize());
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * 解码区块头
+     *
+     * @return 数量超过限制或相邻区块头的hash与preHash不一致时返回null
+     */
+    public static List<BlockHeader> decode(NetworkParams network, byte[] content) {
+        List<BlockHeader> headers = new ArrayList<>();
+        int offset = 0;
+        while (offset < content.length) {
+            if (headers.size() >= MAX_HEADERS || offset + Sha256Hash.LENGTH > content.length) {
+                return null;
+            }
+            byte[] hash = new byte[Sha256Hash.LENGTH];
+            System.arraycopy(content, offset, hash, 0, hash.length);
+            offset += hash.length;
+            BlockHeader header = new BlockHeader(network, content, offset);
+            header.setHash(Sha256Hash.wrap(hash));
+            offset += header.getLength();
+            headers.add(header);
+        }
+        for (int i = 0; i < headers.size() - 1; i++) {
+            if (!headers.get(i).getHash().equals(headers.get(i + 1).getPreHash())) {
+                return null;
+            }
+        }
+        return headers;
+    }
+}
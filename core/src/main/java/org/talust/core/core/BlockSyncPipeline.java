@@ -0,0 +1,127 @@
+package org.talust.core.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.MessageChannel;
+import org.talust.common.tools.SerializationUtil;
+import org.talust.core.model.Block;
+import org.talust.core.storage.BlockStore;
+import org.talust.network.MessageHandler;
+import org.talust.network.MessageValidator;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 同步区块的分阶段处理
+ * 1.解码及与链状态无关的校验(梅克尔树根、区块及交易签名)由线程池并行执行,可领先提交阶段若干区块
+ * 2.依赖链状态的校验及存储在调用线程中严格按高度顺序执行
+ * 两个阶段之间为有界队列,预验证过快时阻塞等待提交
+ */
+@Slf4j
+public class BlockSyncPipeline {
+    //预验证阶段最多领先提交阶段的区块数
+    private static final int MAX_AHEAD = 64;
+
+    private static final ExecutorService executor;
+
+    static {
+        int coreSize = Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(coreSize, coreSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "block-precheck-" + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    private final MessageValidator validator;
+    private final MessageHandler handler;
+
+    public BlockSyncPipeline(MessageValidator validator, MessageHandler handler) {
+        this.validator = validator;
+        this.handler = handler;
+    }
+
+    /**
+     * 获取消息中的区块,已解码时直接返回,否则反序列化后记录在消息中
+     */
+    public static BlockStore getBlockStore(MessageChannel messageChannel) {
+        Object decoded = messageChannel.getDecoded();
+        if (decoded instanceof BlockStore) {
+            return (BlockStore) decoded;
+        }
+        BlockStore blockStore = SerializationUtil.deserializer(messageChannel.getMessage().getContent(), BlockStore.class);
+        messageChannel.setDecoded(blockStore);
+        return blockStore;
+    }
+
+    /**
+     * 按顺序处理一组区块,遇到校验失败或存储出错即停止
+     *
+     * @param messages 按高度排好序的区块消息
+     * @return 成功存储的区块数
+     */
+    public int process(List<MessageChannel> messages) {
+        BlockingQueue<Future<Boolean>> ahead = new ArrayBlockingQueue<>(MAX_AHEAD);
+        int submitted = 0;
+        int committed = 0;
+        try {
+            submitted = fill(messages, ahead, submitted);
+            while (committed < messages.size()) {
+                Future<Boolean> prechecked = ahead.take();
+                submitted = fill(messages, ahead, submitted);
+                boolean passed = prechecked.get();
+                MessageChannel messageChannel = messages.get(committed);
+                long height = getBlockStore(messageChannel).getBlock().getHeight();
+                if (!passed) {
+                    log.info("区块高度：{}的预验证失败", height);
+                    break;
+                }
+                if (!validator.check(messageChannel)) {
+                    log.info("区块高度：{}验证失败", height);
+                    break;
+                }
+                handler.handle(messageChannel);
+                committed++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("同步区块处理出错:{}", e.getMessage(), e);
+        } finally {
+            for (Future<Boolean> future : ahead) {
+                future.cancel(false);
+            }
+        }
+        return committed;
+    }
+
+    //将预验证任务补充到队列,直到队列满或全部提交
+    private int fill(List<MessageChannel> messages, BlockingQueue<Future<Boolean>> ahead, int submitted) {
+        while (submitted < messages.size() && ahead.remainingCapacity() > 0) {
+            final MessageChannel messageChannel = messages.get(submitted++);
+            ahead.add(executor.submit(() -> precheck(messageChannel)));
+        }
+        return submitted;
+    }
+
+    /**
+     * 与链状态无关的校验,签名验证结果会被缓存,提交阶段再次验证时直接命中
+     */
+    private boolean precheck(MessageChannel messageChannel) {
+        try {
+            Block block = getBlockStore(messageChannel).getBlock();
+            block.verify();
+            return SignatureVerifier.get().findFirstInvalid(SignatureVerifier.collectSignatures(block)) < 0;
+        } catch (Exception e) {
+            log.info("区块预验证失败:{}", e.getMessage());
+            return false;
+        }
+    }
+}
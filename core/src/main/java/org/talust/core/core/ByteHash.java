@@ -24,6 +24,9 @@
  */
 package org.talust.core.core;
 
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.crypto.Utils;
+
 import java.util.Arrays;
 
 public class ByteHash {
@@ -32,6 +35,20 @@ public class ByteHash {
 	public ByteHash(byte[] hash) {
 		this.hash = hash;
 	}
+
+	public byte[] getBytes() {
+		return hash;
+	}
+
+	/**
+	 * 交易输出的key,交易hash加4字节大端编码的输出序号,输出序号不会截断
+	 */
+	public static ByteHash outpoint(Sha256Hash txHash, int index) {
+		byte[] key = new byte[Sha256Hash.LENGTH + 4];
+		System.arraycopy(txHash.getBytes(), 0, key, 0, Sha256Hash.LENGTH);
+		Utils.uint32ToByteArrayBE(index, key, Sha256Hash.LENGTH);
+		return new ByteHash(key);
+	}
 	
 	@Override
 	public boolean equals(Object obj) {
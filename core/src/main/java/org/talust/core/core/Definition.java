@@ -57,6 +57,17 @@ public final class Definition {
 	public static final int MAX_BLOCK_SIZE = 2 * 1024 * 1024;
 
 	public static final int MIN_BLOCK_SIZE = 512*1024;
+
+	/**
+	 * 批量转账时单笔交易输出部分的最大字节数,为输入及区块中的其它交易留出空间
+	 */
+	public static final int MAX_BATCH_TX_OUTPUTS_SIZE = MAX_BLOCK_SIZE / 4;
+
+	/**
+	 * 批量转账时单笔交易的最大收款输出数,加上找零输出后输出序号不超过255
+	 * 链状态中输出的key只保留序号的低8位,超过后不同输出的key会冲突
+	 */
+	public static final int MAX_BATCH_TX_OUTPUTS = 255;
 	
 	/** lockTime 小于该值的代表区块高度，大于该值的代表时间戳（毫秒） **/
 	public static final long LOCKTIME_THRESHOLD = 500000000L;
@@ -141,6 +141,17 @@ public class ECKey {
         return new ECKey(privKey, getPointWithCompression(point, compressed));
     }
 
+    /**
+     * 根据私匙和已知的公匙创建,不再由私匙计算公匙
+     *
+     * @param privKey
+     * @param pub
+     * @return ECKey
+     */
+    public static ECKey fromPrivateAndPrecalculatedPublic(BigInteger privKey, ECPoint pub) {
+        return new ECKey(privKey, pub);
+    }
+
     /**
      * 只有公匙
      *
@@ -197,6 +208,15 @@ public class ECKey {
         return pub.getEncoded(compressed);
     }
 
+    /**
+     * 获取公匙曲线点
+     *
+     * @return ECPoint
+     */
+    public ECPoint getPubKeyPoint() {
+        return pub;
+    }
+
     /**
      * 获取公匙内容,默认的公匙是压缩的
      *
@@ -273,15 +293,7 @@ public class ECKey {
      * 验证签名
      */
     public static boolean verify(byte[] data, ECDSASignature signature, byte[] pub) {
-        ECDSASigner signer = new ECDSASigner();
-        ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-        signer.init(false, params);
-        try {
-            return signer.verifySignature(data, signature.r, signature.s);
-        } catch (NullPointerException e) {
-            log.error("Caught NPE inside bouncy castle", e);
-            return false;
-        }
+        return SignatureVerifier.get().verify(data, signature, pub);
     }
 
     /**
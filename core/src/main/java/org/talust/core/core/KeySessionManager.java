@@ -0,0 +1,279 @@
+package org.talust.core.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.spongycastle.math.ec.ECPoint;
+import org.talust.common.crypto.EncryptedData;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.crypto.Utils;
+import org.talust.common.exception.KeyCrypterException;
+import org.talust.common.tools.Configure;
+import org.talust.core.model.Account;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加密账户解锁会话
+ * 只有显式解锁的账户才会创建会话,在有效期内保持解锁,解密后的私钥保存在堆外内存中,到期或锁定时清零
+ * 解锁期间的签名直接使用缓存的私钥及公钥曲线点,不再进行aes解密及由私钥推导公钥的曲线点乘运算
+ * 会话中只保存加盐的密码摘要,用于校验后续请求携带的密码
+ */
+@Slf4j
+public class KeySessionManager {
+    private static KeySessionManager instance = new KeySessionManager();
+
+    //检查会话过期的间隔,单位秒
+    private static final long CHECK_INTERVAL = 1;
+    //私钥字节数
+    private static final int PRIV_KEY_LENGTH = 32;
+
+    //已解锁的账户,key为账户hash160
+    private final Map<ByteHash, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private KeySessionManager() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "key-session");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::purgeExpired, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public static KeySessionManager get() {
+        return instance;
+    }
+
+    /**
+     * 使用密码解锁账户,有效期为Configure.KEY_SESSION_TTL
+     *
+     * @return 密码错误时返回false
+     */
+    public boolean unlock(Account account, String password) {
+        return unlock(account, password, Configure.KEY_SESSION_TTL);
+    }
+
+    /**
+     * 使用密码解锁账户,已解锁的账户重新开始计时
+     *
+     * @param ttl 有效期,单位秒
+     * @return 密码错误时返回false
+     */
+    public boolean unlock(Account account, String password, long ttl) {
+        ECKey ecKey = account.getEcKey();
+        ECKey key = decrypt(account, password);
+        if (key == null) {
+            return false;
+        }
+        byte[] privBytes = Utils.bigIntegerToBytes(key.getPrivKey(), PRIV_KEY_LENGTH);
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        Session session = new Session(privBytes, ecKey.getPubKeyPoint(), salt, hashPassword(salt, password),
+                System.currentTimeMillis() + ttl * 1000);
+        Arrays.fill(privBytes, (byte) 0);
+        Session old = sessions.put(getKey(account), session);
+        if (old != null) {
+            old.destroy();
+        }
+        log.info("账户{}已解锁,有效期{}秒", account.getAddress().getBase58(), ttl);
+        return true;
+    }
+
+    /**
+     * 锁定账户,清除缓存的私钥
+     */
+    public void lock(Account account) {
+        lock(account.getAddress().getHash160());
+    }
+
+    public void lock(byte[] hash160) {
+        Session session = sessions.remove(new ByteHash(hash160));
+        if (session != null) {
+            session.destroy();
+        }
+    }
+
+    /**
+     * 锁定全部账户
+     */
+    public void lockAll() {
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            Session session = it.next();
+            it.remove();
+            session.destroy();
+        }
+    }
+
+    /**
+     * 账户是否处于解锁状态
+     */
+    public boolean isUnlocked(Account account) {
+        return getSession(account) != null;
+    }
+
+    /**
+     * 校验密码是否与解锁时使用的密码一致,账户未解锁时返回false
+     */
+    public boolean checkPassword(Account account, String password) {
+        Session session = getSession(account);
+        if (session == null || password == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(session.passwordHash, hashPassword(session.salt, password));
+    }
+
+    /**
+     * 校验账户密码,不创建解锁会话
+     * 已解锁的账户与会话中的密码摘要比对,未解锁的账户解密私钥校验,解密结果不保留
+     */
+    public boolean verifyPassword(Account account, String password) {
+        if (password == null) {
+            return false;
+        }
+        if (getSession(account) != null) {
+            return checkPassword(account, password);
+        }
+        return decrypt(account, password) != null;
+    }
+
+    /**
+     * 获取解锁到期时间,账户未解锁时返回0
+     */
+    public long getExpireTime(Account account) {
+        Session session = getSession(account);
+        return session == null ? 0 : session.expireTime;
+    }
+
+    /**
+     * 获取签名使用的私钥
+     * 未加密的账户直接使用账户私钥,已解锁的加密账户使用会话中缓存的私钥,未解锁时返回账户原有的密钥
+     */
+    public ECKey getSigningKey(Account account) {
+        if (!account.isEncrypted()) {
+            return account.getEcKey();
+        }
+        Session session = getSession(account);
+        if (session == null) {
+            return account.getEcKey();
+        }
+        ECKey key = session.getKey();
+        return key == null ? account.getEcKey() : key;
+    }
+
+    /**
+     * 解密账户私钥,密码错误返回null
+     */
+    private ECKey decrypt(Account account, String password) {
+        ECKey ecKey = account.getEcKey();
+        if (ecKey == null || password == null) {
+            return null;
+        }
+        try {
+            if (ecKey.getEncryptedPrivateKey() == null) {
+                ecKey.setEncryptedPrivateKey(new EncryptedData(account.getPriSeed()));
+            }
+            return ecKey.decrypt(password);
+        } catch (KeyCrypterException e) {
+            return null;
+        }
+    }
+
+    private Session getSession(Account account) {
+        ByteHash key = getKey(account);
+        Session session = sessions.get(key);
+        if (session == null) {
+            return null;
+        }
+        if (session.expireTime < System.currentTimeMillis()) {
+            if (sessions.remove(key, session)) {
+                session.destroy();
+            }
+            return null;
+        }
+        return session;
+    }
+
+    private void purgeExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<ByteHash, Session>> it = sessions.entrySet().iterator();
+            while (it.hasNext()) {
+                Session session = it.next().getValue();
+                if (session.expireTime < now) {
+                    it.remove();
+                    session.destroy();
+                }
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private ByteHash getKey(Account account) {
+        return new ByteHash(account.getAddress().getHash160());
+    }
+
+    private byte[] hashPassword(byte[] salt, String password) {
+        byte[] pwd = password.getBytes();
+        byte[] data = new byte[salt.length + pwd.length];
+        System.arraycopy(salt, 0, data, 0, salt.length);
+        System.arraycopy(pwd, 0, data, salt.length, pwd.length);
+        byte[] hash = Sha256Hash.hashTwice(data);
+        Arrays.fill(data, (byte) 0);
+        Arrays.fill(pwd, (byte) 0);
+        return hash;
+    }
+
+    /**
+     * 一个账户的解锁会话,私钥保存在堆外内存中,销毁时清零
+     */
+    private static class Session {
+        private ByteBuffer privKey;
+        private final ECPoint pub;
+        private final byte[] salt;
+        private final byte[] passwordHash;
+        private final long expireTime;
+
+        Session(byte[] privBytes, ECPoint pub, byte[] salt, byte[] passwordHash, long expireTime) {
+            this.privKey = ByteBuffer.allocateDirect(privBytes.length);
+            this.privKey.put(privBytes);
+            this.pub = pub;
+            this.salt = salt;
+            this.passwordHash = passwordHash;
+            this.expireTime = expireTime;
+        }
+
+        synchronized ECKey getKey() {
+            if (privKey == null) {
+                return null;
+            }
+            byte[] privBytes = new byte[privKey.capacity()];
+            for (int i = 0; i < privBytes.length; i++) {
+                privBytes[i] = privKey.get(i);
+            }
+            BigInteger priv = new BigInteger(1, privBytes);
+            Arrays.fill(privBytes, (byte) 0);
+            return ECKey.fromPrivateAndPrecalculatedPublic(priv, pub);
+        }
+
+        synchronized void destroy() {
+            if (privKey == null) {
+                return;
+            }
+            for (int i = 0; i < privKey.capacity(); i++) {
+                privKey.put(i, (byte) 0);
+            }
+            privKey = null;
+        }
+    }
+}
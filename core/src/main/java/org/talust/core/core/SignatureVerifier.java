@@ -0,0 +1,319 @@
+package org.talust.core.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+import org.spongycastle.crypto.signers.ECDSASigner;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.crypto.Utils;
+import org.talust.core.model.Block;
+import org.talust.core.model.BlockHeader;
+import org.talust.core.network.MainNetworkParams;
+import org.talust.core.script.Script;
+import org.talust.core.script.ScriptChunk;
+import org.talust.core.transaction.BaseCommonlyTransaction;
+import org.talust.core.transaction.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 签名验证服务
+ * 1.缓存常用公钥解码后的曲线点,超级节点与出块节点的公钥会被反复使用,避免每次都decodePoint
+ * 2.缓存最近验证通过的签名,区块批量预验证后,脚本执行时再次验证可直接命中
+ * 3.批量验证时将任务分发到有界线程池并行执行,支持遇到第一个失败即返回
+ */
+@Slf4j
+public class SignatureVerifier {
+    private static SignatureVerifier instance = new SignatureVerifier();
+
+    //公钥曲线点缓存最大数量
+    private static final int MAX_PUB_KEY_CACHE = 5000;
+    //已验证签名缓存最大数量
+    private static final int MAX_VERIFIED_CACHE = 20000;
+    //批量验证时,少于该数量直接在当前线程验证
+    private static final int MIN_PARALLEL_SIZE = 4;
+    //签名r、s的定长编码长度
+    private static final int SIGNATURE_PART_LENGTH = 32;
+
+    private final Map<ByteHash, ECPublicKeyParameters> pubKeyCache;
+    private final Map<ByteHash, Boolean> verifiedCache;
+    private final ThreadPoolExecutor executor;
+
+    private SignatureVerifier() {
+        pubKeyCache = Collections.synchronizedMap(new LinkedHashMap<ByteHash, ECPublicKeyParameters>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteHash, ECPublicKeyParameters> eldest) {
+                return size() > MAX_PUB_KEY_CACHE;
+            }
+        });
+        verifiedCache = Collections.synchronizedMap(new LinkedHashMap<ByteHash, Boolean>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteHash, Boolean> eldest) {
+                return size() > MAX_VERIFIED_CACHE;
+            }
+        });
+        int coreSize = Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(coreSize, coreSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1024), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "signature-verifier-" + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static SignatureVerifier get() {
+        return instance;
+    }
+
+    /**
+     * 验证签名,公钥曲线点与验证通过的结果均会被缓存
+     */
+    public boolean verify(byte[] data, ECKey.ECDSASignature signature, byte[] pub) {
+        ByteHash verifiedKey = verifiedKey(data, signature, pub);
+        if (verifiedKey != null && verifiedCache.containsKey(verifiedKey)) {
+            return true;
+        }
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, getPubKeyParameters(pub));
+        boolean result;
+        try {
+            result = signer.verifySignature(data, signature.r, signature.s);
+        } catch (NullPointerException e) {
+            log.error("Caught NPE inside bouncy castle", e);
+            return false;
+        }
+        if (result && verifiedKey != null) {
+            verifiedCache.put(verifiedKey, Boolean.TRUE);
+        }
+        return result;
+    }
+
+    /**
+     * 验证签名,签名为DER编码
+     */
+    public boolean verify(byte[] data, byte[] signature, byte[] pub) {
+        return verify(data, ECKey.ECDSASignature.decodeFromDER(signature), pub);
+    }
+
+    /**
+     * 验证单条签名,任何异常均视为验证失败
+     */
+    public boolean verify(SignatureItem item) {
+        try {
+            return verify(item.getHash(), item.getSignature(), item.getPubKey());
+        } catch (Exception e) {
+            log.info("签名验证异常:{}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 批量验证签名,返回每一条签名的验证结果
+     */
+    public boolean[] verifyBatch(List<SignatureItem> items) {
+        boolean[] results = new boolean[items.size()];
+        if (items.size() < MIN_PARALLEL_SIZE) {
+            for (int i = 0; i < items.size(); i++) {
+                results[i] = verify(items.get(i));
+            }
+            return results;
+        }
+        List<Future<Boolean>> futures = new ArrayList<>(items.size());
+        for (final SignatureItem item : items) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verify(item);
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            results[i] = getResult(futures.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * 批量验证签名,遇到第一条验证失败的签名即返回,未完成的验证任务会被取消
+     *
+     * @return 第一条验证失败的签名下标, 全部通过返回-1
+     */
+    public int findFirstInvalid(List<SignatureItem> items) {
+        if (items.size() < MIN_PARALLEL_SIZE) {
+            for (int i = 0; i < items.size(); i++) {
+                if (!verify(items.get(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        ExecutorCompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Integer>> futures = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            final int index = i;
+            final SignatureItem item = items.get(i);
+            futures.add(completionService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return verify(item) ? -1 : index;
+                }
+            }));
+        }
+        int invalid = -1;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Integer index = completionService.take().get();
+                if (index >= 0) {
+                    invalid = index;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            invalid = 0;
+        } catch (ExecutionException e) {
+            log.error(e.getMessage(), e);
+            invalid = 0;
+        } finally {
+            if (invalid >= 0) {
+                for (Future<Integer> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * 从普通账户的签名脚本中取出待验证的签名
+     * 脚本格式:pubkey OP_DUP OP_HASH160 hash160 OP_EQUALVERIFY sign OP_CHECKSIG
+     *
+     * @return 不是普通账户签名脚本时返回null
+     */
+    public static SignatureItem fromSystemAccountScript(Sha256Hash hash, Script script) {
+        if (script == null || !script.isSystemAccount()) {
+            return null;
+        }
+        List<ScriptChunk> chunks = script.getChunks();
+        return new SignatureItem(hash.getBytes(), chunks.get(5).data, chunks.get(0).data);
+    }
+
+    /**
+     * 收集区块签名及区块中普通账户签名的交易签名，用于并行预验证
+     */
+    public static List<SignatureItem> collectSignatures(Block block) {
+        List<SignatureItem> items = new ArrayList<>();
+        try {
+            BlockHeader header = new BlockHeader(MainNetworkParams.get(), block.baseSerialize());
+            SignatureItem item = fromSystemAccountScript(header.getHeaderHash(), block.getScriptSig());
+            if (item != null) {
+                items.add(item);
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+        for (Transaction tx : block.getTxs()) {
+            if (tx instanceof BaseCommonlyTransaction) {
+                BaseCommonlyTransaction commonlyTx = (BaseCommonlyTransaction) tx;
+                SignatureItem item = fromSystemAccountScript(commonlyTx.getSignHash(), commonlyTx.getScriptSig());
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    private ECPublicKeyParameters getPubKeyParameters(byte[] pub) {
+        ByteHash key = new ByteHash(pub);
+        ECPublicKeyParameters params = pubKeyCache.get(key);
+        if (params == null) {
+            params = new ECPublicKeyParameters(ECKey.CURVE.getCurve().decodePoint(pub), ECKey.CURVE);
+            pubKeyCache.put(new ByteHash(Arrays.copyOf(pub, pub.length)), params);
+        }
+        return params;
+    }
+
+    /**
+     * 已验证签名的缓存key,r、s按32字节定长编码,data与pub带长度前缀,不同的签名不会得到相同的key
+     * r、s不在[1, 2^256)范围内时不缓存
+     */
+    private ByteHash verifiedKey(byte[] data, ECKey.ECDSASignature signature, byte[] pub) {
+        if (!cacheable(signature.r) || !cacheable(signature.s)) {
+            return null;
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(160);
+        try {
+            writeLength(stream, data.length);
+            stream.write(data);
+            stream.write(Utils.bigIntegerToBytes(signature.r, SIGNATURE_PART_LENGTH));
+            stream.write(Utils.bigIntegerToBytes(signature.s, SIGNATURE_PART_LENGTH));
+            writeLength(stream, pub.length);
+            stream.write(pub);
+        } catch (IOException e) {
+            return null;
+        }
+        return new ByteHash(Sha256Hash.hash(stream.toByteArray()));
+    }
+
+    private static void writeLength(ByteArrayOutputStream stream, int length) throws IOException {
+        byte[] bytes = new byte[4];
+        Utils.uint32ToByteArrayBE(length, bytes, 0);
+        stream.write(bytes);
+    }
+
+    private static boolean cacheable(BigInteger value) {
+        return value != null && value.signum() > 0 && value.bitLength() <= SIGNATURE_PART_LENGTH * 8;
+    }
+
+    private boolean getResult(Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 待验证的签名
+     */
+    public static class SignatureItem {
+        //签名内容hash
+        private byte[] hash;
+        //DER编码的签名
+        private byte[] signature;
+        //公钥
+        private byte[] pubKey;
+
+        public SignatureItem(byte[] hash, byte[] signature, byte[] pubKey) {
+            this.hash = hash;
+            this.signature = signature;
+            this.pubKey = pubKey;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public byte[] getSignature() {
+            return signature;
+        }
+
+        public byte[] getPubKey() {
+            return pubKey;
+        }
+    }
+}
@@ -26,17 +26,23 @@
 package org.talust.core.core;
 
 import lombok.extern.slf4j.Slf4j;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.crypto.Utils;
+import org.talust.common.exception.VerificationException;
 import org.talust.common.model.Message;
 import org.talust.common.model.MessageChannel;
 import org.talust.common.model.MessageType;
+import org.talust.common.tools.Constant;
 import org.talust.common.tools.CacheManager;
 import org.talust.common.tools.SerializationUtil;
 import org.talust.common.tools.ThreadPool;
+import org.talust.core.model.Address;
 import org.talust.core.model.Block;
 import org.talust.core.model.BlockHeader;
+import org.talust.core.data.ChainEventBus;
 import org.talust.core.network.MainNetworkParams;
-import org.talust.core.server.NtpTimeService;
 import org.talust.core.storage.AccountStorage;
+import org.talust.core.storage.BlockHeaderStore;
 import org.talust.core.storage.BlockStorage;
 import org.talust.core.storage.BlockStore;
 import org.talust.network.MessageHandler;
@@ -47,14 +53,24 @@ import org.talust.network.netty.ConnectionManager;
 import org.talust.network.netty.SynRequest;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Slf4j
 public class SynBlock {
     private final int THREAD_POOL_SIZE = 20;
+    //区块头优先同步时,每批请求的区块头数量
+    private final int HEADER_BATCH_SIZE = 500;
+    //每个下载任务负责的连续区块数
+    private final int BODY_RANGE_SIZE = 20;
+    //单个请求的超时时间,单位毫秒
+    private final long REQ_TIMEOUT = 3000;
+    //节点请求超时的最大次数,超过后不再使用该节点
+    private final int MAX_PEER_FAILURES = 3;
     private ThreadPoolExecutor threadPool = ThreadPool.get().threadPool;
 
     private static SynBlock instance = new SynBlock();
@@ -85,6 +101,7 @@ public class SynBlock {
         }
         syning.set(false);
         isSync = false;
+        ChainEventBus.get().syncStatus(isSync, maxHeight, MainNetworkParams.get().getBestHeight());
 
     }
 
@@ -133,7 +150,280 @@ public class SynBlock {
         if (selfBlockHeight >= maxBlockHeight) {
             return;
         }
-        downBlock(selfBlockHeight, maxBlockHeight, channelBlockHeight);
+        if (downBlockHeadersFirst(selfBlockHeight, maxBlockHeight, channelBlockHeight)) {
+            synBlock();
+        } else {
+            //远端不支持区块头请求时,按原有方式逐个下载区块
+            downBlock(selfBlockHeight, maxBlockHeight, channelBlockHeight);
+        }
+    }
+
+    /**
+     * 区块头优先同步
+     * 先从高度最高的节点批量获取区块头,校验高度连续、前后相连以及出块签名和出块人,不合格的节点不再使用
+     * 再将区块体按高度区间分配给多个节点并行下载,下载完成后按高度顺序依次验证存储
+     * 区块体与已签名的区块头一致但hash不符时,由区块头节点承担责任
+     *
+     * @return 是否同步了区块, 没有任何进展时返回false
+     */
+    private boolean downBlockHeadersFirst(long selfBlockHeight, int maxBlockHeight, Map<String, Integer> channelBlockHeight) {
+        BlockHeaderStore bestHeader = BlockStorage.get().getBestBlockHeader();
+        if (bestHeader == null) {
+            return false;
+        }
+        Set<ByteHash> producers = getProducers();
+        if (producers.isEmpty()) {
+            return false;
+        }
+        Sha256Hash preHash = bestHeader.getBlockHeader().getHash();
+        long height = selfBlockHeight;
+        Set<String> badPeers = new HashSet<>();
+        Map<String, Integer> failures = new HashMap<>();
+        while (height < maxBlockHeight) {
+            List<String> peers = getPeers(channelBlockHeight, badPeers, height + 1);
+            if (peers.isEmpty()) {
+                break;
+            }
+            String headerPeer = peers.get(0);
+            int count = (int) Math.min(HEADER_BATCH_SIZE, maxBlockHeight - height);
+            MessageChannel response = requestHeaders(headerPeer, height + 1, count);
+            if (response == null) {
+                //请求超时只累计失败次数,连续失败多次后才不再使用该节点
+                int failed = failures.getOrDefault(headerPeer, 0) + 1;
+                failures.put(headerPeer, failed);
+                if (failed >= MAX_PEER_FAILURES) {
+                    badPeers.add(headerPeer);
+                }
+                continue;
+            }
+            failures.remove(headerPeer);
+            List<BlockHeader> headers = decodeHeaders(response);
+            if (headers == null || headers.isEmpty() || !checkHeaders(headers, preHash, height + 1, producers)) {
+                log.info("远端ip:{} 返回的区块头无效,不再从该节点同步", headerPeer);
+                badPeers.add(headerPeer);
+                continue;
+            }
+            AtomicBoolean headerInvalid = new AtomicBoolean(false);
+            Map<Long, MessageChannel> bodies = downBodies(headers, channelBlockHeight, badPeers, headerInvalid);
+            if (headerInvalid.get()) {
+                log.info("远端ip:{} 返回的区块头hash与区块内容不一致,不再从该节点同步", headerPeer);
+                badPeers.add(headerPeer);
+                continue;
+            }
+            List<MessageChannel> messages = new ArrayList<>(headers.size());
+            for (BlockHeader header : headers) {
+                MessageChannel messageChannel = bodies.get(header.getHeight());
+                if (messageChannel == null) {
+                    log.error("未获取到区块高度:{} 对应的数据内容...", header.getHeight());
+                    break;
+                }
+                messages.add(messageChannel);
+            }
+            int committed = new BlockSyncPipeline(blockArrivedValidator, blockArrivedHandler).process(messages);
+            if (committed > 0) {
+                BlockHeader last = headers.get(committed - 1);
+                height = last.getHeight();
+                preHash = last.getHash();
+            }
+            if (committed < headers.size()) {
+                CacheManager.get().clearAll();
+                break;
+            }
+        }
+        return height > selfBlockHeight;
+    }
+
+    /**
+     * 获取拥有指定高度区块的可用节点,按区块高度从高到低排序
+     */
+    private List<String> getPeers(Map<String, Integer> channelBlockHeight, Set<String> badPeers, long height) {
+        List<String> peers = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : channelBlockHeight.entrySet()) {
+            if (entry.getValue() >= height && !badPeers.contains(entry.getKey())) {
+                peers.add(entry.getKey());
+            }
+        }
+        peers.sort((a, b) -> channelBlockHeight.get(b).compareTo(channelBlockHeight.get(a)));
+        return peers;
+    }
+
+    /**
+     * 获取有权出块的超级节点账户hash160
+     */
+    private Set<ByteHash> getProducers() {
+        Set<ByteHash> producers = new HashSet<>();
+        List<String> addresses = CacheManager.get().get(new String(Constant.MINING_ADDRESS));
+        if (addresses == null) {
+            return producers;
+        }
+        for (String address : addresses) {
+            try {
+                producers.add(new ByteHash(Address.fromBase58(MainNetworkParams.get(), address).getHash160()));
+            } catch (Exception e) {
+                log.error("超级节点地址:{} 无效", address);
+            }
+        }
+        return producers;
+    }
+
+    /**
+     * 请求区块头
+     *
+     * @return 请求超时或出错时返回null
+     */
+    private MessageChannel requestHeaders(String ip, long start, int count) {
+        Message nodeMessage = new Message();
+        nodeMessage.setType(MessageType.HEADERS_REQ.getType());
+        nodeMessage.setContent((start + "," + count).getBytes());
+        log.info("向网络节点:{} 请求从高度:{}开始的{}个区块头...", ip, start, count);
+        try {
+            return SynRequest.get().asynReq(nodeMessage, ip, REQ_TIMEOUT).get();
+        } catch (Exception e) {
+            log.info("向网络节点:{} 请求区块头出错:{}", ip, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 解码远端返回的区块头,内容无效时返回null
+     */
+    private List<BlockHeader> decodeHeaders(MessageChannel message) {
+        if (message.getMessage().getType() != MessageType.HEADERS_RESP.getType()) {
+            return null;
+        }
+        try {
+            return BlockHeaders.decode(MainNetworkParams.get(), message.getMessage().getContent());
+        } catch (Exception e) {
+            log.info("远端ip:{} 返回的区块头解码出错:{}", message.getFromIp(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 校验区块头高度连续、与上一区块相连、出块人为超级节点,并批量验证出块签名
+     */
+    private boolean checkHeaders(List<BlockHeader> headers, Sha256Hash preHash, long startHeight, Set<ByteHash> producers) {
+        List<SignatureVerifier.SignatureItem> items = new ArrayList<>(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            BlockHeader header = headers.get(i);
+            if (header.getHeight() != startHeight + i || !preHash.equals(header.getPreHash())) {
+                return false;
+            }
+            try {
+                SignatureVerifier.SignatureItem item = SignatureVerifier.fromSystemAccountScript(header.getHeaderHash(), header.getScriptSig());
+                if (item == null) {
+                    return false;
+                }
+                //签名公钥须与脚本中的账户一致,且该账户为超级节点
+                byte[] hash160 = header.getHash160();
+                if (!Arrays.equals(Utils.sha256hash160(item.getPubKey()), hash160) || !producers.contains(new ByteHash(hash160))) {
+                    log.info("区块高度:{} 的出块人不是超级节点", header.getHeight());
+                    return false;
+                }
+                items.add(item);
+            } catch (Exception e) {
+                return false;
+            }
+            preHash = header.getHash();
+        }
+        return SignatureVerifier.get().findFirstInvalid(items) < 0;
+    }
+
+    /**
+     * 将区块体按高度区间分配给多个节点并行下载,区块内容须与区块头一致
+     * 某个节点下载失败时,由其他节点补充下载,超时多次的节点在本批次中不再使用,返回无效内容的节点不再使用
+     *
+     * @param headerInvalid 区块体与已签名的区块头一致但hash不符时置为true,此时区块头节点提供了错误的hash
+     */
+    private Map<Long, MessageChannel> downBodies(List<BlockHeader> headers, Map<String, Integer> channelBlockHeight,
+                                                 Set<String> badPeers, AtomicBoolean headerInvalid) {
+        Map<Long, MessageChannel> bodies = new ConcurrentHashMap<>();
+        List<Future<?>> tasks = new ArrayList<>();
+        long lastHeight = headers.get(headers.size() - 1).getHeight();
+        List<String> peers = getPeers(channelBlockHeight, badPeers, lastHeight);
+        if (peers.isEmpty()) {
+            return bodies;
+        }
+        Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+        Set<String> invalidPeers = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < headers.size(); i += BODY_RANGE_SIZE) {
+            final List<BlockHeader> range = headers.subList(i, Math.min(i + BODY_RANGE_SIZE, headers.size()));
+            final int first = i / BODY_RANGE_SIZE;
+            tasks.add(threadPool.submit(() -> {
+                for (BlockHeader header : range) {
+                    for (int n = 0; n < peers.size() && !headerInvalid.get(); n++) {
+                        String ip = peers.get((first + n) % peers.size());
+                        AtomicInteger failed = failures.computeIfAbsent(ip, k -> new AtomicInteger());
+                        if (invalidPeers.contains(ip) || failed.get() >= MAX_PEER_FAILURES) {
+                            continue;
+                        }
+                        MessageChannel message = requestBody(ip, header, invalidPeers, headerInvalid);
+                        if (message != null) {
+                            bodies.put(header.getHeight(), message);
+                            break;
+                        }
+                        failed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        badPeers.addAll(invalidPeers);
+        return bodies;
+    }
+
+    /**
+     * 下载区块体,区块内容须与已签名的区块头一致且交易与梅克尔树根一致,否则记入invalidPeers
+     * 内容一致时由本地计算区块hash,与区块头中的hash不符时置headerInvalid
+     *
+     * @return 超时或内容无效时返回null
+     */
+    private MessageChannel requestBody(String ip, BlockHeader header, Set<String> invalidPeers, AtomicBoolean headerInvalid) {
+        Message nodeMessage = new Message();
+        nodeMessage.setType(MessageType.BLOCK_REQ.getType());
+        nodeMessage.setContent(Long.toString(header.getHeight()).getBytes());
+        MessageChannel message;
+        try {
+            message = SynRequest.get().asynReq(nodeMessage, ip, REQ_TIMEOUT).get();
+        } catch (Exception e) {
+            log.info("向网络节点:{} 请求区块:{} 出错:{}", ip, header.getHeight(), e.getMessage());
+            return null;
+        }
+        if (message == null) {
+            return null;
+        }
+        BlockStore blockStore;
+        Block block;
+        try {
+            if (message.getMessage().getType() != MessageType.BLOCK_RESP.getType()) {
+                throw new VerificationException("响应类型错误");
+            }
+            blockStore = SerializationUtil.deserializer(message.getMessage().getContent(), BlockStore.class);
+            block = blockStore.getBlock();
+            if (block.getHeight() != header.getHeight()
+                    || !block.getHeaderHash().equals(header.getHeaderHash())
+                    || !Arrays.equals(block.getScriptBytes(), header.getScriptBytes())
+                    || !block.buildMerkleHash().equals(header.getMerkleHash())) {
+                throw new VerificationException("区块内容与区块头不一致");
+            }
+        } catch (Exception e) {
+            log.info("远端ip:{} 返回的区块:{} 无效:{}", ip, header.getHeight(), e.getMessage());
+            invalidPeers.add(ip);
+            return null;
+        }
+        if (!header.getHash().equals(Sha256Hash.twiceOf(block.baseSerialize()))) {
+            headerInvalid.set(true);
+            return null;
+        }
+        //保存已解码的区块,验证存储时不再重复反序列化
+        message.setDecoded(blockStore);
+        return message;
     }
 
     /**
@@ -252,28 +542,19 @@ public class SynBlock {
                 map.put(blockStore.getBlock().getHeight(), blockStore);
             }
             log.info("从其他网络节点下载下来的区块数为:{}", blocks.size());
+            List<MessageChannel> messages = new ArrayList<>(map.size());
             for (BlockStore block : map.values()) {
-                log.info("经过排序后的区块高度为:{}", block.getBlock().getBlockHeader().getHeight());
                 MessageChannel messageChannel = mapHeightData.get(block.getBlock().getBlockHeader().getHeight());
-                if (messageChannel != null) {
-                    try {
-                        if (blockArrivedValidator.check(messageChannel)) {
-                            log.info("SynBlock准备存储区块时间：{},区块高度：{}",NtpTimeService.currentTimeSeconds(),block.getBlock().getBlockHeader().getHeight());
-                            blockArrivedHandler.handle(messageChannel);
-                        }else{
-                            log.info("区块验证失败,重新同步");
-                            CacheManager.get().clearAll();
-                            break;
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        log.info("区块高度{}的区块数据异常 :{}", block.getBlock().getBlockHeader().getHeight(), e.getMessage());
-                        break;
-                    }
-                } else {
+                if (messageChannel == null) {
                     log.error("未获取到区块高度:{} 对应的数据内容...", block.getBlock().getBlockHeader().getHeight());
+                    break;
                 }
-
+                messageChannel.setDecoded(block);
+                messages.add(messageChannel);
+            }
+            if (new BlockSyncPipeline(blockArrivedValidator, blockArrivedHandler).process(messages) < messages.size()) {
+                log.info("区块验证失败,重新同步");
+                CacheManager.get().clearAll();
             }
         }
         synBlock();
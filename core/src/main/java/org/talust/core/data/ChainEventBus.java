@@ -0,0 +1,174 @@
+package org.talust.core.data;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.Coin;
+import org.talust.core.core.ByteHash;
+import org.talust.core.core.NetworkParams;
+import org.talust.core.model.Address;
+import org.talust.core.model.Block;
+import org.talust.core.network.MainNetworkParams;
+import org.talust.core.storage.AddressHistoryStorage;
+import org.talust.core.storage.TransactionStorage;
+import org.talust.core.transaction.Transaction;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 链事件发布
+ * 区块连接、区块回滚、交易进入待打包队列、钱包余额变化及同步状态变化时通知订阅者
+ * 事件在独立线程中组装和分发,队列满时丢弃,不影响区块保存及交易处理
+ */
+@Slf4j
+public class ChainEventBus {
+    private static ChainEventBus instance = new ChainEventBus();
+
+    private ChainEventBus() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_EVENTS), r -> {
+            Thread thread = new Thread(r, "chain-event");
+            thread.setDaemon(true);
+            return thread;
+        }, (r, e) -> log.warn("链事件队列已满,丢弃事件"));
+    }
+
+    public static ChainEventBus get() {
+        return instance;
+    }
+
+    public static final String BLOCK_CONNECTED = "block";
+    public static final String BLOCK_REVERTED = "revert";
+    public static final String TRANSACTION_ACCEPTED = "tx";
+    public static final String BALANCE_CHANGED = "balance";
+    public static final String SYNC_STATUS = "sync";
+
+    //等待分发的最大事件数量
+    private static final int MAX_PENDING_EVENTS = 10000;
+
+    private final ThreadPoolExecutor executor;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void blockConnected(Block block) {
+        publish(() -> publishBlock(BLOCK_CONNECTED, block));
+    }
+
+    public void blockReverted(Block block) {
+        publish(() -> publishBlock(BLOCK_REVERTED, block));
+    }
+
+    public void transactionAccepted(Transaction tx) {
+        publish(() -> {
+            JSONObject data = new JSONObject();
+            data.put("hash", tx.getHash().toString());
+            data.put("type", tx.getType());
+            data.put("time", tx.getTime());
+            dispatch(new ChainEvent(TRANSACTION_ACCEPTED, data, AddressHistoryStorage.get().getAddresses(tx)));
+        });
+    }
+
+    /**
+     * 钱包交易变化后,通知交易涉及的本地地址的最新余额
+     */
+    public void balanceChanged(Transaction tx) {
+        publish(() -> {
+            NetworkParams network = MainNetworkParams.get();
+            Set<ByteHash> mine = new HashSet<>();
+            for (byte[] hash160 : TransactionStorage.get().getAddresses()) {
+                mine.add(new ByteHash(hash160));
+            }
+            for (ByteHash hash160 : AddressHistoryStorage.get().getAddresses(tx)) {
+                if (!mine.contains(hash160)) {
+                    continue;
+                }
+                Coin[] balances = TransactionStorage.get().getBalanceAndUnconfirmedBalance(hash160.getBytes());
+                JSONObject data = new JSONObject();
+                data.put("address", Address.fromP2PKHash(network, network.getSystemAccountVersion(), hash160.getBytes()).getBase58());
+                data.put("value", balances[0].value);
+                data.put("lockValue", balances[1].value);
+                data.put("txHash", tx.getHash().toString());
+                dispatch(new ChainEvent(BALANCE_CHANGED, data, Collections.singleton(hash160)));
+            }
+        });
+    }
+
+    public void syncStatus(boolean sync, long maxHeight, long nowHeight) {
+        publish(() -> {
+            JSONObject data = new JSONObject();
+            data.put("syncStatus", sync);
+            data.put("maxHeight", Math.max(maxHeight, nowHeight));
+            data.put("nowHeight", nowHeight);
+            dispatch(new ChainEvent(SYNC_STATUS, data, null));
+        });
+    }
+
+    private void publishBlock(String type, Block block) {
+        JSONObject data = new JSONObject();
+        data.put("hash", block.getHash().toString());
+        data.put("height", block.getHeight());
+        data.put("time", block.getTime());
+        data.put("txCount", block.getTxCount());
+        dispatch(new ChainEvent(type, data, null));
+    }
+
+    private void publish(Runnable task) {
+        //没有订阅者时不组装事件
+        if (listeners.isEmpty()) {
+            return;
+        }
+        executor.execute(task);
+    }
+
+    private void dispatch(ChainEvent event) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Exception e) {
+                log.warn("链事件分发出错:{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 链事件订阅者,在事件线程中回调,不能阻塞
+     */
+    public interface Listener {
+        void onEvent(ChainEvent event);
+    }
+
+    /**
+     * 链事件
+     */
+    public static class ChainEvent {
+        private final String type;
+        private final JSONObject data;
+        //事件涉及的地址,为null时表示与具体地址无关
+        private final Set<ByteHash> addresses;
+
+        public ChainEvent(String type, JSONObject data, Set<ByteHash> addresses) {
+            this.type = type;
+            this.data = data;
+            this.addresses = addresses;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public JSONObject getData() {
+            return data;
+        }
+
+        public Set<ByteHash> getAddresses() {
+            return addresses;
+        }
+    }
+}
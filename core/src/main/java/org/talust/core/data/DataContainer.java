@@ -48,16 +48,31 @@ public class DataContainer {
     private int max_record_count = 1000;//一次最多能够打包的记录条数
 
     /**
-     * 新增一条记录
+     * 新增一条新接收的记录,并发布交易接收事件
      *
      * @param record
      */
     public void addRecord(Transaction record) {
         try {
-            lock.readLock().lock();
+            lock.writeLock().lock();
             datas.add(record);
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
+        }
+        ChainEventBus.get().transactionAccepted(record);
+    }
+
+    /**
+     * 将取出后未打包或回滚区块中的交易放回,交易此前已接收过,不再发布交易接收事件
+     *
+     * @param record
+     */
+    public void requeueRecord(Transaction record) {
+        try {
+            lock.writeLock().lock();
+            datas.add(record);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -125,6 +140,13 @@ public class DataContainer {
         }
     }
 
+    /**
+     * 一次最多能够打包的记录条数
+     */
+    public int getMaxRecordCount() {
+        return max_record_count;
+    }
+
     /**
      * 获取本次打包需要验证的数据集合
      */
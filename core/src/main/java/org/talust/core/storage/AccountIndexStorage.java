@@ -0,0 +1,159 @@
+package org.talust.core.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.talust.common.tools.Configure;
+import org.talust.storage.BaseStoreProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 账户索引存储
+ * 账户数据 key为 前缀1 + hash160(20),value为账户文件内容
+ * 地址索引 key为 前缀2 + base58地址,value为hash160
+ * 账户使用时才从存储中读取,不需要在内存中保留全部账户
+ */
+@Slf4j
+public class AccountIndexStorage extends BaseStoreProvider {
+    private static final byte ACCOUNT_PREFIX = 1;
+    private static final byte ADDRESS_PREFIX = 2;
+
+    public AccountIndexStorage() {
+        this(Configure.DATA_ACCOUNT_INDEX);
+    }
+
+    public AccountIndexStorage(String dir) {
+        super(dir);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        try {
+            return db.get(key);
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 保存账户文件内容及地址索引
+     */
+    public void saveAccount(byte[] hash160, String address, byte[] content) {
+        WriteBatch batch = new WriteBatch();
+        try {
+            batch.put(accountKey(hash160), content);
+            batch.put(addressKey(address), hash160);
+            write(batch);
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        } finally {
+            batch.close();
+        }
+    }
+
+    public void deleteAccount(byte[] hash160, String address) {
+        WriteBatch batch = new WriteBatch();
+        try {
+            batch.remove(accountKey(hash160));
+            batch.remove(addressKey(address));
+            write(batch);
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        } finally {
+            batch.close();
+        }
+    }
+
+    /**
+     * 根据hash160获取账户文件内容
+     */
+    public byte[] getAccount(byte[] hash160) {
+        return get(accountKey(hash160));
+    }
+
+    /**
+     * 根据地址获取账户hash160
+     */
+    public byte[] getHash160(String address) {
+        return get(addressKey(address));
+    }
+
+    /**
+     * 获取全部账户的hash160
+     */
+    public List<byte[]> getHash160s() {
+        List<byte[]> hash160s = new ArrayList<>();
+        RocksIterator iter = db.newIterator();
+        try {
+            for (iter.seek(new byte[]{ACCOUNT_PREFIX}); iter.isValid(); iter.next()) {
+                byte[] key = iter.key();
+                if (key[0] != ACCOUNT_PREFIX) {
+                    break;
+                }
+                hash160s.add(Arrays.copyOfRange(key, 1, key.length));
+            }
+        } finally {
+            iter.close();
+        }
+        return hash160s;
+    }
+
+    /**
+     * 获取全部账户地址,key为base58地址,value为hash160
+     */
+    public Map<String, byte[]> getAddresses() {
+        Map<String, byte[]> addresses = new LinkedHashMap<>();
+        RocksIterator iter = db.newIterator();
+        try {
+            for (iter.seek(new byte[]{ADDRESS_PREFIX}); iter.isValid(); iter.next()) {
+                byte[] key = iter.key();
+                if (key[0] != ADDRESS_PREFIX) {
+                    break;
+                }
+                addresses.put(new String(key, 1, key.length - 1), iter.value());
+            }
+        } finally {
+            iter.close();
+        }
+        return addresses;
+    }
+
+    /**
+     * 获取第一个账户的hash160,没有账户时返回null
+     */
+    public byte[] getFirstHash160() {
+        RocksIterator iter = db.newIterator();
+        try {
+            iter.seek(new byte[]{ACCOUNT_PREFIX});
+            if (iter.isValid() && iter.key()[0] == ACCOUNT_PREFIX) {
+                byte[] key = iter.key();
+                return Arrays.copyOfRange(key, 1, key.length);
+            }
+            return null;
+        } finally {
+            iter.close();
+        }
+    }
+
+    private byte[] accountKey(byte[] hash160) {
+        byte[] key = new byte[hash160.length + 1];
+        key[0] = ACCOUNT_PREFIX;
+        System.arraycopy(hash160, 0, key, 1, hash160.length);
+        return key;
+    }
+
+    private byte[] addressKey(String address) {
+        byte[] addressBytes = address.getBytes();
+        byte[] key = new byte[addressBytes.length + 1];
+        key[0] = ADDRESS_PREFIX;
+        System.arraycopy(addressBytes, 0, key, 1, addressBytes.length);
+        return key;
+    }
+}
@@ -31,7 +31,11 @@ import org.springframework.util.StringUtils;
 import org.talust.common.crypto.*;
 import org.talust.common.tools.Configure;
 import org.talust.common.tools.FileUtil;
+import org.talust.common.tools.RandomUtil;
+import org.talust.core.core.ByteHash;
 import org.talust.core.core.ECKey;
+import org.talust.core.core.KeySessionManager;
+import org.talust.core.filter.BloomFilter;
 import org.talust.core.model.Account;
 import org.talust.core.model.Address;
 import org.talust.common.model.Coin;
@@ -48,12 +52,29 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class AccountStorage {
 
     private Account account;
-    private Map<String, Account> accountMap = new HashMap<>();
     private MainNetworkParams network = MainNetworkParams.get();
+    //账户索引存储,账户文件内容按hash160存放,并建立地址索引
+    private AccountIndexStorage indexStorage;
+    //最近使用的账户,账户及其密钥在首次使用时才从索引存储中加载
+    private final Map<ByteHash, Account> accountCache = Collections.synchronizedMap(new LinkedHashMap<ByteHash, Account>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteHash, Account> eldest) {
+            return size() > Configure.ACCOUNT_CACHE_SIZE;
+        }
+    });
+    //过滤器最小容量
+    private static final int MIN_FILTER_CAPACITY = 100000;
+    //本地账户hash160过滤器,用于快速判断交易是否与本地账户有关
+    private volatile BloomFilter ownedFilter;
+    //过滤器容量,账户数量超过后重建
+    private int filterCapacity;
+    private int filterCount;
     private static AccountStorage instance = new AccountStorage();
 
     private AccountStorage() {
         init(Configure.DATA_ACCOUNT);
+        indexStorage = new AccountIndexStorage();
+        rebuildFilter();
     }
 
     public static AccountStorage get() {
@@ -111,12 +132,13 @@ public class AccountStorage {
             }
         }
         account.setEcKey(key);
-        accountMap.put(account.getAddress().getBase58(), account);
+        saveAccount(account, fileJson);
         return address;
     }
 
     /**
      * walletLogin
+     * 账户文件只在首次出现时解析并写入账户索引存储,已索引的账户启动时不再解析及生成密钥
      *
      * @throws Exception
      */
@@ -124,36 +146,49 @@ public class AccountStorage {
         List<String> list = getAllFile(Configure.DATA_ACCOUNT, true);
         if (list == null || list.size() == 0) {
             try {
+                //账户文件已全部删除,清除残留的索引
+                for (Map.Entry<String, byte[]> entry : indexStorage.getAddresses().entrySet()) {
+                    indexStorage.deleteAccount(entry.getValue(), entry.getKey());
+                }
+                rebuildFilter();
                 createAccount();
             } catch (Exception e) {
                 log.warn("创建账户时出错！");
             }
         } else {
             try {
+                Set<String> fileAddresses = new HashSet<>();
                 for (String path : list) {
                     File file = new File(path);
-                    if (file.exists()) {
-                        String content = FileUtil.fileToTxt(file);
-                        //说明已经有账户信息
-                        if (content != null && content.length() > 0) {
-                            JSONObject fileJson = JSONObject.parseObject(content);
-                            account = Account.parse(fileJson.getBytes("data"), 0, network);
-                            try {
-                                if (fileJson.getBoolean("isEncrypted")) {
-                                    EncryptedData encryptedData = new EncryptedData(fileJson.getBytes("vector"), fileJson.getBytes("privateKey"));
-                                    ECKey ecKey = ECKey.fromEncrypted(encryptedData, fileJson.getBytes("publicKey"));
-                                    account.setEcKey(ecKey);
-                                } else {
-                                    account.resetKey();
-                                }
-                                accountMap.put(account.getAddress().getBase58(), account);
-                                TransactionStorage.get().addAddress(account.getAddress().getHash160());
-                            } catch (Exception e) {
-                                log.warn("默认登陆{}时出错", account.getAddress().getBase58(), e);
-                            }
+                    if (!file.exists() || file.isDirectory()) {
+                        continue;
+                    }
+                    fileAddresses.add(file.getName());
+                    if (indexStorage.getHash160(file.getName()) != null) {
+                        continue;
+                    }
+                    String content = FileUtil.fileToTxt(file);
+                    //说明已经有账户信息
+                    if (content != null && content.length() > 0) {
+                        JSONObject fileJson = JSONObject.parseObject(content);
+                        try {
+                            Account fileAccount = parseAccount(fileJson);
+                            saveAccount(fileAccount, fileJson);
+                        } catch (Exception e) {
+                            log.warn("默认登陆{}时出错", file.getName(), e);
                         }
                     }
                 }
+                //账户文件已被删除的,同时移除索引
+                for (Map.Entry<String, byte[]> entry : indexStorage.getAddresses().entrySet()) {
+                    if (!fileAddresses.contains(entry.getKey())) {
+                        indexStorage.deleteAccount(entry.getValue(), entry.getKey());
+                    }
+                }
+                rebuildFilter();
+                TransactionStorage.get().addAddresses(getAccountHash160s());
+                account = getDefaultAccount();
+                log.info("加载账户索引完成,账户数量:{}", filterCount);
             } catch (Exception e) {
                 log.warn("账户文件路径读取错误");
             }
@@ -176,7 +211,7 @@ public class AccountStorage {
                 try {
                     account.resetKey();
                     account.verify();
-                    accountMap.put(account.getAddress().getBase58(), account);
+                    saveAccount(account, fileJson);
                     TransactionStorage.get().addAddress(account.getAddress().getHash160());
                 } catch (Exception e) {
                     log.warn("默认登陆{}时出错", account.getAddress().getBase58(), e);
@@ -200,11 +235,18 @@ public class AccountStorage {
             //说明已经有账户信息
             if (content != null && content.length() > 0) {
                 JSONObject fileJson = JSONObject.parseObject(content);
-                account = Account.parse(fileJson.getBytes("data"), 0, network);
-                log.info("移除账户前有{}个账户", accountMap.size());
-                accountMap.remove(account.getAddress().getBase58());
-                log.info("移除账户后有{}个账户", accountMap.size());
-                TransactionStorage.get().removeAddress(account.getAddress().getHash160());
+                Account removed = Account.parse(fileJson.getBytes("data"), 0, network);
+                byte[] hash160 = removed.getAddress().getHash160();
+                log.info("移除账户前有{}个账户", filterCount);
+                indexStorage.deleteAccount(hash160, removed.getAddress().getBase58());
+                accountCache.remove(new ByteHash(hash160));
+                rebuildFilter();
+                log.info("移除账户后有{}个账户", filterCount);
+                KeySessionManager.get().lock(removed);
+                if (account != null && Arrays.equals(account.getAddress().getHash160(), hash160)) {
+                    account = getDefaultAccount();
+                }
+                TransactionStorage.get().removeAddress(hash160);
             }
             boolean result = file.delete();
         } catch (IOException e) {
@@ -271,6 +313,7 @@ public class AccountStorage {
                 fileJson.put("isEncrypted", account.isEncrypted());
                 fos.write(fileJson.toJSONString().getBytes());
                 fos.flush();
+                indexStorage.saveAccount(account.getAddress().getHash160(), account.getAddress().getBase58(), fileJson.toJSONString().getBytes());
                 successCount++;
             } finally {
                 fos.close();
@@ -281,8 +324,7 @@ public class AccountStorage {
             resp.put("msgCode", "E00020");
             return resp;
         }
-        accountMap.remove(address);
-        accountMap.put(address, account);
+        accountCache.put(new ByteHash(account.getAddress().getHash160()), account);
         resp.put("retCode", "0");
         resp.put("msgCode", "S00003");
         return resp;
@@ -292,10 +334,10 @@ public class AccountStorage {
      * 文件导入账户
      */
     public boolean importAccountFile(Account account, JSONObject fileJson) {
-        if(accountMap.containsKey(account.getAddress().getBase58())){
+        if (indexStorage.getHash160(account.getAddress().getBase58()) != null) {
             return false;
         }
-        accountMap.put(account.getAddress().getBase58(), account);
+        saveAccount(account, fileJson);
         //回写到钱包文件
         try {
             String accPath = Configure.DATA_ACCOUNT + File.separator + account.getAddress().getBase58();
@@ -325,19 +367,13 @@ public class AccountStorage {
      * @return Account
      */
     public Account getAccount(String address) {
-        for (Account account : accountMap.values()) {
-            if (account.getAddress().getBase58().equals(address)) {
-                return account;
-            }
-        }
-        return null;
+        return getAccountByAddress(address);
     }
 
     public void removeCacheAccount(String address) {
-        for (Account account : accountMap.values()) {
-            if (account.getAddress().getBase58().equals(address)) {
-                accountMap.remove(address);
-            }
+        byte[] hash160 = indexStorage.getHash160(address);
+        if (hash160 != null) {
+            accountCache.remove(new ByteHash(hash160));
         }
     }
 
@@ -347,10 +383,11 @@ public class AccountStorage {
      * @return Account
      */
     public Account getDefaultAccount() {
-        if (accountMap == null || accountMap.size() == 0) {
+        byte[] hash160 = indexStorage.getFirstHash160();
+        if (hash160 == null) {
             return null;
         }
-        return accountMap.values().iterator().next();
+        return getAccountByAddress(hash160);
     }
 
     /**
@@ -374,79 +411,38 @@ public class AccountStorage {
     }
 
     public boolean reloadCoin() {
-        List<byte[]> hash160s = getAccountHash160s();
-        boolean ending = false;
-        if (maybeReLoadTransaction(hash160s)||maybeAccountCoinZero()) {
-            ending = loadBalanceFromChainstateAndUnconfirmedTransaction(hash160s);
+        //账户变化时合并到一次全量重扫中
+        if (!WalletRefreshService.get().ensureCurrent()) {
+            return false;
         }
-        return ending;
+        return loadBalanceFromChainstateAndUnconfirmedTransaction(getAccountHash160s());
     }
 
     public boolean reloadCoinForce() {
-        List<byte[]> hash160s = getAccountHash160s();
-        boolean ending = false;
-        if (maybeReLoadTransactionForce(hash160s)||maybeAccountCoinZero()) {
-            ending = loadBalanceFromChainstateAndUnconfirmedTransaction(hash160s);
-        }
-        return ending;
+        return WalletRefreshService.get().refreshAndWait();
     }
 
-    //是否重新加载账户交易
-    private boolean maybeReLoadTransactionForce(List<byte[]> hash160s) {
-        List<byte[]> hash160sStore = TransactionStorage.get().getAddresses();
-        return TransactionStorage.get().reloadTransaction(hash160s);
+    //获取账户对应的has160
+    public List<byte[]> getAccountHash160s() {
+        return new CopyOnWriteArrayList<byte[]>(indexStorage.getHash160s());
     }
 
-
-    private boolean maybeAccountCoinZero(){
-        boolean ending = false;
-        Collection<Account> accountList = accountMap.values();
-        for(Account account  :accountList){
-            if(account.getAddress().getBalance().isZero()){
-                ending =true;
-            }
-        }
-        return ending;
+    /**
+     * 获取全部账户地址,key为base58地址,value为hash160,不加载账户
+     */
+    public Map<String, byte[]> getAccountAddresses() {
+        return indexStorage.getAddresses();
     }
 
-    //是否重新加载账户交易
-    private boolean maybeReLoadTransaction(List<byte[]> hash160s) {
-        //判断上次加载的和本次的账户是否完全一致
-        List<byte[]> hash160sStore = TransactionStorage.get().getAddresses();
-
-        //如果个数一样，则判断是否完全相同
-        if (hash160s.size() == hash160sStore.size()) {
-            Comparator<byte[]> comparator = new Comparator<byte[]>() {
-                @Override
-                public int compare(byte[] o1, byte[] o2) {
-                    return Hex.encode(o1).compareTo(Hex.encode(o2));
-                }
-            };
-            Collections.sort(hash160s, comparator);
-            Collections.sort(hash160sStore, comparator);
-            boolean fullSame = true;
-            for (int i = 0; i < hash160s.size(); i++) {
-                if (!Arrays.equals(hash160sStore.get(i), hash160s.get(i))) {
-                    fullSame = false;
-                    break;
-                }
-            }
-            if (fullSame) {
-                return true;
-            }
-        }
-        return TransactionStorage.get().reloadTransaction(hash160s);
+    /**
+     * 判断hash160是否属于本地账户,先经过滤器判断,命中后再查询账户索引确认
+     */
+    public boolean isMine(byte[] hash160) {
+        return ownedFilter.contains(hash160) && indexStorage.getAccount(hash160) != null;
     }
 
-    //获取账户对应的has160
-    public List<byte[]> getAccountHash160s() {
-        CopyOnWriteArrayList<byte[]> hash160s = new CopyOnWriteArrayList<byte[]>();
-        for (Account account : accountMap.values()) {
-            Address address = account.getAddress();
-            byte[] hash160 = address.getHash160();
-            hash160s.add(hash160);
-        }
-        return hash160s;
+    public int getAccountCount() {
+        return filterCount;
     }
 
     /*
@@ -455,7 +451,12 @@ public class AccountStorage {
     public boolean loadBalanceFromChainstateAndUnconfirmedTransaction(List<byte[]> hash160s) {
 
         try {
-            for (Account account : accountMap.values()) {
+            //只更新已加载的账户,其余账户在加载时读取余额
+            List<Account> accounts;
+            synchronized (accountCache) {
+                accounts = new ArrayList<>(accountCache.values());
+            }
+            for (Account account : accounts) {
                 Address address = account.getAddress();
                 loadAddressBalance(address);
             }
@@ -504,33 +505,88 @@ public class AccountStorage {
         this.account = account;
     }
 
-    public Map<String, Account> getAccountMap() {
-        return accountMap;
+    /**
+     * @return
+     */
+
+    public Account getAccountByAddress(String address) {
+        if (address == null) {
+            return null;
+        }
+        byte[] hash160 = indexStorage.getHash160(address);
+        if (hash160 == null) {
+            return null;
+        }
+        return getAccountByAddress(hash160);
     }
 
-    public void setAccountMap(Map<String, Account> accountMap) {
-        this.accountMap = accountMap;
+    public Account getAccountByAddress(byte[] address) {
+        ByteHash key = new ByteHash(address);
+        Account cached = accountCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] content = indexStorage.getAccount(address);
+        if (content == null) {
+            return null;
+        }
+        try {
+            Account loaded = parseAccount(JSONObject.parseObject(new String(content)));
+            loadAddressBalance(loaded.getAddress());
+            //并发加载同一账户时使用先放入缓存的实例
+            cached = accountCache.putIfAbsent(key, loaded);
+            return cached == null ? loaded : cached;
+        } catch (Exception e) {
+            log.warn("加载账户{}时出错", Base58.encode(address), e);
+            return null;
+        }
     }
 
     /**
-     * @return
+     * 解析账户文件内容,加密账户只设置加密后的私钥
      */
+    private Account parseAccount(JSONObject fileJson) throws Exception {
+        Account fileAccount = Account.parse(fileJson.getBytes("data"), 0, network);
+        if (fileJson.getBoolean("isEncrypted")) {
+            EncryptedData encryptedData = new EncryptedData(fileJson.getBytes("vector"), fileJson.getBytes("privateKey"));
+            ECKey ecKey = ECKey.fromEncrypted(encryptedData, fileJson.getBytes("publicKey"));
+            fileAccount.setEcKey(ecKey);
+        } else {
+            fileAccount.resetKey();
+        }
+        return fileAccount;
+    }
 
-    public Account getAccountByAddress(String address) {
-        for (Account account : accountMap.values()) {
-            if (account.getAddress().getBase58().equals(address)) {
-                return account;
+    /**
+     * 保存账户到索引存储,并加入过滤器及缓存
+     */
+    private synchronized void saveAccount(Account saved, JSONObject fileJson) {
+        byte[] hash160 = saved.getAddress().getHash160();
+        boolean exists = indexStorage.getAccount(hash160) != null;
+        indexStorage.saveAccount(hash160, saved.getAddress().getBase58(), fileJson.toJSONString().getBytes());
+        accountCache.put(new ByteHash(hash160), saved);
+        if (!exists) {
+            filterCount++;
+            if (filterCount > filterCapacity) {
+                rebuildFilter();
+            } else {
+                ownedFilter.insert(hash160);
             }
         }
-        return null;
     }
 
-    public Account getAccountByAddress(byte[] address) {
-        for (Account account : accountMap.values()) {
-            if (Arrays.equals(account.getAddress().getHash160(), address)) {
-                return account;
-            }
+    /**
+     * 根据账户索引重建过滤器
+     */
+    private synchronized void rebuildFilter() {
+        List<byte[]> hash160s = indexStorage.getHash160s();
+        int capacity = Math.max(MIN_FILTER_CAPACITY, hash160s.size() * 2);
+        BloomFilter filter = new BloomFilter(capacity, 0.0001, RandomUtil.randomLong());
+        for (byte[] hash160 : hash160s) {
+            filter.insert(hash160);
         }
-        return null;
+        filterCapacity = capacity;
+        filterCount = hash160s.size();
+        ownedFilter = filter;
     }
 }
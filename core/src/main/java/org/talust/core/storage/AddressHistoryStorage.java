@@ -0,0 +1,415 @@
+package org.talust.core.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.crypto.Utils;
+import org.talust.common.tools.Configure;
+import org.talust.core.core.ByteHash;
+import org.talust.core.model.Block;
+import org.talust.core.script.Script;
+import org.talust.core.transaction.Transaction;
+import org.talust.core.transaction.TransactionInput;
+import org.talust.core.transaction.TransactionOutput;
+import org.talust.storage.BaseStoreProvider;
+
+import java.util.*;
+
+/**
+ * 地址交易历史索引
+ * key为 hash160(20) + 区块高度(4) + 交易在区块中的序号(2),大端编码,同一地址的记录按高度连续存放
+ * value为 交易hash(32) + 区块时间(4) + 交易类型(1) + 方向(1) + 转入金额(8) + 转出金额(8)
+ * 区块连接时写入,区块回滚时删除,可查询任意地址的历史,不依赖本地钱包
+ */
+@Slf4j
+public class AddressHistoryStorage extends BaseStoreProvider {
+    private static AddressHistoryStorage instance = new AddressHistoryStorage();
+
+    private AddressHistoryStorage() {
+        this(Configure.DATA_ADDRESS_HISTORY);
+    }
+
+    public AddressHistoryStorage(String dir) {
+        super(dir);
+    }
+
+    public static AddressHistoryStorage get() {
+        return instance;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        try {
+            return db.get(key);
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    //转入
+    public static final int DIRECTION_IN = 1;
+    //转出
+    public static final int DIRECTION_OUT = 2;
+
+    private static final int HASH160_LENGTH = 20;
+    private static final int KEY_LENGTH = HASH160_LENGTH + 4 + 2;
+    private static final int VALUE_LENGTH = Sha256Hash.LENGTH + 4 + 1 + 1 + 8 + 8;
+    //单次查询返回的最大记录数
+    public static final int MAX_PAGE_SIZE = 100;
+    //单次查询最多检查的记录数,按条件过滤掉的记录也计入
+    public static final int MAX_SCAN_SIZE = MAX_PAGE_SIZE * 100;
+    //补齐索引时没有新区块的等待时间,单位毫秒
+    private static final long CATCH_UP_INTERVAL = 3000;
+    //已建立索引的最高区块高度存储key
+    private static final byte[] INDEXED_HEIGHT_KEY = "history_indexed_height".getBytes();
+
+    private volatile long indexedHeight = -1;
+    private volatile boolean running;
+
+    /**
+     * 启动索引补齐,从已索引高度补齐到本地最新区块
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        indexedHeight = readIndexedHeight();
+        Thread thread = new Thread(this::catchUp, "history-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 持续补齐索引,区块保存时索引高度不连续或区块暂时读取不到时,由这里在之后补齐
+     */
+    private void catchUp() {
+        BlockStorage blockStorage = BlockStorage.get();
+        log.info("地址交易历史索引补齐,从高度:{}开始", indexedHeight + 1);
+        while (running) {
+            try {
+                //在区块锁内读取并写入索引,期间区块不会被回滚,不会为已回滚的区块写入索引
+                boolean connected = blockStorage.withBlockLock(() -> {
+                    BlockHeaderStore bestHeader = blockStorage.getBestBlockHeader();
+                    if (bestHeader == null || indexedHeight >= bestHeader.getBlockHeader().getHeight()) {
+                        return false;
+                    }
+                    BlockStore blockStore = blockStorage.getBlockByHeight(indexedHeight + 1);
+                    if (blockStore == null) {
+                        return false;
+                    }
+                    connectBlock(blockStore.getBlock());
+                    return true;
+                });
+                if (connected) {
+                    continue;
+                }
+            } catch (Exception e) {
+                log.error("地址交易历史索引补齐出错,高度:{},{}", indexedHeight + 1, e.getMessage(), e);
+            }
+            try {
+                Thread.sleep(CATCH_UP_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 从快照导入链状态后,快照高度及之前的区块没有完整交易,索引从快照之后的区块开始建立
+     */
+    public synchronized void resetIndexedHeight(long height) {
+        indexedHeight = height;
+        put(INDEXED_HEIGHT_KEY, heightBytes(height));
+        log.info("地址交易历史索引从高度:{}开始建立", height + 1);
+    }
+
+    /**
+     * 区块连接后写入区块中所有交易涉及地址的索引
+     */
+    public synchronized void connectBlock(Block block) {
+        List<Transaction> txs = block.getTxs();
+        try (WriteBatch batch = new WriteBatch()) {
+            for (int i = 0; i < txs.size(); i++) {
+                Map<ByteHash, long[]> entries = collect(txs.get(i));
+                for (Map.Entry<ByteHash, long[]> entry : entries.entrySet()) {
+                    long[] amounts = entry.getValue();
+                    batch.put(getKey(entry.getKey().getBytes(), block.getHeight(), i),
+                            getValue(txs.get(i), block.getTime(), amounts[0], amounts[1]));
+                }
+            }
+            if (block.getHeight() == indexedHeight + 1) {
+                indexedHeight = block.getHeight();
+                batch.put(INDEXED_HEIGHT_KEY, heightBytes(indexedHeight));
+            }
+            write(batch);
+        } catch (RocksDBException e) {
+            log.error("写入地址交易历史索引出错:{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 区块回滚时删除区块中所有交易涉及地址的索引
+     */
+    public synchronized void disconnectBlock(Block block) {
+        List<Transaction> txs = block.getTxs();
+        try (WriteBatch batch = new WriteBatch()) {
+            for (int i = 0; i < txs.size(); i++) {
+                for (ByteHash hash160 : collect(txs.get(i)).keySet()) {
+                    batch.remove(getKey(hash160.getBytes(), block.getHeight(), i));
+                }
+            }
+            if (block.getHeight() <= indexedHeight) {
+                indexedHeight = block.getHeight() - 1;
+                batch.put(INDEXED_HEIGHT_KEY, heightBytes(indexedHeight));
+            }
+            write(batch);
+        } catch (RocksDBException e) {
+            log.error("删除地址交易历史索引出错:{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 统计交易涉及的地址及每个地址的转入、转出金额
+     */
+    private Map<ByteHash, long[]> collect(Transaction tx) {
+        Map<ByteHash, long[]> entries = new LinkedHashMap<>();
+        if (!tx.isPaymentTransaction()) {
+            return entries;
+        }
+        List<TransactionOutput> outputs = tx.getOutputs();
+        if (outputs != null) {
+            for (TransactionOutput output : outputs) {
+                byte[] hash160 = getHash160(output.getScript());
+                if (hash160 != null) {
+                    entries.computeIfAbsent(new ByteHash(hash160), k -> new long[2])[0] += output.getValue();
+                }
+            }
+        }
+        List<TransactionInput> inputs = tx.getInputs();
+        if (inputs != null) {
+            for (TransactionInput input : inputs) {
+                if (input.getFroms() == null) {
+                    continue;
+                }
+                for (TransactionOutput from : input.getFroms()) {
+                    TransactionStore fromTx = BlockStorage.get().getTransaction(from.getParent().getHash().getBytes());
+                    if (fromTx == null) {
+                        continue;
+                    }
+                    TransactionOutput spent = (TransactionOutput) fromTx.getTransaction().getOutput(from.getIndex());
+                    byte[] hash160 = getHash160(spent.getScript());
+                    if (hash160 != null) {
+                        entries.computeIfAbsent(new ByteHash(hash160), k -> new long[2])[1] += spent.getValue();
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 获取交易涉及的地址,包含收款地址及被花费输出的地址
+     */
+    public Set<ByteHash> getAddresses(Transaction tx) {
+        return collect(tx).keySet();
+    }
+
+    private byte[] getHash160(Script script) {
+        if (script == null || !script.isSentToAddress()) {
+            return null;
+        }
+        return script.getChunks().get(2).data;
+    }
+
+    /**
+     * 按时间倒序分页查询地址的交易历史
+     *
+     * @param hash160   地址
+     * @param startTime 开始时间(含),单位秒,小于等于0时不限制
+     * @param endTime   结束时间(含),单位秒,小于等于0时不限制
+     * @param type      交易类型,小于0时不限制
+     * @param cursor    上一页返回的游标,为null时从最新的记录开始
+     * @param size      每页数量
+     *                  检查的记录数达到上限时返回已找到的记录及游标,记录可能不足一页,游标为null时才没有更多记录
+     */
+    public HistoryPage getHistory(byte[] hash160, long startTime, long endTime, int type, byte[] cursor, int size) {
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        HistoryPage page = new HistoryPage();
+        byte[] upper = cursor != null ? cursor : getKey(hash160, 0xffffffffL, 0xffff);
+        RocksIterator iter = newIterator();
+        try {
+            //定位到小于upper的最后一条记录
+            iter.seek(upper);
+            if (iter.isValid()) {
+                iter.prev();
+            } else {
+                iter.seekToLast();
+            }
+            int scanned = 0;
+            byte[] lastKey = null;
+            for (; iter.isValid(); iter.prev()) {
+                byte[] key = iter.key();
+                if (key.length != KEY_LENGTH || !startsWith(key, hash160)) {
+                    break;
+                }
+                if (scanned++ == MAX_SCAN_SIZE) {
+                    //下一页从上一条检查过的记录之前继续
+                    page.nextCursor = lastKey;
+                    break;
+                }
+                lastKey = key;
+                HistoryItem item = new HistoryItem(key, iter.value());
+                if (endTime > 0 && item.getTime() > endTime || type >= 0 && item.getType() != type) {
+                    continue;
+                }
+                //区块时间按高度递增,早于开始时间后不再有符合条件的记录
+                if (startTime > 0 && item.getTime() < startTime) {
+                    break;
+                }
+                if (page.items.size() == size) {
+                    page.nextCursor = page.items.get(size - 1).key;
+                    break;
+                }
+                page.items.add(item);
+            }
+        } finally {
+            iter.close();
+        }
+        return page;
+    }
+
+    /**
+     * 生成索引key,分页游标即本页最后一条记录的key,下一页从该key之前开始
+     */
+    public static byte[] getKey(byte[] hash160, long height, int txIndex) {
+        byte[] key = new byte[KEY_LENGTH];
+        System.arraycopy(hash160, 0, key, 0, HASH160_LENGTH);
+        Utils.uint32ToByteArrayBE(height, key, HASH160_LENGTH);
+        key[KEY_LENGTH - 2] = (byte) (txIndex >> 8);
+        key[KEY_LENGTH - 1] = (byte) txIndex;
+        return key;
+    }
+
+    private byte[] getValue(Transaction tx, long time, long received, long sent) {
+        byte[] value = new byte[VALUE_LENGTH];
+        System.arraycopy(tx.getHash().getBytes(), 0, value, 0, Sha256Hash.LENGTH);
+        int offset = Sha256Hash.LENGTH;
+        Utils.uint32ToByteArrayBE(time, value, offset);
+        offset += 4;
+        value[offset++] = (byte) tx.getType();
+        value[offset++] = (byte) ((received > 0 ? DIRECTION_IN : 0) | (sent > 0 ? DIRECTION_OUT : 0));
+        Utils.uint64ToByteArrayLE(received, value, offset);
+        Utils.uint64ToByteArrayLE(sent, value, offset + 8);
+        return value;
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] heightBytes(long height) {
+        byte[] bytes = new byte[8];
+        Utils.uint64ToByteArrayLE(height, bytes, 0);
+        return bytes;
+    }
+
+    private long readIndexedHeight() {
+        byte[] bytes = get(INDEXED_HEIGHT_KEY);
+        if (bytes == null) {
+            return -1;
+        }
+        return Utils.readInt64(bytes, 0);
+    }
+
+    public long getIndexedHeight() {
+        return indexedHeight;
+    }
+
+    /**
+     * 一页交易历史
+     */
+    public static class HistoryPage {
+        private final List<HistoryItem> items = new ArrayList<>();
+        //下一页游标,没有更多记录时为null
+        private byte[] nextCursor;
+
+        public List<HistoryItem> getItems() {
+            return items;
+        }
+
+        public byte[] getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * 一条交易历史记录
+     */
+    public static class HistoryItem {
+        private final byte[] key;
+        private final long height;
+        private final int txIndex;
+        private final Sha256Hash txHash;
+        private final long time;
+        private final int type;
+        private final int direction;
+        private final long received;
+        private final long sent;
+
+        private HistoryItem(byte[] key, byte[] value) {
+            this.key = key;
+            this.height = Utils.readUint32BE(key, HASH160_LENGTH);
+            this.txIndex = ((key[KEY_LENGTH - 2] & 0xff) << 8) | (key[KEY_LENGTH - 1] & 0xff);
+            this.txHash = Sha256Hash.wrap(Arrays.copyOf(value, Sha256Hash.LENGTH));
+            int offset = Sha256Hash.LENGTH;
+            this.time = Utils.readUint32BE(value, offset);
+            offset += 4;
+            this.type = value[offset++] & 0xff;
+            this.direction = value[offset++];
+            this.received = Utils.readInt64(value, offset);
+            this.sent = Utils.readInt64(value, offset + 8);
+        }
+
+        public long getHeight() {
+            return height;
+        }
+
+        public int getTxIndex() {
+            return txIndex;
+        }
+
+        public Sha256Hash getTxHash() {
+            return txHash;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getDirection() {
+            return direction;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+    }
+}
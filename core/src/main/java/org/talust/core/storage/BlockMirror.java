@@ -0,0 +1,33 @@
+package org.talust.core.storage;
+
+import java.util.List;
+
+/**
+ * 区块镜像存储,将已保存的区块同步一份到分析用的外部存储
+ * 镜像存储出错不影响链本身的存储
+ */
+public interface BlockMirror {
+
+    /**
+     * 不做任何存储的镜像,未配置外部存储或测试时使用
+     */
+    BlockMirror NONE = blockStores -> {
+    };
+
+    /**
+     * 批量保存区块,区块按高度从低到高排列,重复保存同一区块不产生重复数据
+     *
+     * @param blockStores
+     * @throws Exception
+     */
+    void save(List<BlockStore> blockStores) throws Exception;
+
+    /**
+     * 删除指定高度及以上的区块,区块回滚时使用
+     *
+     * @param height
+     * @throws Exception
+     */
+    default void revoke(long height) throws Exception {
+    }
+}
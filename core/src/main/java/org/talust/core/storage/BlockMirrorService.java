@@ -0,0 +1,250 @@
+package org.talust.core.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.crypto.Utils;
+import org.talust.common.tools.Configure;
+import org.talust.core.model.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 区块镜像同步服务
+ * 区块保存后放入有界队列即返回,由后台线程批量写入镜像存储,不阻塞区块保存
+ * 已同步的最高区块高度持久化在区块库中,队列满、写入失败或重启后从该高度开始补齐
+ * 区块回滚时立即降低持久化的同步高度,由后台线程删除镜像中回滚的区块,再从区块库补齐新的区块
+ */
+@Slf4j
+public class BlockMirrorService {
+    private static BlockMirrorService instance = new BlockMirrorService();
+
+    private BlockMirrorService() {
+    }
+
+    public static BlockMirrorService get() {
+        return instance;
+    }
+
+    //已同步到镜像存储的最高区块高度存储key
+    private final static byte[] MIRROR_HEIGHT_KEY = "mirror_best_height".getBytes();
+    //每批写入的最大区块数
+    private final static int BATCH_SIZE = 100;
+    //写入失败后的重试间隔,单位毫秒
+    private final static long RETRY_INTERVAL = 10000L;
+
+    private final BlockingQueue<BlockStore> queue = new ArrayBlockingQueue<>(Configure.MIRROR_QUEUE_SIZE);
+    private volatile BlockMirror mirror = BlockMirror.NONE;
+    private volatile boolean running;
+    //是否存在未同步的区块,需要从区块库中补齐
+    private volatile boolean behind = true;
+    //已同步的最高区块高度
+    private volatile long mirrorHeight = -1;
+    //待删除的回滚区块最低高度,没有回滚时为Long.MAX_VALUE
+    private final AtomicLong revertHeight = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * 根据配置启动镜像同步,未配置镜像存储时不做任何处理
+     */
+    public void start() {
+        if (Configure.MONGODB_URI == null || Configure.MONGODB_URI.isEmpty()) {
+            log.info("未配置区块镜像存储,不启动镜像同步");
+            return;
+        }
+        try {
+            start(new MongoBlockMirror(Configure.MONGODB_URI));
+        } catch (Exception e) {
+            log.error("区块镜像存储初始化失败:{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 使用指定的镜像存储启动镜像同步
+     */
+    public synchronized void start(BlockMirror blockMirror) {
+        if (running) {
+            return;
+        }
+        this.mirror = blockMirror;
+        this.running = true;
+        Thread thread = new Thread(this::run, "block-mirror");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("启动区块镜像同步...");
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * 提交已保存的区块,队列满时直接丢弃,由后台线程从区块库补齐
+     */
+    public void offer(BlockStore blockStore) {
+        if (!running) {
+            return;
+        }
+        if (!queue.offer(blockStore)) {
+            behind = true;
+        }
+    }
+
+    /**
+     * 区块回滚,清空队列中可能属于旧分支的区块,并立即降低持久化的同步高度
+     * 进程在镜像删除前退出时,重启后也会从回滚高度重新同步
+     */
+    public void revoke(Block block) {
+        if (!running) {
+            return;
+        }
+        long height = block.getHeight();
+        revertHeight.accumulateAndGet(height, Math::min);
+        queue.clear();
+        behind = true;
+        writeMirrorHeight(Math.min(mirrorHeight, height - 1));
+    }
+
+    private void run() {
+        mirrorHeight = readMirrorHeight();
+        List<BlockStore> batch = new ArrayList<>(BATCH_SIZE);
+        while (running) {
+            try {
+                long revert = revertHeight.getAndSet(Long.MAX_VALUE);
+                if (revert != Long.MAX_VALUE) {
+                    revert(revert);
+                }
+                if (behind) {
+                    catchUp();
+                }
+                BlockStore first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                List<BlockStore> toSave = new ArrayList<>(batch.size());
+                for (BlockStore blockStore : batch) {
+                    long height = blockStore.getBlock().getHeight();
+                    if (height <= mirrorHeight) {
+                        continue;
+                    }
+                    if (height != mirrorHeight + 1 + toSave.size()) {
+                        //区块不连续,从区块库补齐
+                        behind = true;
+                        break;
+                    }
+                    toSave.add(blockStore);
+                }
+                batch.clear();
+                save(toSave);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("区块镜像同步出错:{}", e.getMessage(), e);
+                batch.clear();
+                behind = true;
+                try {
+                    Thread.sleep(RETRY_INTERVAL);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 从区块库中补齐镜像存储缺少的区块
+     */
+    private void catchUp() throws Exception {
+        BlockStorage blockStorage = BlockStorage.get();
+        BlockHeaderStore bestHeader = blockStorage.getBestBlockHeader();
+        if (bestHeader == null) {
+            behind = false;
+            return;
+        }
+        long bestHeight = bestHeader.getBlockHeader().getHeight();
+        //快照及之前的区块交易不完整,不写入镜像
+        mirrorHeight = Math.max(mirrorHeight, blockStorage.getSnapshotBaseHeight());
+        if (mirrorHeight < bestHeight) {
+            log.info("区块镜像同步补齐,从高度:{}到高度:{}", mirrorHeight + 1, bestHeight);
+        }
+        while (running && mirrorHeight < bestHeight) {
+            List<BlockStore> toSave = new ArrayList<>(BATCH_SIZE);
+            for (long height = mirrorHeight + 1; height <= bestHeight && toSave.size() < BATCH_SIZE; height++) {
+                BlockStore blockStore = blockStorage.getBlockByHeight(height);
+                if (blockStore == null) {
+                    break;
+                }
+                toSave.add(blockStore);
+            }
+            if (toSave.isEmpty()) {
+                break;
+            }
+            save(toSave);
+        }
+        behind = false;
+    }
+
+    /**
+     * 删除镜像中指定高度及以上的区块,失败时保留待删除高度下次重试
+     */
+    private void revert(long height) throws Exception {
+        try {
+            mirror.revoke(height);
+        } catch (Exception e) {
+            revertHeight.accumulateAndGet(height, Math::min);
+            throw e;
+        }
+        if (mirrorHeight >= height) {
+            mirrorHeight = height - 1;
+        }
+        writeMirrorHeight(mirrorHeight);
+        log.info("区块镜像回滚到高度:{}", mirrorHeight);
+    }
+
+    private void save(List<BlockStore> toSave) throws Exception {
+        if (toSave.isEmpty()) {
+            return;
+        }
+        mirror.save(toSave);
+        mirrorHeight = toSave.get(toSave.size() - 1).getBlock().getHeight();
+        writeMirrorHeight(mirrorHeight);
+    }
+
+    /**
+     * 持久化同步高度,存在待删除的回滚区块时不超过回滚高度
+     */
+    private synchronized void writeMirrorHeight(long height) {
+        long revert = revertHeight.get();
+        if (revert != Long.MAX_VALUE) {
+            height = Math.min(height, revert - 1);
+        }
+        if (height < 0) {
+            BlockStorage.get().delete(MIRROR_HEIGHT_KEY);
+            return;
+        }
+        byte[] heightBytes = new byte[4];
+        Utils.uint32ToByteArrayBE(height, heightBytes, 0);
+        BlockStorage.get().put(MIRROR_HEIGHT_KEY, heightBytes);
+    }
+
+    private long readMirrorHeight() {
+        byte[] heightBytes = BlockStorage.get().get(MIRROR_HEIGHT_KEY);
+        if (heightBytes == null) {
+            return -1;
+        }
+        return Utils.readUint32BE(heightBytes, 0);
+    }
+
+    /**
+     * 获取已同步到镜像存储的最高区块高度
+     */
+    public long getMirrorHeight() {
+        return mirrorHeight;
+    }
+}
@@ -25,9 +25,7 @@
 
 package org.talust.core.storage;
 
-import com.mongodb.MongoClient;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.crypto.Utils;
@@ -37,6 +35,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.rocksdb.*;
 import org.talust.core.core.Definition;
 import org.talust.core.core.NetworkParams;
+import org.talust.core.data.ChainEventBus;
 import org.talust.core.data.DataContainer;
 import org.talust.core.model.*;
 import org.talust.core.network.MainNetworkParams;
@@ -58,6 +57,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
 import org.talust.core.filter.BloomFilter;
 
@@ -69,8 +70,6 @@ public class BlockStorage extends BaseStoreProvider {
     private final static Lock blockLock = new ReentrantLock();
     private static BlockStorage instance = new BlockStorage();
     private ExecutorService executorService = Executors.newSingleThreadExecutor();
-    private final MongoClient  mongoClient = new MongoClient("192.168.0.15:27017");
-    private final MongoTemplate mongoTemplate = new MongoTemplate(mongoClient, "talust_blockchain");
 
     private ChainStateStorage chainStateStorage = ChainStateStorage.get();
 
@@ -81,10 +80,7 @@ public class BlockStorage extends BaseStoreProvider {
     }
 
     //最新区块hash缓存
-    private byte[] bestHashCacher = null;
-    //账户过滤器，用于判断交易是否与我有关
-    private BloomFilter accountFilter = new BloomFilter(100000, 0.0001, RandomUtil.randomLong());
-    ;
+    private volatile byte[] bestHashCacher = null;
 
     public static BlockStorage get() {
         return instance;
@@ -93,7 +89,11 @@ public class BlockStorage extends BaseStoreProvider {
     protected NetworkParams network = MainNetworkParams.get();
 
     //最新区块标识
-    private final static byte[] bestBlockKey = Sha256Hash.ZERO_HASH.getBytes();
+    final static byte[] bestBlockKey = Sha256Hash.ZERO_HASH.getBytes();
+    //快照区块高度标识
+    private final static byte[] snapshotBaseKey = "snapshot_base_height".getBytes();
+    //从快照导入时快照区块的高度,该高度及之前的区块只有区块头及仍有未花费输出的交易,没有导入快照时为-1,未读取时为-2
+    private volatile long snapshotBaseHeight = -2;
 
     public BlockStorage(String dir) {
         super(dir);
@@ -174,7 +174,11 @@ public class BlockStorage extends BaseStoreProvider {
                 preBlockHeader.setNextHash(block.getHash());
                 db.put(preBlockHeader.getBlockHeader().getHash().getBytes(), preBlockHeader.baseSerialize());
             }
-            mongoTemplate.save(blockStore);
+            //地址交易历史索引
+            AddressHistoryStorage.get().connectBlock(block);
+            //镜像存储异步同步,不影响区块保存
+            BlockMirrorService.get().offer(blockStore);
+            ChainEventBus.get().blockConnected(block);
         } catch (Exception e) {
             log.info("保存区块出错：", e);
             this.revokedBlock(blockStore.getBlock());
@@ -212,6 +216,18 @@ public class BlockStorage extends BaseStoreProvider {
             e.printStackTrace();
         }
 
+        //回滚的是最新区块时,最新区块指针指向上一区块,链头缓存同时失效
+        try {
+            byte[] best = db.get(bestBlockKey);
+            if (Arrays.equals(best, bestBlockHash.getBytes()) || Arrays.equals(bestHashCacher, bestBlockHash.getBytes())) {
+                byte[] preHash = block.getPreHash().getBytes();
+                db.put(bestBlockKey, preHash);
+                bestHashCacher = preHash;
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+
         //更新上一区块的指针
         if (!Sha256Hash.ZERO_HASH.equals(block.getPreHash())) {
             BlockHeaderStore preBlockHeader = getHeader(block.getPreHash().getBytes());
@@ -223,6 +239,10 @@ public class BlockStorage extends BaseStoreProvider {
             }
         }
 
+        AddressHistoryStorage.get().disconnectBlock(block);
+        BlockMirrorService.get().revoke(block);
+        ChainEventBus.get().blockReverted(block);
+
         //回滚交易
         //反转交易，保证回滚时序正确
         //TODO
@@ -251,7 +271,7 @@ public class BlockStorage extends BaseStoreProvider {
         //把这些交易再次放回内存中
         //除信用交易外
         if (!(tx.getType() == Definition.TYPE_COINBASE)) {
-            DataContainer.get().addRecord(tx);
+            DataContainer.get().requeueRecord(tx);
         }
 
         if (tx.isPaymentTransaction()) {
@@ -330,6 +350,75 @@ public class BlockStorage extends BaseStoreProvider {
     }
 
 
+    /**
+     * 在区块锁内执行,期间不会保存或回滚区块,用于获取一致的存储快照
+     */
+    public <T> T withBlockLock(Supplier<T> supplier) {
+        blockLock.lock();
+        try {
+            return supplier.get();
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    /**
+     * 设置最新区块,用于从快照导入区块头后更新最新区块指针
+     */
+    public void setBestBlockHash(Sha256Hash hash) {
+        blockLock.lock();
+        try {
+            db.put(bestBlockKey, hash.getBytes());
+            bestHashCacher = hash.getBytes();
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    /**
+     * 记录快照区块高度,用于从快照导入后拒绝提供快照之前的不完整区块
+     */
+    public void setSnapshotBaseHeight(long height) {
+        byte[] bytes = new byte[8];
+        Utils.uint64ToByteArrayLE(height, bytes, 0);
+        put(snapshotBaseKey, bytes);
+        snapshotBaseHeight = height;
+    }
+
+    /**
+     * 获取快照区块高度,没有从快照导入时为-1
+     */
+    public long getSnapshotBaseHeight() {
+        long height = snapshotBaseHeight;
+        if (height < -1) {
+            byte[] bytes = get(snapshotBaseKey);
+            height = bytes == null ? -1 : Utils.readInt64(bytes, 0);
+            snapshotBaseHeight = height;
+        }
+        return height;
+    }
+
+    /**
+     * 指定高度的区块是否有完整的交易,快照区块及之前的区块没有
+     */
+    public boolean hasFullBlock(long height) {
+        return height > getSnapshotBaseHeight();
+    }
+
+    /**
+     * 获取最新区块hash,已缓存时不需要获取区块锁,用于频繁判断链头是否变化
+     */
+    public Sha256Hash getBestBlockHash() {
+        byte[] bestBlockHash = bestHashCacher;
+        if (bestBlockHash != null) {
+            return Sha256Hash.wrap(bestBlockHash);
+        }
+        BlockHeaderStore header = getBestBlockHeader();
+        return header == null ? null : header.getBlockHeader().getHash();
+    }
+
     public BlockHeaderStore getBestBlockHeader() {
         blockLock.lock();
         byte[] bestBlockHash = null;
@@ -361,15 +450,8 @@ public class BlockStorage extends BaseStoreProvider {
                 //创世块，禁止
                 return null;
             }
+            //回滚区块时同时更新最新区块指针
             revokedBlock(bestBlock);
-            //更新最新区块
-            byte[] bestBlockHashBytes = bestBlock.getPreHash().getBytes();
-            try {
-                db.put(bestBlockKey, bestBlockHashBytes);
-            } catch (RocksDBException e) {
-                e.printStackTrace();
-            }
-            bestHashCacher = bestBlockHashBytes;
             log.info("最新区块回滚完成，需要重新同步");
             return bestBlock;
         } finally {
@@ -483,6 +565,19 @@ public class BlockStorage extends BaseStoreProvider {
     }
 
 
+    /**
+     * 获取交易在区块中的序号,区块只保存交易hash列表,从区块头中查找
+     *
+     * @return 区块不存在或不包含该交易时返回-1
+     */
+    public int getTransactionIndex(Sha256Hash txHash, long height) {
+        BlockHeaderStore header = getHeaderByHeight(height);
+        if (header == null || header.getBlockHeader().getTxHashs() == null) {
+            return -1;
+        }
+        return header.getBlockHeader().getTxHashs().indexOf(txHash);
+    }
+
     public boolean checkTxIsMine(Transaction tx) {
         return checkTxIsMine(tx, null);
     }
@@ -540,7 +635,7 @@ public class BlockStorage extends BaseStoreProvider {
                     }
                     from = (TransactionOutput) txStore.getTransaction().getOutput(index);
                     Script script = from.getScript();
-                    if (hash160 == null && script.isSentToAddress() && accountFilter.contains(script.getChunks().get(2).data) ||
+                    if (hash160 == null && script.isSentToAddress() && accountStorage.isMine(script.getChunks().get(2).data) ||
                             hash160 != null && script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
                         return "0";
                     }
@@ -569,7 +664,7 @@ public class BlockStorage extends BaseStoreProvider {
                     }
                     from = (TransactionOutput) txStore.getTransaction().getOutput(index);
                     Script script = from.getScript();
-                    if (hash160 == null && script.isSentToAddress() && accountFilter.contains(script.getChunks().get(2).data) ||
+                    if (hash160 == null && script.isSentToAddress() && accountStorage.isMine(script.getChunks().get(2).data) ||
                             hash160 != null && script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
                         inputList.add(input);
                         break;
@@ -585,7 +680,7 @@ public class BlockStorage extends BaseStoreProvider {
         List<TransactionOutput> outputList = new ArrayList<>();
         for (TransactionOutput output : outputs) {
             Script script = output.getScript();
-            if (hash160 == null && script.isSentToAddress() && accountFilter.contains(script.getChunks().get(2).data) ||
+            if (hash160 == null && script.isSentToAddress() && accountStorage.isMine(script.getChunks().get(2).data) ||
                     hash160 != null && script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
                 if (txType == Definition.TYPE_COINBASE) {
                     outputList.add(output);
@@ -602,7 +697,7 @@ public class BlockStorage extends BaseStoreProvider {
         //输出
         for (TransactionOutput output : outputs) {
             Script script = output.getScript();
-            if (hash160 == null && script.isSentToAddress() && accountFilter.contains(script.getChunks().get(2).data) ||
+            if (hash160 == null && script.isSentToAddress() && accountStorage.isMine(script.getChunks().get(2).data) ||
                     hash160 != null && script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
                 if (txType == Definition.TYPE_COINBASE) {
                     return "0";
@@ -630,12 +725,27 @@ public class BlockStorage extends BaseStoreProvider {
      * @return List<TransactionStore>  返回交易列表
      */
     public List<TransactionStore> loadRelatedTransactions(List<byte[]> hash160s) {
+        return loadRelatedTransactions(hash160s, null);
+    }
+
+    /**
+     * 遍历区块加载账户相关的交易
+     *
+     * @param progress 每遍历一个区块回调一次区块高度,可为null
+     */
+    public List<TransactionStore> loadRelatedTransactions(List<byte[]> hash160s, LongConsumer progress) {
         blockLock.lock();
         try {
-            accountFilter.init();
+            //重扫使用的账户过滤器,按本次重扫的账户数量确定大小
+            BloomFilter accountFilter = new BloomFilter(Math.max(100000, hash160s.size() * 2), 0.0001, RandomUtil.randomLong());
             for (byte[] hash160 : hash160s) {
                 accountFilter.insert(hash160);
             }
+            //从快照启动时,快照之前的区块只有仍有未花费输出的交易,这部分交易的输出状态以链状态为准
+            long snapshotBaseHeight = getSnapshotBaseHeight();
+            if (snapshotBaseHeight >= 0) {
+                log.info("从快照高度:{}启动,该高度及之前只能加载仍有未花费输出的交易", snapshotBaseHeight);
+            }
             BlockStore blockStore = network.getGengsisBlock();  //从创始快开始遍历所有区块
             Sha256Hash nextHash = blockStore.getBlock().getHash();
             List<TransactionStore> mineTxs = new CopyOnWriteArrayList<TransactionStore>();
@@ -689,6 +799,9 @@ public class BlockStorage extends BaseStoreProvider {
                                 tx.getType() != Definition.TYPE_COINBASE) {   //除单纯的转账交易外，还有可能有业务逻辑附带代币交易的
                             isMineTx = checkTxIsMine(tx);
                         }
+                        if (isMineTx && block.getHeight() <= snapshotBaseHeight) {
+                            applyChainState(tx, status);
+                        }
                         if (isMineTx) {
                             mineTxs.add(new TransactionStore(network, tx, block.getHeight(), status));
                         }
@@ -699,6 +812,9 @@ public class BlockStorage extends BaseStoreProvider {
                         }
                     }
                 }
+                if (progress != null) {
+                    progress.accept(block.getHeight());
+                }
                 nextHash = nextBlockStore.getNextHash();
             }
             return mineTxs;
@@ -707,6 +823,24 @@ public class BlockStorage extends BaseStoreProvider {
         }
     }
 
+    /**
+     * 快照之前的交易,花费它的交易可能没有保存,链状态中没有未花费状态的输出视为已花费
+     */
+    private void applyChainState(Transaction tx, byte[] status) {
+        byte[] key = new byte[Sha256Hash.LENGTH + 1];
+        System.arraycopy(tx.getHash().getBytes(), 0, key, 0, Sha256Hash.LENGTH);
+        for (int i = 0; i < status.length; i++) {
+            if (status[i] != TransactionStore.STATUS_UNUSE) {
+                continue;
+            }
+            key[Sha256Hash.LENGTH] = (byte) i;
+            byte[] state = ChainStateStorage.get().get(key);
+            if (state == null || state[0] != TransactionStore.STATUS_UNUSE) {
+                status[i] = TransactionStore.STATUS_USED;
+            }
+        }
+    }
+
     /**
      * 获取区块
      *
@@ -770,7 +904,10 @@ public class BlockStorage extends BaseStoreProvider {
             for (Sha256Hash txHash : header.getBlockHeader().getTxHashs()) {
                 TransactionStore tx = getTransaction(txHash.getBytes());
                 if (tx == null) {
-                    log.error("Block height {} , tx {} not found", header.getBlockHeader().getHeight(), txHash);
+                    //快照之前的区块只保存了仍有未花费输出的交易
+                    if (hasFullBlock(header.getBlockHeader().getHeight())) {
+                        log.error("Block height {} , tx {} not found", header.getBlockHeader().getHeight(), txHash);
+                    }
                     continue;
                 }
                 txs.add(tx.getTransaction());
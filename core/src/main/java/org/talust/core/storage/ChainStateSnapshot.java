@@ -0,0 +1,380 @@
+package org.talust.core.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+import org.rocksdb.WriteBatch;
+import org.talust.common.crypto.Hex;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.crypto.Utils;
+import org.talust.common.tools.Configure;
+import org.talust.core.network.MainNetworkParams;
+import org.talust.storage.BaseStoreProvider;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 链状态快照
+ * 导出当前最新区块时的链状态(未花费输出状态、抵押、共识列表)、未花费输出所在的交易以及全部区块头
+ * 新节点导入快照后即可从快照高度开始同步,不需要从创世块开始下载验证全部区块
+ * 文件格式:魔数 版本 高度 区块hash | 链状态 | 交易 | 区块头 | 以上内容的sha256
+ * 配置SNAPSHOT_EXPORT_FILE后节点启动时在后台导出,配置SNAPSHOT_FILE及SNAPSHOT_HASH后本地没有区块时导入
+ */
+@Slf4j
+public class ChainStateSnapshot {
+    private static ChainStateSnapshot instance = new ChainStateSnapshot();
+
+    private ChainStateSnapshot() {
+    }
+
+    public static ChainStateSnapshot get() {
+        return instance;
+    }
+
+    private final static int MAGIC = 0x544C5353;
+    private final static int VERSION = 1;
+    //交易hash加输出序号的状态key长度
+    private final static int STATUS_KEY_LENGTH = 33;
+    //导入时每批写入的数量
+    private final static int BATCH_SIZE = 10000;
+
+    /**
+     * 本地没有区块且配置了快照文件时导入快照
+     */
+    public void importIfConfigured() {
+        if (Configure.SNAPSHOT_FILE == null || Configure.SNAPSHOT_FILE.isEmpty()) {
+            return;
+        }
+        if (BlockStorage.get().getBestBlockHeader() != null) {
+            log.info("本地已有区块,不导入链状态快照");
+            return;
+        }
+        try {
+            importSnapshot(new File(Configure.SNAPSHOT_FILE), Configure.SNAPSHOT_HASH);
+        } catch (Exception e) {
+            log.error("导入链状态快照失败:{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 配置了导出文件时在后台导出链状态快照,导出的校验hash输出到日志
+     */
+    public void exportIfConfigured() {
+        if (Configure.SNAPSHOT_EXPORT_FILE == null || Configure.SNAPSHOT_EXPORT_FILE.isEmpty()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                export(new File(Configure.SNAPSHOT_EXPORT_FILE));
+            } catch (Exception e) {
+                log.error("导出链状态快照失败:{}", e.getMessage(), e);
+            }
+        }, "snapshot-export");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 导出当前最新区块的链状态快照
+     * 在区块锁内同时获取区块库和链状态库的存储快照,导出期间保存的区块不影响导出内容
+     *
+     * @return 快照校验hash
+     */
+    public Sha256Hash export(File file) throws Exception {
+        BlockStorage blockStorage = BlockStorage.get();
+        ChainStateStorage chainStateStorage = ChainStateStorage.get();
+        ReadView[] views = blockStorage.withBlockLock(() -> new ReadView[]{new ReadView(blockStorage), new ReadView(chainStateStorage)});
+        ReadView blockView = views[0];
+        ReadView chainStateView = views[1];
+        try {
+            return export(file, blockView, chainStateView);
+        } finally {
+            blockView.close();
+            chainStateView.close();
+        }
+    }
+
+    private Sha256Hash export(File file, ReadView blockView, ReadView chainStateView) throws Exception {
+        byte[] bestHash = blockView.get(BlockStorage.bestBlockKey);
+        byte[] bestContent = bestHash == null ? null : blockView.get(bestHash);
+        if (bestContent == null) {
+            throw new IOException("本地没有区块,无法导出快照");
+        }
+        BlockHeaderStore bestHeader = new BlockHeaderStore(MainNetworkParams.get(), bestContent);
+        long height = bestHeader.getBlockHeader().getHeight();
+        long start = System.currentTimeMillis();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        //未花费输出所在的交易
+        Set<Sha256Hash> txHashes = new LinkedHashSet<>();
+        int stateCount = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+             DataOutputStream data = new DataOutputStream(new DigestOutputStream(out, digest))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(height);
+            data.write(bestHash);
+
+            //链状态,已花费的输出状态不导出
+            RocksIterator iter = chainStateView.newIterator();
+            try {
+                for (iter.seekToFirst(); iter.isValid(); iter.next()) {
+                    byte[] key = iter.key();
+                    byte[] value = iter.value();
+                    if (key.length == STATUS_KEY_LENGTH && value.length == 1) {
+                        if (value[0] == TransactionStore.STATUS_USED) {
+                            continue;
+                        }
+                        txHashes.add(Sha256Hash.wrap(Arrays.copyOf(key, key.length - 1)));
+                    }
+                    data.writeBoolean(true);
+                    writeBytes(data, key);
+                    writeBytes(data, value);
+                    stateCount++;
+                }
+            } finally {
+                iter.close();
+            }
+            data.writeBoolean(false);
+
+            //交易
+            data.writeInt(txHashes.size());
+            for (Sha256Hash txHash : txHashes) {
+                byte[] content = blockView.get(txHash.getBytes());
+                if (content == null) {
+                    throw new IOException("交易不存在:" + txHash);
+                }
+                data.write(txHash.getBytes());
+                writeBytes(data, content);
+            }
+
+            //区块头
+            for (long i = 0; i <= height; i++) {
+                byte[] heightBytes = new byte[4];
+                Utils.uint32ToByteArrayBE(i, heightBytes, 0);
+                byte[] hash = blockView.get(heightBytes);
+                byte[] content = hash == null ? null : blockView.get(hash);
+                if (content == null) {
+                    throw new IOException("区块头不存在,高度:" + i);
+                }
+                data.write(hash);
+                writeBytes(data, content);
+            }
+            data.flush();
+            //校验hash不参与计算
+            out.write(digest.digest());
+        }
+        Sha256Hash checksum = Sha256Hash.wrap(readChecksum(file));
+        log.info("导出链状态快照完成,高度:{},链状态数量:{},交易数量:{},校验hash:{},耗时:{}ms",
+                height, stateCount, txHashes.size(), checksum, System.currentTimeMillis() - start);
+        return checksum;
+    }
+
+    /**
+     * 导入链状态快照,先校验文件完整性及与指定的校验hash一致,再完整校验一遍区块头,全部通过后才写入存储
+     *
+     * @param expectedHash 快照校验hash的十六进制字符串
+     */
+    public void importSnapshot(File file, String expectedHash) throws Exception {
+        long start = System.currentTimeMillis();
+        byte[] checksum = readChecksum(file);
+        if (!Arrays.equals(checksum, digest(file))) {
+            throw new IOException("快照文件校验失败");
+        }
+        if (expectedHash == null || !Arrays.equals(checksum, Hex.decode(expectedHash))) {
+            throw new IOException("快照校验hash与配置不一致:" + Hex.encode(checksum));
+        }
+        //第一遍只校验不写入
+        readSnapshot(file, false);
+        long height = readSnapshot(file, true);
+        log.info("导入链状态快照完成,高度:{},耗时:{}ms", height, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 读取快照文件
+     *
+     * @param write 是否写入存储,为false时只校验文件格式及区块头
+     * @return 快照高度
+     */
+    private long readSnapshot(File file, boolean write) throws Exception {
+        BlockStorage blockStorage = BlockStorage.get();
+        ChainStateStorage chainStateStorage = ChainStateStorage.get();
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("不支持的快照文件");
+            }
+            long height = data.readLong();
+            Sha256Hash bestHash = Sha256Hash.wrap(readHash(data));
+
+            //链状态
+            Batch batch = write ? new Batch(chainStateStorage) : null;
+            while (data.readBoolean()) {
+                byte[] key = readBytes(data);
+                byte[] value = readBytes(data);
+                if (write) {
+                    batch.put(key, value);
+                }
+            }
+            if (write) {
+                batch.finish();
+            }
+
+            //交易
+            batch = write ? new Batch(blockStorage) : null;
+            int txCount = data.readInt();
+            for (int i = 0; i < txCount; i++) {
+                byte[] hash = readHash(data);
+                byte[] content = readBytes(data);
+                if (write) {
+                    batch.put(hash, content);
+                }
+            }
+
+            //区块头,需前后相连且最后一个为快照区块
+            Sha256Hash preHash = Sha256Hash.ZERO_HASH;
+            for (long i = 0; i <= height; i++) {
+                byte[] hash = readHash(data);
+                byte[] content = readBytes(data);
+                if (!write) {
+                    BlockHeaderStore header = new BlockHeaderStore(MainNetworkParams.get(), content);
+                    if (header.getBlockHeader().getHeight() != i || i > 0 && !preHash.equals(header.getBlockHeader().getPreHash())) {
+                        throw new IOException("快照区块头不连续,高度:" + i);
+                    }
+                }
+                preHash = Sha256Hash.wrap(hash);
+                if (write) {
+                    byte[] heightBytes = new byte[4];
+                    Utils.uint32ToByteArrayBE(i, heightBytes, 0);
+                    batch.put(hash, content);
+                    batch.put(heightBytes, hash);
+                }
+            }
+            if (!preHash.equals(bestHash)) {
+                throw new IOException("快照最新区块不一致");
+            }
+            if (write) {
+                batch.finish();
+                blockStorage.setSnapshotBaseHeight(height);
+                blockStorage.setBestBlockHash(bestHash);
+                MainNetworkParams.get().setBestHeight(height);
+                AddressHistoryStorage.get().resetIndexedHeight(height);
+            }
+            return height;
+        }
+    }
+
+    //计算快照文件除校验hash外内容的sha256
+    private byte[] digest(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        long remain = file.length() - 32;
+        try (InputStream in = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest)) {
+            byte[] buffer = new byte[8192];
+            while (remain > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remain));
+                if (read < 0) {
+                    break;
+                }
+                remain -= read;
+            }
+        }
+        return digest.digest();
+    }
+
+    private byte[] readChecksum(File file) throws IOException {
+        if (file.length() < 32) {
+            throw new IOException("快照文件不完整");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] checksum = new byte[32];
+            raf.seek(file.length() - 32);
+            raf.readFully(checksum);
+            return checksum;
+        }
+    }
+
+    private void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private byte[] readBytes(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    private byte[] readHash(DataInputStream data) throws IOException {
+        byte[] hash = new byte[32];
+        data.readFully(hash);
+        return hash;
+    }
+
+    /**
+     * 存储在某一时刻的只读视图
+     */
+    private static class ReadView {
+        private final BaseStoreProvider store;
+        private final Snapshot snapshot;
+        private final ReadOptions readOptions;
+
+        private ReadView(BaseStoreProvider store) {
+            this.store = store;
+            this.snapshot = store.getSnapshot();
+            this.readOptions = new ReadOptions().setSnapshot(snapshot);
+        }
+
+        private byte[] get(byte[] key) {
+            return store.get(readOptions, key);
+        }
+
+        private RocksIterator newIterator() {
+            return store.newIterator(readOptions);
+        }
+
+        private void close() {
+            readOptions.close();
+            store.releaseSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * 分批写入存储
+     */
+    private static class Batch {
+        private final BaseStoreProvider store;
+        private final WriteBatch batch = new WriteBatch();
+        private int count;
+
+        private Batch(BaseStoreProvider store) {
+            this.store = store;
+        }
+
+        private void put(byte[] key, byte[] value) throws Exception {
+            batch.put(key, value);
+            if (++count >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws Exception {
+            store.write(batch);
+            batch.clear();
+            count = 0;
+        }
+
+        //写入剩余数据并释放资源
+        private void finish() throws Exception {
+            try {
+                flush();
+            } finally {
+                batch.close();
+            }
+        }
+    }
+}
@@ -31,8 +31,12 @@ import org.talust.common.model.Deposits;
 import org.talust.common.tools.Configure;
 import lombok.extern.slf4j.Slf4j;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.talust.common.model.DepositAccount;
 import org.talust.common.tools.SerializationUtil;
+import org.talust.core.core.ByteHash;
 import org.talust.core.core.Definition;
 import org.talust.core.model.Address;
 import org.talust.core.model.TxValidator;
@@ -65,6 +69,20 @@ public class ChainStateStorage extends BaseStoreProvider {
     private Lock consensusLocker = new ReentrantLock();
 
     private final static String dpos = "deposit";
+    //缓存的矿机储蓄帐户列表最大数量
+    private final static int MAX_DEPOSIT_CACHE = 1000;
+    //每个矿机允许的最大储蓄帐户数量
+    private final static int MAX_DEPOSIT_ACCOUNT = 100;
+
+    /**
+     * 热点矿机的储蓄帐户缓存,列表不可修改,变更时整体替换
+     */
+    private final Map<ByteHash, List<DepositAccount>> depositCache = Collections.synchronizedMap(new LinkedHashMap<ByteHash, List<DepositAccount>>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteHash, List<DepositAccount>> eldest) {
+            return size() > MAX_DEPOSIT_CACHE;
+        }
+    });
 
 
     public void put(byte[] key, byte[] value) {
@@ -92,73 +110,109 @@ public class ChainStateStorage extends BaseStoreProvider {
      * @return
      */
     public Deposits getDeposits(byte[] miningAddress) {
-        byte[] key = getDepositSearchKey(miningAddress);
         Deposits deposits = new Deposits();
+        deposits.setDepositAccounts(new ArrayList<>(getDepositAccounts(miningAddress)));
+        return deposits;
+    }
+
+    /**
+     * 获取超级节点下的储蓄帐户,优先从缓存中获取,返回的列表不可修改
+     * 缓存未命中时在consensusLocker内读取并放入缓存,避免读取的旧列表覆盖并发更新后的缓存
+     *
+     * @param miningAddress
+     * @return
+     */
+    public List<DepositAccount> getDepositAccounts(byte[] miningAddress) {
+        ByteHash cacheKey = new ByteHash(miningAddress);
+        List<DepositAccount> depositAccounts = depositCache.get(cacheKey);
+        if (depositAccounts != null) {
+            return depositAccounts;
+        }
+        consensusLocker.lock();
         try {
-            byte[] deps = db.get(key);
-            if (null != deps) {
-                deposits = SerializationUtil.deserializer(deps, Deposits.class);
+            return loadDepositAccounts(cacheKey, miningAddress);
+        } finally {
+            consensusLocker.unlock();
+        }
+    }
+
+    /**
+     * 批量获取多个超级节点下的储蓄帐户,缓存未命中的部分只加锁一次统一读取
+     *
+     * @param miningAddresses
+     * @return
+     */
+    public Map<ByteHash, List<DepositAccount>> getDepositAccounts(Collection<byte[]> miningAddresses) {
+        Map<ByteHash, List<DepositAccount>> result = new HashMap<>();
+        Map<ByteHash, byte[]> missed = new HashMap<>();
+        for (byte[] miningAddress : miningAddresses) {
+            ByteHash key = new ByteHash(miningAddress);
+            if (result.containsKey(key) || missed.containsKey(key)) {
+                continue;
+            }
+            List<DepositAccount> depositAccounts = depositCache.get(key);
+            if (depositAccounts != null) {
+                result.put(key, depositAccounts);
+            } else {
+                missed.put(key, miningAddress);
             }
-        } catch (RocksDBException e) {
-            e.printStackTrace();
         }
-        return deposits;
+        if (missed.isEmpty()) {
+            return result;
+        }
+        consensusLocker.lock();
+        try {
+            for (Map.Entry<ByteHash, byte[]> entry : missed.entrySet()) {
+                result.put(entry.getKey(), loadDepositAccounts(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            consensusLocker.unlock();
+        }
+        return result;
     }
 
+    /**
+     * 从数据库读取储蓄帐户并放入缓存,调用方须持有consensusLocker
+     */
+    private List<DepositAccount> loadDepositAccounts(ByteHash cacheKey, byte[] miningAddress) {
+        List<DepositAccount> depositAccounts = depositCache.get(cacheKey);
+        if (depositAccounts == null) {
+            depositAccounts = Collections.unmodifiableList(readDepositAccounts(miningAddress));
+            depositCache.put(cacheKey, depositAccounts);
+        }
+        return depositAccounts;
+    }
 
     public void addDeposits(byte[] hash160, Coin coin, byte[] miningAddress, Sha256Hash txHash) {
         consensusLocker.lock();
         try {
-            byte[] key = getDepositSearchKey(miningAddress);
-            byte[] deps = db.get(key);
-            if (null != deps) {
-                Deposits deposits = SerializationUtil.deserializer(deps, Deposits.class);
-                List<DepositAccount> depositAccountList = deposits.getDepositAccounts();
-                Coin hadDeposCoin = Coin.ZERO;
-                DepositAccount realAcccount = null;
-                if (null != depositAccountList) {
-                    String hashString = Base58.encode(hash160);
-                    for (DepositAccount depositAccount : depositAccountList) {
-                        String test = Base58.encode(depositAccount.getAddress());
-                        boolean is = hashString.equals(test);
-                        if (is) {
-                            hadDeposCoin = depositAccount.getAmount();
-                            realAcccount = depositAccount;
-                            depositAccountList.remove(depositAccount);
-                            break;
-                        }
-                    }
-                } else {
-                    depositAccountList = new ArrayList<>();
-                }
-                if (null != realAcccount) {
-                    realAcccount.getTxHash().add(txHash);
-                    realAcccount.setAmount(realAcccount.getAmount().add(coin));
-                    depositAccountList.add(realAcccount);
-                } else {
-                    List<Sha256Hash> txlist = new ArrayList<>();
+            List<DepositAccount> depositAccounts = new ArrayList<>(getDepositAccounts(miningAddress));
+            DepositAccount realAcccount = null;
+            for (int i = 0; i < depositAccounts.size(); i++) {
+                DepositAccount depositAccount = depositAccounts.get(i);
+                if (Arrays.equals(hash160, depositAccount.getAddress())) {
+                    List<Sha256Hash> txlist = new ArrayList<>(depositAccount.getTxHash());
                     txlist.add(txHash);
-                    depositAccountList.add(new DepositAccount(hash160, hadDeposCoin.add(coin), txlist));
-                    deposits.setDepositAccounts(depositAccountList);
+                    realAcccount = new DepositAccount(hash160, depositAccount.getAmount().add(coin), txlist);
+                    depositAccounts.set(i, realAcccount);
+                    break;
                 }
-                db.put(key, SerializationUtil.serializer(deposits));
-            } else {
-                Deposits deposits = new Deposits();
-                List<DepositAccount> depositAccountList = new ArrayList<>();
+            }
+            if (null == realAcccount) {
                 List<Sha256Hash> txlist = new ArrayList<>();
                 txlist.add(txHash);
-                DepositAccount depositAccount = new DepositAccount(hash160, coin, txlist);
-                depositAccountList.add(depositAccount);
-                deposits.setDepositAccounts(depositAccountList);
-                db.put(key, SerializationUtil.serializer(deposits));
+                realAcccount = new DepositAccount(hash160, coin, txlist);
+                depositAccounts.add(realAcccount);
             }
+            db.put(getDepositAccountKey(miningAddress, hash160), SerializationUtil.serializer(realAcccount));
+            depositCache.put(new ByteHash(miningAddress), Collections.unmodifiableList(depositAccounts));
         } catch (RocksDBException e) {
             e.printStackTrace();
+        } finally {
+            consensusLocker.unlock();
         }
-        consensusLocker.unlock();
     }
 
-
     /**
      * 回滚过程中的共识重新加入
      *
@@ -209,30 +263,99 @@ public class ChainStateStorage extends BaseStoreProvider {
         return key;
     }
 
+    /**
+     * 单个储蓄帐户的存储key,由超级节点储蓄前缀加储蓄帐户hash160组成
+     */
+    public byte[] getDepositAccountKey(byte[] miningAddress, byte[] hash160) {
+        byte[] prefix = getDepositSearchKey(miningAddress);
+        byte[] key = new byte[prefix.length + hash160.length];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        System.arraycopy(hash160, 0, key, prefix.length, hash160.length);
+        return key;
+    }
+
     public void removeDeposit(byte[] miningAddress, byte[] hash160) {
+        consensusLocker.lock();
         try {
-            byte[] key = getDepositSearchKey(miningAddress);
-            byte[] deps = db.get(key);
-            if (null != deps) {
-                Deposits deposits = SerializationUtil.deserializer(deps, Deposits.class);
-                List<DepositAccount> depositAccountList = deposits.getDepositAccounts();
-                String hashString = Base58.encode(hash160);
-                for (DepositAccount depositAccount : depositAccountList) {
-                    String test = Base58.encode(depositAccount.getAddress());
-                    boolean is = hashString.equals(test);
-                    if (is) {
-                        depositAccountList.remove(depositAccount);
-                        break;
-                    }
+            List<DepositAccount> depositAccounts = new ArrayList<>(getDepositAccounts(miningAddress));
+            for (int i = 0; i < depositAccounts.size(); i++) {
+                if (Arrays.equals(hash160, depositAccounts.get(i).getAddress())) {
+                    depositAccounts.remove(i);
+                    break;
                 }
-                deposits.setDepositAccounts(depositAccountList);
-                db.put(key, SerializationUtil.serializer(deposits));
             }
+            db.delete(getDepositAccountKey(miningAddress, hash160));
+            depositCache.put(new ByteHash(miningAddress), Collections.unmodifiableList(depositAccounts));
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            consensusLocker.unlock();
         }
     }
 
+    /**
+     * 从数据库中读取超级节点下的所有储蓄帐户,按前缀顺序读取
+     * 旧版本以整个列表存储在前缀key下,读取时拆分为单个储蓄帐户存储,调用方须持有consensusLocker
+     */
+    private List<DepositAccount> readDepositAccounts(byte[] miningAddress) {
+        byte[] prefix = getDepositSearchKey(miningAddress);
+        List<DepositAccount> depositAccounts = new ArrayList<>();
+        try {
+            byte[] deps = db.get(prefix);
+            if (null != deps) {
+                migrateDeposits(miningAddress, prefix, deps);
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+        RocksIterator iter = db.newIterator();
+        try {
+            for (iter.seek(prefix); iter.isValid(); iter.next()) {
+                byte[] key = iter.key();
+                if (!startsWith(key, prefix)) {
+                    break;
+                }
+                if (key.length == prefix.length) {
+                    continue;
+                }
+                depositAccounts.add(SerializationUtil.deserializer(iter.value(), DepositAccount.class));
+            }
+        } finally {
+            iter.close();
+        }
+        return depositAccounts;
+    }
+
+    private void migrateDeposits(byte[] miningAddress, byte[] prefix, byte[] deps) throws RocksDBException {
+        Deposits deposits = SerializationUtil.deserializer(deps, Deposits.class);
+        WriteBatch batch = new WriteBatch();
+        WriteOptions writeOptions = new WriteOptions();
+        try {
+            if (null != deposits.getDepositAccounts()) {
+                for (DepositAccount depositAccount : deposits.getDepositAccounts()) {
+                    batch.put(getDepositAccountKey(miningAddress, depositAccount.getAddress()), SerializationUtil.serializer(depositAccount));
+                }
+            }
+            batch.remove(prefix);
+            db.write(writeOptions, batch);
+        } finally {
+            batch.close();
+            writeOptions.close();
+        }
+    }
+
+    private boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 共识节点加入
      *
@@ -261,10 +384,13 @@ public class ChainStateStorage extends BaseStoreProvider {
         consensusLocker.lock();
         List<TxValidator> needRemove = new ArrayList<>();
         try{
-            Map<byte[],List<TxValidator>> checkList =  new HashMap<>();
+            Map<ByteHash,List<TxValidator>> checkList =  new HashMap<>();
+            Map<ByteHash,byte[]> miningAddrs = new HashMap<>();
             for(Transaction transaction :txList) {
                 byte[] miningAddress = transaction.getInputs().get(0).getScriptSig().getChunks().get(2).data;
-                List<TxValidator> txValidators = new ArrayList<>();
+                ByteHash key = new ByteHash(miningAddress);
+                miningAddrs.put(key, miningAddress);
+                List<TxValidator> txValidators = checkList.computeIfAbsent(key, k -> new ArrayList<>());
                 if(transaction.getType()==Definition.TYPE_REG_CONSENSUS){
                     long value = 0l;
                     byte[] hash160 =null;
@@ -277,62 +403,42 @@ public class ChainStateStorage extends BaseStoreProvider {
                     TxValidator txValidator = new TxValidator(value,hash160,miningAddress,transaction);
                     txValidators.add(txValidator);
                 }
-                checkList.remove(miningAddress);
-                checkList.put(miningAddress,txValidators);
             }
-            Set<byte[]> miningAddrs = checkList.keySet();
-            for(byte[] addr : miningAddrs){
-                byte[] key = getDepositSearchKey(addr);
-                byte[] deps = db.get(key);
-                if (null != deps) {
-                    Deposits deposits = SerializationUtil.deserializer(deps, Deposits.class);
-                    List<DepositAccount> depositAccountList = deposits.getDepositAccounts();
-                    List<TxValidator> txValidators =checkList.get(addr);
-                    for(DepositAccount depositAccount:depositAccountList){
-                        TxValidator txValidator =  new TxValidator(depositAccount.getAmount().value,depositAccount.getAddress(),addr,depositAccount);
-                        txValidators.add(txValidator);
-                    }
-                    checkList.remove(addr);
-                    checkList.put(addr,txValidators);
+            //一次性取出所有涉及的超级节点的储蓄帐户
+            Map<ByteHash, List<DepositAccount>> depositMap = getDepositAccounts(miningAddrs.values());
+            for(Map.Entry<ByteHash, List<DepositAccount>> entry : depositMap.entrySet()){
+                byte[] addr = miningAddrs.get(entry.getKey());
+                List<TxValidator> txValidators =checkList.get(entry.getKey());
+                for(DepositAccount depositAccount:entry.getValue()){
+                    TxValidator txValidator =  new TxValidator(depositAccount.getAmount().value,depositAccount.getAddress(),addr,depositAccount);
+                    txValidators.add(txValidator);
                 }
             }
             //移除账户进行迭代查询，若没有key则不处理，存在key则验证是否有相同hash与value，有的话进行移除处理
             for(Transaction transaction :txList) {
-                byte[] miningAddress = transaction.getInputs().get(0).getScriptSig().getChunks().get(2).data;
-                if(checkList.containsKey(miningAddress)){
-                    List<TxValidator> txValidators =checkList.get(miningAddress);
-                    if(transaction.getType()==Definition.TYPE_REM_CONSENSUS){
-                        byte[] nodeAddress = transaction.getInputs().get(0).getScriptSig().getChunks().get(2).data;
-                        TransactionStore oldTx =   TransactionStorage.get().getTransaction(transaction.getInput(0).getFroms().get(0).getParent().getHash());
-                        TransactionOutput transactionOutput = oldTx.getTransaction().getOutputs().get(0);
-                        byte[] hash160 = transactionOutput.getScript().getChunks().get(2).data;
-                        TxValidator txValidator = new TxValidator(transaction.getOutput(0).getValue(),hash160,nodeAddress,transaction);
-                        //存在key则验证是否有相同hash与value，有的话进行移除处理
-                        txValidators = checkHashAndValue(txValidators,txValidator);
-                    }
-                    checkList.remove(miningAddress);
-                    checkList.put(miningAddress,txValidators);
-                }else{
+                if(transaction.getType()!=Definition.TYPE_REM_CONSENSUS){
                     continue;
                 }
+                byte[] nodeAddress = transaction.getInputs().get(0).getScriptSig().getChunks().get(2).data;
+                List<TxValidator> txValidators =checkList.get(new ByteHash(nodeAddress));
+                if(txValidators != null){
+                    TransactionStore oldTx =   TransactionStorage.get().getTransaction(transaction.getInput(0).getFroms().get(0).getParent().getHash());
+                    TransactionOutput transactionOutput = oldTx.getTransaction().getOutputs().get(0);
+                    byte[] hash160 = transactionOutput.getScript().getChunks().get(2).data;
+                    TxValidator txValidator = new TxValidator(transaction.getOutput(0).getValue(),hash160,nodeAddress,transaction);
+                    //存在key则验证是否有相同hash与value，有的话进行移除处理
+                    checkHashAndValue(txValidators,txValidator);
+                }
             }
-            //账户hash值去重，value相加，而后排序。
-            Collection<List<TxValidator>> lists = checkList.values();
-            for(List<TxValidator> txValidators : lists ){
-                if(txValidators.size()>100){
-                    //倒序排序
-                    txValidators.sort(new Comparator<TxValidator>() {
-                        @Override
-                        public int compare(TxValidator o1, TxValidator o2) {
-                            return Long.compare(o2.getValue(),o1.getValue());
-                        }
-                    });
-                    needRemove.addAll(txValidators.subList(99,txValidators.size()));
-                }else{
-                    continue;
+            //超出储蓄帐户数量限制时，按金额倒序，移除排在后面的帐户
+            for(List<TxValidator> txValidators : checkList.values()){
+                if(txValidators.size()>MAX_DEPOSIT_ACCOUNT){
+                    txValidators.sort(Comparator.comparingLong(TxValidator::getValue).reversed());
+                    needRemove.addAll(txValidators.subList(MAX_DEPOSIT_ACCOUNT-1,txValidators.size()));
                 }
             }
         }catch (Exception e){
+            log.error("共识交易验证出错{}", e.getMessage(), e);
         }finally {
             consensusLocker.unlock();
         }
@@ -342,18 +448,13 @@ public class ChainStateStorage extends BaseStoreProvider {
     public List<TxValidator> checkHashAndValue(List<TxValidator> txValidators ,TxValidator txValidator){
         List<TxValidator> resp = txValidators;
         for(TxValidator txv:resp){
-            if(txValidator.getValue()==txv.getValue()){
-                String txAddr = Base58.encode(txValidator.getAddress());
-                String txvAddr = Base58.encode(txv.getAddress());
-                if (txvAddr.equals(txAddr)){
-                    resp.remove(txv);
-                    break;
-                }
+            if(txValidator.getValue()==txv.getValue() && Arrays.equals(txValidator.getAddress(), txv.getAddress())){
+                resp.remove(txv);
+                break;
             }
         }
         return resp;
     }
-
     /**
      * 退出共识
      *
@@ -0,0 +1,66 @@
+package org.talust.core.storage;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于MongoDB的区块镜像存储,供BlockStoreRepository查询使用
+ * 以区块hash作为文档id按id覆盖写入,同一高度上hash不同的旧区块在写入时删除
+ */
+public class MongoBlockMirror implements BlockMirror {
+    private final static String ID = "_id";
+    private final static String HEIGHT = "block.height";
+
+    private final MongoClient mongoClient;
+    private final MongoTemplate mongoTemplate;
+
+    public MongoBlockMirror(String uri) {
+        MongoClientURI clientURI = new MongoClientURI(uri);
+        this.mongoClient = new MongoClient(clientURI);
+        this.mongoTemplate = new MongoTemplate(mongoClient, clientURI.getDatabase());
+    }
+
+    @Override
+    public void save(List<BlockStore> blockStores) throws Exception {
+        MongoCollection<Document> collection = getCollection();
+        List<WriteModel<Document>> writes = new ArrayList<>(blockStores.size());
+        List<Long> heights = new ArrayList<>(blockStores.size());
+        List<String> ids = new ArrayList<>(blockStores.size());
+        for (BlockStore blockStore : blockStores) {
+            String id = blockStore.getBlock().getHash().toString();
+            Document document = new Document();
+            mongoTemplate.getConverter().write(blockStore, document);
+            document.put(ID, id);
+            writes.add(new ReplaceOneModel<>(Filters.eq(ID, id), document, new UpdateOptions().upsert(true)));
+            heights.add(blockStore.getBlock().getHeight());
+            ids.add(id);
+        }
+        //删除同一高度上已被替换的区块
+        collection.deleteMany(Filters.and(Filters.in(HEIGHT, heights), Filters.nin(ID, ids)));
+        //一次批量写入
+        collection.bulkWrite(writes);
+    }
+
+    @Override
+    public void revoke(long height) throws Exception {
+        getCollection().deleteMany(Filters.gte(HEIGHT, height));
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(BlockStore.class));
+    }
+
+    public void close() {
+        mongoClient.close();
+    }
+}
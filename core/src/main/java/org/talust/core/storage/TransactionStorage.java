@@ -23,15 +23,17 @@
  *
  */
 
+
 package org.talust.core.storage;
 
 import org.rocksdb.RocksIterator;
-import org.talust.common.crypto.Hex;
 import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.model.Coin;
 import org.talust.common.tools.Configure;
 import lombok.extern.slf4j.Slf4j;
 import org.rocksdb.RocksDBException;
+import org.talust.core.core.ByteHash;
+import org.talust.core.data.ChainEventBus;
 import org.talust.core.core.Definition;
 import org.talust.core.core.NetworkParams;
 import org.talust.core.model.Account;
@@ -39,16 +41,17 @@ import org.talust.core.model.Address;
 import org.talust.core.network.MainNetworkParams;
 import org.talust.core.script.Script;
 import org.talust.core.server.NtpTimeService;
-import org.talust.core.transaction.BaseCommonlyTransaction;
 import org.talust.core.transaction.Transaction;
 import org.talust.core.transaction.TransactionInput;
 import org.talust.core.transaction.TransactionOutput;
+import org.talust.core.transaction.UtxoReservation;
 import org.talust.storage.BaseStoreProvider;
 
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
 
 //交易存储，存储于自身账户有关的交易
 @Slf4j
@@ -56,6 +59,10 @@ public class TransactionStorage extends BaseStoreProvider {
     private static TransactionStorage instance = new TransactionStorage();
 
     private final static Lock txLock = new ReentrantLock();
+    //启动时并行加载交易记录的线程数
+    private final static int LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+    //加载交易记录失败后的最大尝试次数
+    private final static int LOAD_RETRIES = 3;
 
     private TransactionStorage() {
         this(Configure.DATA_TRANSACTION);
@@ -81,10 +88,28 @@ public class TransactionStorage extends BaseStoreProvider {
     private final static byte[] ADDRESSES_KEY = Sha256Hash.ZERO_HASH.getBytes();
     //交易记录对应的账号列表
     private  List<byte[]> addresses = new CopyOnWriteArrayList<byte[]>();
-    //我的交易列表
-    private List<TransactionStore> myTxList = new CopyOnWriteArrayList<TransactionStore>();
-    //未花费的交易
-    private List<TransactionStore> unspendTxList = new CopyOnWriteArrayList<TransactionStore>();
+    //交易记录对应的账号集合,用于快速判断输出是否属于我
+    private Set<ByteHash> addressSet = ConcurrentHashMap.newKeySet();
+    //我的交易,按交易hash索引
+    private Map<Sha256Hash, TransactionStore> myTxs = new ConcurrentHashMap<>();
+    //含有我未花费输出的交易,按交易hash索引
+    private Map<Sha256Hash, TransactionStore> unspendTxs = new ConcurrentHashMap<>();
+    //每个地址的未花费输出,key为交易hash加输出序号
+    private Map<ByteHash, Map<ByteHash, Utxo>> addressUtxos = new ConcurrentHashMap<>();
+    //每个地址的余额计数,随交易的新增、回滚以及锁定到期实时调整
+    private Map<ByteHash, AddressBalance> balances = new ConcurrentHashMap<>();
+    //按解锁高度登记的锁定输出
+    private TreeMap<Long, List<Utxo>> heightMaturity = new TreeMap<>();
+    //按解锁时间登记的锁定输出
+    private TreeMap<Long, List<Utxo>> timeMaturity = new TreeMap<>();
+    //上一次处理锁定到期时的区块高度,高度回退时需要重新计算余额
+    private long maturedHeight = -1;
+    //我的交易列表快照,交易变化时失效
+    private volatile List<TransactionStore> myTxSnapshot;
+    //本地交易记录是否已加载到内存
+    private volatile boolean loaded;
+    //正在进行的本地交易记录加载
+    private CompletableFuture<Void> loading;
 
 
     public void put(byte[] key, byte[] value)  {
@@ -106,57 +131,14 @@ public class TransactionStorage extends BaseStoreProvider {
 
     public List<TransactionOutput> getNotSpentTransactionOutputs(byte[] hash160) {
 
-        List<TransactionOutput> txs = new CopyOnWriteArrayList<TransactionOutput>();
+        List<TransactionOutput> txs = new ArrayList<TransactionOutput>();
 
         //查询当前区块最新高度
-        long bestBlockHeight = network.getBestHeight();
-        long localBestBlockHeight = network.getBestBlockHeight();
-
-        if(bestBlockHeight < localBestBlockHeight) {
-            bestBlockHeight = localBestBlockHeight;
-        }
-
-        for (TransactionStore transactionStore : unspendTxList) {
-
-            //交易状态
-            byte[] status = transactionStore.getStatus();
-
-            Transaction tx = transactionStore.getTransaction();
-
-            //如果不是转账交易，则跳过
-            if(!tx.isPaymentTransaction()) {
-                continue;
-            }
-
-            //如果交易不可用，则跳过
-            if(tx.getLockTime() < 0l
-                    || (tx.getLockTime() > Definition.LOCKTIME_THRESHOLD && tx.getLockTime() > NtpTimeService.currentTimeSeconds())
-                    || (tx.getLockTime() < Definition.LOCKTIME_THRESHOLD && tx.getLockTime() > bestBlockHeight)) {
-                continue;
-            }
-
-            List<TransactionOutput> outputs = tx.getOutputs();
-
-            //遍历交易输出
-            for (int i = 0; i < outputs.size(); i++) {
-                TransactionOutput output = outputs.get(i);
-                Script script = output.getScript();
-                if(script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
+        long bestBlockHeight = getBestBlockHeight();
 
-                    //交易是否已花费
-                    if(status[i] == TransactionStore.STATUS_USED) {
-                        continue;
-                    }
-                    //本笔输出是否可用
-                    long lockTime = output.getLockTime();
-                    if(lockTime < 0l
-                            || (lockTime > Definition.LOCKTIME_THRESHOLD && lockTime > NtpTimeService.currentTimeSeconds())
-                            || (lockTime < Definition.LOCKTIME_THRESHOLD && lockTime > bestBlockHeight) ) {
-                        continue;
-                    } else {
-                        txs.add((TransactionOutput) output);
-                    }
-                }
+        for (Utxo utxo : getUtxos(hash160)) {
+            if(utxo.isAvailable(bestBlockHeight)) {
+                txs.add(utxo.getOutput());
             }
         }
         return txs;
@@ -168,64 +150,18 @@ public class TransactionStorage extends BaseStoreProvider {
      * @return Coin[]
      */
     public Coin[] getBalanceAndUnconfirmedBalance(byte[] hash160) {
-        Coin balance = Coin.ZERO;
-        Coin unconfirmedBalance = Coin.ZERO;
-
-        //查询当前区块最新高度
-        long bestBlockHeight = network.getBestHeight();
-        long localBestBlockHeight = network.getBestBlockHeight();
-
-        if(bestBlockHeight < localBestBlockHeight) {
-            bestBlockHeight = localBestBlockHeight;
-        }
-        log.error("账户地址hash160为：{} 的未消费交易数据长度为：{}",hash160,unspendTxList.size());
-        for (TransactionStore transactionStore : unspendTxList) {
-            //获取转入交易转入的多少钱
-            Transaction tx = transactionStore.getTransaction();
-            if(!tx.isPaymentTransaction()) {
-                continue;
-            }
-
-            //如果交易不可用，则标记
-            boolean txAvailable = true;
-            if(tx.getLockTime() < 0l
-                    || (tx.getLockTime() > Definition.LOCKTIME_THRESHOLD && tx.getLockTime() > NtpTimeService.currentTimeSeconds())
-                    || (tx.getLockTime() < Definition.LOCKTIME_THRESHOLD && tx.getLockTime() > bestBlockHeight)) {
-                txAvailable = false;
-            }
-
-            byte[] key = tx.getHash().getBytes();
-            byte[] status = transactionStore.getStatus();
-
-            List<TransactionOutput> outputs = tx.getOutputs();
-
-            for (int i = 0; i < outputs.size(); i++) {
-                TransactionOutput output = outputs.get(i);
-                Script script = output.getScript();
-                if(script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
-
-                    byte[] statueKey = new byte[key.length + 1];
-                    System.arraycopy(key, 0, statueKey, 0, key.length);
-                    statueKey[statueKey.length - 1] = (byte) i;
-
-                    //交易是否已花费
-                    if(status != null && status.length > 0 && status[i] == TransactionStore.STATUS_USED) {
-                        continue;
-                    }
-                    //本笔输出是否可用
-                    long lockTime = output.getLockTime();
-                    if(!txAvailable || lockTime < 0l
-                            || (lockTime >= Definition.LOCKTIME_THRESHOLD && lockTime > NtpTimeService.currentTimeSeconds())
-                            || (lockTime < Definition.LOCKTIME_THRESHOLD && lockTime > bestBlockHeight)
-                            || (i == 0 && transactionStore.getHeight() == -1l)) {
-                        unconfirmedBalance = unconfirmedBalance.add(Coin.valueOf(output.getValue()));
-                    } else {
-                        balance = balance.add(Coin.valueOf(output.getValue()));
-                    }
-                }
+        ensureLoaded();
+        txLock.lock();
+        try {
+            matureLocked();
+            AddressBalance addressBalance = balances.get(new ByteHash(hash160));
+            if(addressBalance == null) {
+                return new Coin[]{Coin.ZERO, Coin.ZERO};
             }
+            return new Coin[]{Coin.valueOf(addressBalance.balance), Coin.valueOf(addressBalance.unconfirmedBalance)};
+        } finally {
+            txLock.unlock();
         }
-        return new Coin[]{balance, unconfirmedBalance};
     }
 
     /**
@@ -235,61 +171,9 @@ public class TransactionStorage extends BaseStoreProvider {
     public HashMap<String,List<TransactionOutput>> getNotSpentTransactionOutputs(List<byte[]> hash160s) {
 
         HashMap<String,List<TransactionOutput>> txs = new HashMap<String,List<TransactionOutput>>();
-
-        //查询当前区块最新高度
-        long bestBlockHeight = network.getBestHeight();
-        long localBestBlockHeight =  network.getBestBlockHeight();
-
-        if(bestBlockHeight < localBestBlockHeight) {
-            bestBlockHeight = localBestBlockHeight;
-        }
-
-
         for(int j=0;j<hash160s.size();j++){
             byte[] hash160 = hash160s.get(j);
-            //log.info("find user"+ Hex.encode(hash160));
-            List<TransactionOutput> unSpentOutputs= new CopyOnWriteArrayList<TransactionOutput>();
-            for (TransactionStore transactionStore : unspendTxList){
-                //交易状态
-
-                byte[] status = transactionStore.getStatus();
-                Transaction tx = transactionStore.getTransaction();
-                List<TransactionOutput> outputs = tx.getOutputs();
-                //如果不是转账交易，则跳过
-                if(!tx.isPaymentTransaction()) {
-                    continue;
-                }
-
-                //如果交易不可用，则跳过
-                if(tx.getLockTime() < 0l
-                        || (tx.getLockTime() > Definition.LOCKTIME_THRESHOLD && tx.getLockTime() > NtpTimeService.currentTimeSeconds())
-                        || (tx.getLockTime() < Definition.LOCKTIME_THRESHOLD && tx.getLockTime() > bestBlockHeight)) {
-                    continue;
-                }
-
-                //遍历交易输出
-                for (int i = 0; i < outputs.size(); i++) {
-                    TransactionOutput output = outputs.get(i);
-                    Script script = output.getScript();
-                    if (script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
-                        log.info("find output"+ Hex.encode(script.getChunks().get(2).data));
-                        //交易是否已花费
-                        if (status[i] == TransactionStore.STATUS_USED) {
-                            continue;
-                        }
-                        //本笔输出是否可用
-                        long lockTime = output.getLockTime();
-                        if (lockTime < 0l
-                                || (lockTime > Definition.LOCKTIME_THRESHOLD && lockTime > NtpTimeService.currentTimeSeconds())
-                                || (lockTime < Definition.LOCKTIME_THRESHOLD && lockTime > bestBlockHeight)) {
-                            continue;
-                        } else {
-                            unSpentOutputs.add((TransactionOutput) output);
-                        }
-                    }
-                }
-            }
-            txs.put(new Address(network,hash160).getBase58() ,unSpentOutputs);
+            txs.put(new Address(network,hash160).getBase58() ,getNotSpentTransactionOutputs(hash160));
         }
         return txs;
     }
@@ -299,29 +183,26 @@ public class TransactionStorage extends BaseStoreProvider {
      * @param txs
      */
     public void processNewTransaction(TransactionStore txs) {
-        boolean hasUpdate = false;
-        //交易是否已经存在
-        for (TransactionStore transactionStore : myTxList) {
-            //如果存在，则更新高度
-            if(transactionStore.getTransaction().getHash().equals(txs.getTransaction().getHash())) {
-                transactionStore.setHeight(txs.getHeight());
-                txs = transactionStore;
-                hasUpdate = true;
+        ensureLoaded();
+        txLock.lock();
+        try {
+            //交易是否已经存在,如果存在,则更新高度
+            TransactionStore exist = myTxs.get(txs.getTransaction().getHash());
+            if(exist != null) {
+                exist.setHeight(txs.getHeight());
+                //确认状态变化,重新计算余额
+                recount(exist);
                 //保存
-                put(txs.getTransaction().getHash().getBytes(), txs.baseSerialize());
-                break;
+                put(exist.getTransaction().getHash().getBytes(), exist.baseSerialize());
+                return;
             }
-        }
-        Transaction tx = txs.getTransaction();
-
-        if(!hasUpdate) {
+            Transaction tx = txs.getTransaction();
             //如果不存在，则新增
-            myTxList.add(txs);
+            myTxs.put(tx.getHash(), txs);
+            myTxSnapshot = null;
 
             if(tx.isPaymentTransaction()) {
-                //更新交易状态
-                List<TransactionOutput> outputs = tx.getOutputs();
-
+                //更新被花费交易的状态
                 List<TransactionInput> inputs = tx.getInputs();
                 if(inputs != null) {
                     for (TransactionInput input : inputs) {
@@ -329,141 +210,210 @@ public class TransactionStorage extends BaseStoreProvider {
                             continue;
                         }
                         for (TransactionOutput from : input.getFroms()) {
-                            Sha256Hash fromTxHash = from.getParent().getHash();
-
-                            for (TransactionStore unspendTx : unspendTxList) {
-                                if(unspendTx.getTransaction().getHash().equals(fromTxHash)) {
-                                    //更新内存
-                                    byte[] ftxStatus = unspendTx.getStatus();
-                                    ftxStatus[from.getIndex()] = TransactionStore.STATUS_USED;
-                                    unspendTx.setStatus(ftxStatus);
-
-                                    //更新存储
-                                    put(unspendTx.getTransaction().getHash().getBytes(), unspendTx.baseSerialize());
-
-                                    //查询该笔交易是否还有我没有花费的交易
-                                    List<TransactionOutput> outputsTemp = unspendTx.getTransaction().getOutputs();
-                                    boolean hasUnspend = false;
-                                    for (TransactionOutput transactionOutput : outputsTemp) {
-                                        Script script = transactionOutput.getScript();
-                                        for (byte[] hash160 : addresses) {
-                                            if(script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)
-                                                    && ftxStatus[transactionOutput.getIndex()] == TransactionStore.STATUS_UNUSE) {
-                                                hasUnspend = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                    if(!hasUnspend) {
-                                        unspendTxList.remove(unspendTx);
-                                    }
-                                    break;
-                                }
+                            TransactionStore unspendTx = unspendTxs.get(from.getParent().getHash());
+                            if(unspendTx == null) {
+                                continue;
+                            }
+                            //更新内存
+                            byte[] ftxStatus = unspendTx.getStatus();
+                            ftxStatus[from.getIndex()] = TransactionStore.STATUS_USED;
+                            unspendTx.setStatus(ftxStatus);
+                            removeUtxo(unspendTx, from.getIndex());
+
+                            //更新存储
+                            put(unspendTx.getTransaction().getHash().getBytes(), unspendTx.baseSerialize());
+
+                            //该笔交易没有我未花费的输出了
+                            if(!hasUnspend(unspendTx)) {
+                                unspendTxs.remove(unspendTx.getTransaction().getHash());
                             }
                         }
                     }
                 }
                 //交易状态
+                List<TransactionOutput> outputs = tx.getOutputs();
                 byte[] status = new byte[outputs.size()];
-
-                for (int i = 0; i < outputs.size(); i++) {
-                    TransactionOutput output = outputs.get(i);
-                    Script script = output.getScript();
-                    status[i] = TransactionStore.STATUS_UNUSE;
-
-                    for (byte[] hash160 : addresses) {
-                        if(script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)
-                                && !unspendTxList.contains(txs)) {
-                            unspendTxList.add(txs);
-                            break;
-                        }
-                    }
-                }
+                Arrays.fill(status, (byte) TransactionStore.STATUS_UNUSE);
                 //设置交易存储状态
                 txs.setStatus(status);
+                indexUnspend(txs);
             }
             //保存
-            put(txs.getTransaction().getHash().getBytes(), txs.baseSerialize());
+            put(tx.getHash().getBytes(), txs.baseSerialize());
+        } finally {
+            txLock.unlock();
+            //新增或确认状态变化都会影响余额
+            ChainEventBus.get().balanceChanged(txs.getTransaction());
         }
     }
 
     /**
-     * 初始化
+     * 初始化,读取账号列表后在后台并行加载交易记录,不阻塞节点启动
+     * 加载完成前访问交易记录的方法会等待加载结束
      */
     public void init() {
         //本地交易记录对应的账号列表
         byte[] list = getBytes(ADDRESSES_KEY);
+        List<byte[]> hash160s = new ArrayList<>();
         if(list != null) {
-            for (int i = 0; i < list.length; i+= Address.LENGTH) {
+            for (int i = 0; i + Address.LENGTH <= list.length; i+= Address.LENGTH) {
                 byte[] hash160 = new byte[Address.LENGTH];
                 System.arraycopy(list, i, hash160, 0, Address.LENGTH);
-                addresses.add(hash160);
+                hash160s.add(hash160);
             }
         }
+        setAddresses(new CopyOnWriteArrayList<>(hash160s));
+        loaded = false;
+        loadAsync();
+    }
 
-        //交易记录-
-        RocksIterator iter = db.newIterator();
-        for(iter.seekToFirst(); iter.isValid(); iter.next()) {
-            byte[] key = iter.key();
-            if(Arrays.equals(ADDRESSES_KEY, key)) {
-                continue;
+    /**
+     * 本地交易记录是否已加载完成
+     */
+    public boolean isReady() {
+        return loaded;
+    }
+
+    /**
+     * 本地交易记录未加载时,等待后台加载完成,加载失败时重新加载,多次失败后抛出异常
+     * 不能在持有txLock时调用
+     */
+    private void ensureLoaded() {
+        for (int i = 1; !loaded; i++) {
+            try {
+                loadAsync().join();
+            } catch (CompletionException e) {
+                if (i >= LOAD_RETRIES) {
+                    throw new IllegalStateException("加载本地交易记录失败", e.getCause());
+                }
+                log.warn("加载本地交易记录失败,第{}次重新加载", i);
             }
-            byte[] value = iter.value();
-            TransactionStore txs = new TransactionStore(network, value);
-            myTxList.add(txs);
-            //是否未花费的交易
-            Transaction tx = txs.getTransaction();
-            if(tx.isPaymentTransaction()) {
-                byte[] status = txs.getStatus();
-                List<TransactionOutput> outputs = tx.getOutputs();
-                for (int i = 0; i < outputs.size(); i++) {
-                    TransactionOutput output = outputs.get(i);
-                    Script script = output.getScript();
-                    if(status == null || status.length < i || status[i] != TransactionStore.STATUS_UNUSE || unspendTxList.contains(txs)) {
-                        continue;
-                    }
-                    for (byte[] hash160 : addresses) {
-                        if(script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
-                            unspendTxList.add(txs);
-                        }
+        }
+    }
+
+    private synchronized CompletableFuture<Void> loadAsync() {
+        if(loading == null) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    load();
+                    future.complete(null);
+                } catch (Throwable e) {
+                    log.error("加载本地交易记录出错:{}", e.getMessage(), e);
+                    //下次访问时重新加载
+                    synchronized (this) {
+                        loading = null;
                     }
+                    future.completeExceptionally(e);
                 }
-            }
+            }, "wallet-loader");
+            thread.setDaemon(true);
+            loading = future;
+            thread.start();
         }
+        return loading;
     }
 
-    public boolean reloadTransaction(List<byte[]> hash160s) {
-        clean();//写入新列表
-        byte[] addressesBytes = new byte[hash160s.size() * Address.LENGTH];
-        for (int i = 0; i < hash160s.size(); i++) {
-            System.arraycopy(hash160s.get(i), 0, addressesBytes, i * Address.LENGTH, Address.LENGTH);
-        }
-        put(ADDRESSES_KEY, addressesBytes);
-        this.addresses = hash160s;
-        //遍历区块写入相关交易
-        myTxList = blockStorage.loadRelatedTransactions(hash160s);
-        unspendTxList = new CopyOnWriteArrayList<>();
-        for (TransactionStore txs : myTxList) {
+    /**
+     * 按key的首字节将存储划分为多段,由多个线程并行读取和反序列化,再统一建立索引
+     * 交易记录的key为交易hash,分布均匀
+     */
+    private void load() throws Exception {
+        long start = System.currentTimeMillis();
+        int threads = Math.max(1, Math.min(LOAD_THREADS, 256));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<TransactionStore>>> futures = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                final int from = 256 * i / threads;
+                final int to = 256 * (i + 1) / threads;
+                futures.add(executor.submit(() -> loadRange(from, to)));
+            }
             txLock.lock();
-            put(txs.getTransaction().getHash().getBytes(), txs.baseSerialize());
-            //是否未花费的交易
-            Transaction tx = txs.getTransaction();
-            if(tx.isPaymentTransaction()) {
-                byte[] status = txs.getStatus();
-                List<TransactionOutput> outputs = tx.getOutputs();
-                for (int i = 0; i < outputs.size(); i++) {
-                    TransactionOutput output = outputs.get(i);
-                    Script script = output.getScript();
-                    if(status == null || status.length < i || status[i] != TransactionStore.STATUS_UNUSE || unspendTxList.contains(txs)) {
-                        continue;
-                    }
-                    for (byte[] hash160 : this.addresses) {
-                        if(script.isSentToAddress() && Arrays.equals(script.getChunks().get(2).data, hash160)) {
-                            unspendTxList.add(txs);
+            try {
+                if(loaded) {
+                    return;
+                }
+                try {
+                    for (Future<List<TransactionStore>> future : futures) {
+                        for (TransactionStore txs : future.get()) {
+                            myTxs.put(txs.getTransaction().getHash(), txs);
+                            indexUnspend(txs);
                         }
                     }
+                } catch (Exception e) {
+                    //清除加载了一部分的索引,重新加载时从头开始
+                    myTxs.clear();
+                    unspendTxs.clear();
+                    addressUtxos.clear();
+                    clearBalances();
+                    throw e;
+                } finally {
+                    myTxSnapshot = null;
                 }
+                loaded = true;
+            } finally {
+                txLock.unlock();
             }
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("加载本地交易记录完成,交易数量:{},未花费交易数量:{},耗时:{}ms", myTxs.size(), unspendTxs.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 读取key首字节在[from, to)区间内的交易记录
+     */
+    private List<TransactionStore> loadRange(int from, int to) {
+        List<TransactionStore> list = new ArrayList<>();
+        RocksIterator iter = db.newIterator();
+        try {
+            for(iter.seek(new byte[]{(byte) from}); iter.isValid(); iter.next()) {
+                byte[] key = iter.key();
+                if((key[0] & 0xff) >= to) {
+                    break;
+                }
+                if(Arrays.equals(ADDRESSES_KEY, key)) {
+                    continue;
+                }
+                list.add(new TransactionStore(network, iter.value()));
+            }
+        } finally {
+            iter.close();
+        }
+        return list;
+    }
+
+    public boolean reloadTransaction(List<byte[]> hash160s) {
+        return reloadTransaction(hash160s, null);
+    }
+
+    /**
+     * 重新遍历区块加载账户相关的交易
+     *
+     * @param progress 每遍历一个区块回调一次区块高度,可为null
+     */
+    public boolean reloadTransaction(List<byte[]> hash160s, LongConsumer progress) {
+        //等待启动加载结束,避免加载结果覆盖重新写入的交易
+        ensureLoaded();
+        txLock.lock();
+        try {
+            setAddresses(hash160s);
+            clean();//写入新列表
+            myTxs.clear();
+            unspendTxs.clear();
+            addressUtxos.clear();
+            clearBalances();
+            myTxSnapshot = null;
+            //遍历区块写入相关交易
+            List<TransactionStore> related = blockStorage.loadRelatedTransactions(hash160s, progress);
+            for (TransactionStore txs : related) {
+                put(txs.getTransaction().getHash().getBytes(), txs.baseSerialize());
+                myTxs.put(txs.getTransaction().getHash(), txs);
+                indexUnspend(txs);
+            }
+            loaded = true;
+        } finally {
             txLock.unlock();
         }
         return true;
@@ -473,45 +423,52 @@ public class TransactionStorage extends BaseStoreProvider {
      * @param txs
      */
     public void processRevokedTransaction(TransactionStore txs) {
+        ensureLoaded();
+        txLock.lock();
+        try {
+            Transaction tx = txs.getTransaction();
 
-        Transaction tx = txs.getTransaction();
-
-        if(tx.isPaymentTransaction()) {
-            //更新交易状态
-            List<TransactionInput> inputs = tx.getInputs();
-            if(inputs != null) {
-                for (TransactionInput input : inputs) {
-                    if(input.getFroms() == null || input.getFroms().size() == 0) {
-                        continue;
-                    }
-                    for (TransactionOutput from : input.getFroms()) {
-                        Sha256Hash fromTxHash = from.getParent().getHash();
-
-                        for (TransactionStore transactionStore : myTxList) {
-                            if(transactionStore.getTransaction().getHash().equals(fromTxHash)) {
-                                //更新内存
-                                byte[] ftxStatus = transactionStore.getStatus();
-                                ftxStatus[from.getIndex()] = TransactionStore.STATUS_UNUSE;
-                                transactionStore.setStatus(ftxStatus);
-                                //更新存储
-                                put(transactionStore.getTransaction().getHash().getBytes(), transactionStore.baseSerialize());
-                                break;
+            if(tx.isPaymentTransaction()) {
+                //更新交易状态
+                List<TransactionInput> inputs = tx.getInputs();
+                if(inputs != null) {
+                    for (TransactionInput input : inputs) {
+                        if(input.getFroms() == null || input.getFroms().size() == 0) {
+                            continue;
+                        }
+                        for (TransactionOutput from : input.getFroms()) {
+                            TransactionStore transactionStore = myTxs.get(from.getParent().getHash());
+                            if(transactionStore == null || transactionStore.getStatus() == null) {
+                                continue;
                             }
+                            //更新内存
+                            byte[] ftxStatus = transactionStore.getStatus();
+                            ftxStatus[from.getIndex()] = TransactionStore.STATUS_UNUSE;
+                            transactionStore.setStatus(ftxStatus);
+                            indexUnspend(transactionStore);
+                            //更新存储
+                            put(transactionStore.getTransaction().getHash().getBytes(), transactionStore.baseSerialize());
                         }
                     }
                 }
             }
-        }
 
-        delete(tx.getHash().getBytes());
+            delete(tx.getHash().getBytes());
 
-        //从内存中删除
-        for (TransactionStore t : myTxList) {
-            if(t.getTransaction().getHash().equals(tx.getHash())) {
-                myTxList.remove(t);
-                break;
+            //从内存中删除
+            TransactionStore removed = myTxs.remove(tx.getHash());
+            unspendTxs.remove(tx.getHash());
+            if(removed != null) {
+                List<TransactionOutput> outputs = removed.getTransaction().getOutputs();
+                for (int i = 0; i < outputs.size(); i++) {
+                    removeUtxo(removed, i);
+                }
             }
+            myTxSnapshot = null;
+        } finally {
+            txLock.unlock();
         }
+        ChainEventBus.get().balanceChanged(txs.getTransaction());
     }
 
 
@@ -521,52 +478,71 @@ public class TransactionStorage extends BaseStoreProvider {
     public void clean() {
         //清除老数据
         RocksIterator   iter = db.newIterator();
-        for(iter.seekToFirst(); iter.isValid(); iter.next()) {
-            byte[] key = iter.key();
-            delete(key);
+        try {
+            for(iter.seekToFirst(); iter.isValid(); iter.next()) {
+                byte[] key = iter.key();
+                delete(key);
+            }
+        } finally {
+            iter.close();
         }
         //写入新列表
-        byte[] addressesBytes = new byte[addresses.size() * Address.LENGTH];
-        for (int i = 0; i < addresses.size(); i++) {
-            System.arraycopy(addresses.get(i), 0, addressesBytes, i * Address.LENGTH, Address.LENGTH);
-        }
-        put(ADDRESSES_KEY, addressesBytes);
+        saveAddresses();
     }
 
     public boolean addAddress(byte[] hash160) {
         addresses.add(hash160);
+        addressSet.add(new ByteHash(hash160));
         //写入新列表
-        byte[] addressesByte = new byte[addresses.size() * Address.LENGTH];
-        for (int i = 0; i < addresses.size(); i++) {
-            System.arraycopy(addresses.get(i), 0, addressesByte, i * Address.LENGTH, Address.LENGTH);
+        saveAddresses();
+        return true;
+    }
+
+    /**
+     * 批量添加地址,已存在的地址忽略,只写入一次地址列表
+     */
+    public boolean addAddresses(List<byte[]> hash160s) {
+        boolean changed = false;
+        for (byte[] hash160 : hash160s) {
+            if (addressSet.add(new ByteHash(hash160))) {
+                addresses.add(hash160);
+                changed = true;
+            }
+        }
+        if (changed) {
+            //写入新列表
+            saveAddresses();
         }
-        put(ADDRESSES_KEY, addressesByte);
         return true;
     }
 
     public boolean removeAddress(byte[] hash160){
-        addresses.remove(hash160);
+        addresses.removeIf(address -> Arrays.equals(address, hash160));
+        addressSet.remove(new ByteHash(hash160));
         //更新列表
-        byte[] addressesByte = new byte[addresses.size() * Address.LENGTH];
-        for (int i = 0; i < addresses.size(); i++) {
-            System.arraycopy(addresses.get(i), 0, addressesByte, i * Address.LENGTH, Address.LENGTH);
-        }
-        put(ADDRESSES_KEY, addressesByte);
+        saveAddresses();
         return true;
     }
 
 
     public boolean addAddress(List<Account> newAccoountList){
         for(int i=0 ; i<newAccoountList.size(); i++){
-            addresses.add(newAccoountList.get(i).getAddress().getHash160());
+            byte[] hash160 = newAccoountList.get(i).getAddress().getHash160();
+            addresses.add(hash160);
+            addressSet.add(new ByteHash(hash160));
         }
         //写入新列表
-        byte[] addressesByte = new byte[addresses.size() * Address.LENGTH];
-        for (int i = 0; i < addresses.size(); i++) {
-            System.arraycopy(addresses.get(i), 0, addressesByte, i * Address.LENGTH, Address.LENGTH);
+        saveAddresses();
+        return true;
+    }
+
+    private void saveAddresses() {
+        List<byte[]> list = new ArrayList<>(addresses);
+        byte[] addressesByte = new byte[list.size() * Address.LENGTH];
+        for (int i = 0; i < list.size(); i++) {
+            System.arraycopy(list.get(i), 0, addressesByte, i * Address.LENGTH, Address.LENGTH);
         }
         put(ADDRESSES_KEY, addressesByte);
-        return true;
     }
 
     /**
@@ -578,6 +554,223 @@ public class TransactionStorage extends BaseStoreProvider {
         return blockStorage.getTransaction(hash.getBytes());
     }
 
+    /**
+     * 获取我的交易
+     * @param hash
+     * @return TransactionStore
+     */
+    public TransactionStore getMyTransaction(Sha256Hash hash) {
+        ensureLoaded();
+        return myTxs.get(hash);
+    }
+
+    /**
+     * 为交易中属于我且未花费的输出建立索引
+     */
+    private void indexUnspend(TransactionStore txs) {
+        Transaction tx = txs.getTransaction();
+        byte[] status = txs.getStatus();
+        if(!tx.isPaymentTransaction() || status == null) {
+            return;
+        }
+        List<TransactionOutput> outputs = tx.getOutputs();
+        for (int i = 0; i < outputs.size() && i < status.length; i++) {
+            if(status[i] != TransactionStore.STATUS_UNUSE) {
+                continue;
+            }
+            byte[] hash160 = getMyHash160(outputs.get(i));
+            if(hash160 == null) {
+                continue;
+            }
+            ByteHash address = new ByteHash(hash160);
+            Utxo utxo = new Utxo(address, txs, i);
+            Utxo old = addressUtxos.computeIfAbsent(address, k -> new ConcurrentHashMap<>())
+                    .put(ByteHash.outpoint(tx.getHash(), i), utxo);
+            if(old != null) {
+                uncount(old);
+            }
+            count(utxo, getBestBlockHeight());
+            unspendTxs.put(tx.getHash(), txs);
+        }
+    }
+
+    private void removeUtxo(TransactionStore txs, int index) {
+        TransactionOutput output = txs.getTransaction().getOutput(index);
+        byte[] hash160 = output == null ? null : getMyHash160(output);
+        if(hash160 == null) {
+            return;
+        }
+        Map<ByteHash, Utxo> utxos = addressUtxos.get(new ByteHash(hash160));
+        if(utxos != null) {
+            Utxo utxo = utxos.remove(ByteHash.outpoint(txs.getTransaction().getHash(), index));
+            if(utxo != null) {
+                uncount(utxo);
+            }
+        }
+        //输出已花费,释放预占
+        UtxoReservation.get().release(txs.getTransaction().getHash(), index);
+    }
+
+    /**
+     * 将未花费输出计入地址余额,未到解锁条件的输出计入未确认余额,并按解锁高度或时间登记
+     */
+    private void count(Utxo utxo, long bestBlockHeight) {
+        AddressBalance addressBalance = balances.computeIfAbsent(utxo.getAddress(), k -> new AddressBalance());
+        long value = utxo.getOutput().getValue();
+        utxo.removed = false;
+        utxo.confirmed = utxo.isAvailable(bestBlockHeight) && !utxo.isPending();
+        if(utxo.confirmed) {
+            addressBalance.balance += value;
+            return;
+        }
+        addressBalance.unconfirmedBalance += value;
+        //未打包的交易在确认时重新计算,不需要登记
+        if(!utxo.isPending()) {
+            scheduleMaturity(utxo, bestBlockHeight);
+        }
+    }
+
+    /**
+     * 将未花费输出从地址余额中扣除
+     */
+    private void uncount(Utxo utxo) {
+        if(utxo.removed) {
+            return;
+        }
+        utxo.removed = true;
+        AddressBalance addressBalance = balances.get(utxo.getAddress());
+        if(addressBalance == null) {
+            return;
+        }
+        long value = utxo.getOutput().getValue();
+        if(utxo.confirmed) {
+            addressBalance.balance -= value;
+        } else {
+            addressBalance.unconfirmedBalance -= value;
+        }
+    }
+
+    /**
+     * 交易高度变化后重新计算该交易中我的未花费输出
+     */
+    private void recount(TransactionStore txs) {
+        Transaction tx = txs.getTransaction();
+        long bestBlockHeight = getBestBlockHeight();
+        for (int i = 0; i < tx.getOutputs().size(); i++) {
+            TransactionOutput output = tx.getOutput(i);
+            byte[] hash160 = getMyHash160(output);
+            if(hash160 == null) {
+                continue;
+            }
+            Map<ByteHash, Utxo> utxos = addressUtxos.get(new ByteHash(hash160));
+            Utxo utxo = utxos == null ? null : utxos.get(ByteHash.outpoint(tx.getHash(), i));
+            if(utxo != null) {
+                uncount(utxo);
+                count(utxo, bestBlockHeight);
+            }
+        }
+    }
+
+    /**
+     * 按阻止花费的锁定时间登记输出,永久锁定的输出不登记
+     */
+    private void scheduleMaturity(Utxo utxo, long bestBlockHeight) {
+        long lockTime = utxo.getStore().getTransaction().getLockTime();
+        if(!Utxo.isLocked(lockTime, bestBlockHeight)) {
+            lockTime = utxo.getOutput().getLockTime();
+        }
+        if(lockTime < 0l) {
+            return;
+        }
+        TreeMap<Long, List<Utxo>> maturity = lockTime >= Definition.LOCKTIME_THRESHOLD ? timeMaturity : heightMaturity;
+        maturity.computeIfAbsent(lockTime, k -> new ArrayList<>()).add(utxo);
+    }
+
+    /**
+     * 处理已到解锁高度或时间的输出,将其从未确认余额转入余额
+     * 调用方需持有txLock
+     */
+    private void matureLocked() {
+        long bestBlockHeight = getBestBlockHeight();
+        if(bestBlockHeight < maturedHeight) {
+            //区块回退,已解锁的输出可能重新锁定,全部重新计算
+            rebuildBalances(bestBlockHeight);
+        }
+        maturedHeight = bestBlockHeight;
+        List<Utxo> matured = new ArrayList<>();
+        drain(heightMaturity.headMap(bestBlockHeight, true), matured);
+        drain(timeMaturity.headMap(NtpTimeService.currentTimeSeconds(), true), matured);
+        for (Utxo utxo : matured) {
+            if(utxo.removed || utxo.confirmed) {
+                continue;
+            }
+            uncount(utxo);
+            count(utxo, bestBlockHeight);
+        }
+    }
+
+    private void drain(SortedMap<Long, List<Utxo>> due, List<Utxo> matured) {
+        for (List<Utxo> utxos : due.values()) {
+            matured.addAll(utxos);
+        }
+        due.clear();
+    }
+
+    private void rebuildBalances(long bestBlockHeight) {
+        clearBalances();
+        for (Map<ByteHash, Utxo> utxos : addressUtxos.values()) {
+            for (Utxo utxo : utxos.values()) {
+                count(utxo, bestBlockHeight);
+            }
+        }
+    }
+
+    private void clearBalances() {
+        balances.clear();
+        heightMaturity.clear();
+        timeMaturity.clear();
+        maturedHeight = -1;
+    }
+
+    //交易是否还有我未花费的输出
+    private boolean hasUnspend(TransactionStore txs) {
+        byte[] status = txs.getStatus();
+        List<TransactionOutput> outputs = txs.getTransaction().getOutputs();
+        for (int i = 0; i < outputs.size() && i < status.length; i++) {
+            if(status[i] == TransactionStore.STATUS_UNUSE && getMyHash160(outputs.get(i)) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //输出属于我的账户时返回账户hash160,否则返回null
+    private byte[] getMyHash160(TransactionOutput output) {
+        Script script = output.getScript();
+        if(script == null || !script.isSentToAddress()) {
+            return null;
+        }
+        byte[] hash160 = script.getChunks().get(2).data;
+        return addressSet.contains(new ByteHash(hash160)) ? hash160 : null;
+    }
+
+    private Collection<Utxo> getUtxos(byte[] hash160) {
+        ensureLoaded();
+        Map<ByteHash, Utxo> utxos = addressUtxos.get(new ByteHash(hash160));
+        if(utxos == null) {
+            return Collections.emptyList();
+        }
+        return utxos.values();
+    }
+
+    private long getBestBlockHeight() {
+        long bestBlockHeight = network.getBestHeight();
+        long localBestBlockHeight = network.getBestBlockHeight();
+        if(bestBlockHeight < localBestBlockHeight) {
+            bestBlockHeight = localBestBlockHeight;
+        }
+        return bestBlockHeight;
+    }
 
 
     public List<byte[]> getAddresses() {
@@ -585,14 +778,93 @@ public class TransactionStorage extends BaseStoreProvider {
     }
 
     public void setAddresses(List<byte[]> addresses) {
+        Set<ByteHash> set = ConcurrentHashMap.newKeySet();
+        for (byte[] hash160 : addresses) {
+            set.add(new ByteHash(hash160));
+        }
         this.addresses = addresses;
+        this.addressSet = set;
     }
 
+    /**
+     * 获取我的交易列表快照,返回的列表不可修改
+     */
     public List<TransactionStore> getMyTxList() {
-        return myTxList;
+        ensureLoaded();
+        List<TransactionStore> snapshot = myTxSnapshot;
+        if(snapshot == null) {
+            snapshot = Collections.unmodifiableList(new ArrayList<>(myTxs.values()));
+            myTxSnapshot = snapshot;
+        }
+        return snapshot;
     }
 
-    public void setMyTxList(List<TransactionStore> myTxList) {
-        this.myTxList = myTxList;
+    /**
+     * 我的未花费交易输出
+     */
+    private static class Utxo {
+        private final ByteHash address;
+        private final TransactionStore store;
+        private final int index;
+        //是否计入余额,否则计入未确认余额
+        private boolean confirmed;
+        //是否已从余额中扣除
+        private boolean removed;
+
+        private Utxo(ByteHash address, TransactionStore store, int index) {
+            this.address = address;
+            this.store = store;
+            this.index = index;
+        }
+
+        public ByteHash getAddress() {
+            return address;
+        }
+
+        public TransactionStore getStore() {
+            return store;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public TransactionOutput getOutput() {
+            return store.getTransaction().getOutput(index);
+        }
+
+        /**
+         * 交易未打包时,第一个输出计入未确认余额
+         */
+        public boolean isPending() {
+            return index == 0 && store.getHeight() == -1l;
+        }
+
+        /**
+         * 交易及本笔输出的锁定时间是否已到,可以花费
+         */
+        public boolean isAvailable(long bestBlockHeight) {
+            Transaction tx = store.getTransaction();
+            if(!tx.isPaymentTransaction() || isLocked(tx.getLockTime(), bestBlockHeight)) {
+                return false;
+            }
+            return !isLocked(getOutput().getLockTime(), bestBlockHeight);
+        }
+
+        public static boolean isLocked(long lockTime, long bestBlockHeight) {
+            return lockTime < 0l
+                    || (lockTime >= Definition.LOCKTIME_THRESHOLD && lockTime > NtpTimeService.currentTimeSeconds())
+                    || (lockTime < Definition.LOCKTIME_THRESHOLD && lockTime > bestBlockHeight);
+        }
+    }
+
+    /**
+     * 地址余额计数
+     */
+    private static class AddressBalance {
+        //可用余额
+        private long balance;
+        //未确认或锁定中的余额
+        private long unconfirmedBalance;
     }
 }
@@ -0,0 +1,163 @@
+package org.talust.core.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.Coin;
+import org.talust.core.core.ByteHash;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 钱包刷新服务
+ * 1.并发的强制刷新请求合并为一次后台重扫,一次遍历区块即加载所有本地账户的交易
+ * 2.调用方可等待本次重扫结果,也可通过getStatus查询重扫进度
+ * 3.查询余额直接读取重扫后由交易存储实时维护的余额计数,不再触发重扫
+ */
+@Slf4j
+public class WalletRefreshService {
+    private static WalletRefreshService instance = new WalletRefreshService();
+
+    private WalletRefreshService() {
+    }
+
+    public static WalletRefreshService get() {
+        return instance;
+    }
+
+    //正在进行的重扫,没有时为null
+    private CompletableFuture<Boolean> refreshing;
+    //重扫开始时间
+    private volatile long startTime;
+    //上次重扫完成时间
+    private volatile long finishTime;
+    //当前重扫到的区块高度
+    private volatile long scanHeight = -1;
+    //上次重扫是否成功
+    private volatile boolean lastResult;
+
+    /**
+     * 发起一次全量重扫,已有重扫在进行时直接返回该重扫
+     */
+    public synchronized CompletableFuture<Boolean> refresh() {
+        if (refreshing != null) {
+            return refreshing;
+        }
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        refreshing = future;
+        startTime = System.currentTimeMillis();
+        scanHeight = -1;
+        Thread thread = new Thread(() -> {
+            boolean result = false;
+            try {
+                result = rescan();
+            } catch (Exception e) {
+                log.error("钱包重扫出错:{}", e.getMessage(), e);
+            } finally {
+                synchronized (WalletRefreshService.this) {
+                    refreshing = null;
+                }
+                lastResult = result;
+                finishTime = System.currentTimeMillis();
+                future.complete(result);
+            }
+        }, "wallet-refresh");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * 发起重扫并等待结果
+     */
+    public boolean refreshAndWait() {
+        try {
+            return refresh().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private boolean rescan() {
+        long start = System.currentTimeMillis();
+        List<byte[]> hash160s = AccountStorage.get().getAccountHash160s();
+        boolean result = TransactionStorage.get().reloadTransaction(hash160s, height -> scanHeight = height);
+        AccountStorage.get().loadBalanceFromChainstateAndUnconfirmedTransaction(hash160s);
+        log.info("钱包重扫完成,账户数量:{},耗时:{}ms", hash160s.size(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * 本地账户与已加载交易的账户不一致时,合并到一次重扫中并等待完成
+     */
+    public boolean ensureCurrent() {
+        CompletableFuture<Boolean> running;
+        synchronized (this) {
+            running = refreshing;
+        }
+        if (running == null && isAccountsLoaded()) {
+            return true;
+        }
+        return refreshAndWait();
+    }
+
+    private boolean isAccountsLoaded() {
+        Set<ByteHash> loaded = new HashSet<>();
+        for (byte[] hash160 : TransactionStorage.get().getAddresses()) {
+            loaded.add(new ByteHash(hash160));
+        }
+        List<byte[]> hash160s = AccountStorage.get().getAccountHash160s();
+        if (hash160s.size() != loaded.size()) {
+            return false;
+        }
+        for (byte[] hash160 : hash160s) {
+            if (!loaded.contains(new ByteHash(hash160))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取地址的可用余额和等待中的余额
+     */
+    public Coin[] getBalances(byte[] hash160) {
+        ensureCurrent();
+        return TransactionStorage.get().getBalanceAndUnconfirmedBalance(hash160);
+    }
+
+    /**
+     * 获取所有本地账户的余额,key为账户地址
+     */
+    public Map<String, Coin[]> getAllBalances() {
+        ensureCurrent();
+        Map<String, Coin[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : AccountStorage.get().getAccountAddresses().entrySet()) {
+            result.put(entry.getKey(), TransactionStorage.get().getBalanceAndUnconfirmedBalance(entry.getValue()));
+        }
+        return result;
+    }
+
+    public synchronized boolean isRefreshing() {
+        return refreshing != null;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getFinishTime() {
+        return finishTime;
+    }
+
+    public long getScanHeight() {
+        return scanHeight;
+    }
+
+    public boolean getLastResult() {
+        return lastResult;
+    }
+}
@@ -26,10 +26,12 @@ package org.talust.core.transaction;
 
 
 import org.talust.core.core.ECKey;
+import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.crypto.VarInt;
 import org.talust.common.exception.ProtocolException;
 import org.talust.common.exception.VerificationException;
 import org.talust.core.core.Definition;
+import org.talust.core.core.KeySessionManager;
 import org.talust.core.core.NetworkParams;
 import org.talust.core.model.Account;
 import org.talust.core.model.Address;
@@ -144,6 +146,17 @@ public abstract class BaseCommonlyTransaction extends Transaction {
         tempTransaction.getScriptSig().runVerify(tempTransaction.getHash());
     }
 
+    /**
+     * 获取交易签名对应的内容hash，即不含签名脚本的交易hash
+     *
+     * @return Sha256Hash
+     */
+    public Sha256Hash getSignHash() {
+        BaseCommonlyTransaction tempTransaction = (BaseCommonlyTransaction) network.getDefaultSerializer().makeTransaction(baseSerialize(), 0);
+        tempTransaction.setScriptBytes(null);
+        return tempTransaction.getHash();
+    }
+
     /**
      * 除转帐交易外的其它交易，通用的签名方法
      * 如果账户已加密的情况，则需要先解密账户
@@ -168,7 +181,7 @@ public abstract class BaseCommonlyTransaction extends Transaction {
         scriptBytes = null;
 
         //普通账户
-        ECKey key = account.getEcKey();
+        ECKey key = KeySessionManager.get().getSigningKey(account);
         ECKey.ECDSASignature ecSign = key.sign(hash);
         byte[] sign = ecSign.encodeToDER();
 
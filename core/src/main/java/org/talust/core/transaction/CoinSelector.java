@@ -0,0 +1,121 @@
+package org.talust.core.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 交易输入选择
+ * 1.候选输出按金额从大到小排序
+ * 2.优先用分支定界搜索金额恰好相等的组合,不产生找零
+ * 3.没有恰好相等的组合时,选择不小于目标金额的最小单笔输出,找零最少且只需一笔输入
+ * 4.单笔都不够时从大到小累加,再去掉多余的小额输出,使输入笔数尽量少
+ */
+public class CoinSelector {
+    //分支定界搜索的最大尝试次数
+    private static final int MAX_TRIES = 100000;
+
+    private CoinSelector() {
+    }
+
+    /**
+     * 选择输入
+     *
+     * @return 可用金额不足时返回空列表
+     */
+    public static List<TransactionOutput> select(List<TransactionOutput> candidates, long target) {
+        List<TransactionOutput> sorted = new ArrayList<>(candidates);
+        Collections.sort(sorted, new Comparator<TransactionOutput>() {
+            @Override
+            public int compare(TransactionOutput o1, TransactionOutput o2) {
+                return Long.compare(o2.getValue(), o1.getValue());
+            }
+        });
+        int size = sorted.size();
+        long[] values = new long[size];
+        //suffix[i]为下标i及之后所有输出的金额之和
+        long[] suffix = new long[size + 1];
+        for (int i = size - 1; i >= 0; i--) {
+            values[i] = sorted.get(i).getValue();
+            suffix[i] = suffix[i + 1] + values[i];
+        }
+        if (target <= 0 || suffix[0] < target) {
+            return new ArrayList<>();
+        }
+        List<TransactionOutput> selected = branchAndBound(sorted, values, suffix, target);
+        if (selected != null) {
+            return selected;
+        }
+        selected = new ArrayList<>();
+        //不小于目标金额的最小单笔输出
+        for (int i = size - 1; i >= 0; i--) {
+            if (values[i] >= target) {
+                selected.add(sorted.get(i));
+                return selected;
+            }
+        }
+        //从大到小累加
+        long total = 0;
+        for (int i = 0; i < size && total < target; i++) {
+            selected.add(sorted.get(i));
+            total += values[i];
+        }
+        //从最小的开始去掉多余的输出
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            long value = selected.get(i).getValue();
+            if (total - value >= target) {
+                selected.remove(i);
+                total -= value;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 深度优先搜索金额之和恰好等于目标金额的组合,从大额输出开始尝试,找到的第一个组合输入笔数较少
+     *
+     * @return 没有找到时返回null
+     */
+    private static List<TransactionOutput> branchAndBound(List<TransactionOutput> sorted, long[] values, long[] suffix, long target) {
+        int size = values.length;
+        boolean[] include = new boolean[size];
+        int depth = 0;
+        long total = 0;
+        int tries = 0;
+        boolean backtrack = false;
+        while (tries++ < MAX_TRIES) {
+            if (!backtrack) {
+                if (total == target) {
+                    List<TransactionOutput> selected = new ArrayList<>();
+                    for (int i = 0; i < depth; i++) {
+                        if (include[i]) {
+                            selected.add(sorted.get(i));
+                        }
+                    }
+                    return selected;
+                }
+                //超过目标金额,或剩余输出全部加上也不够时剪枝
+                if (total > target || depth == size || total + suffix[depth] < target) {
+                    backtrack = true;
+                } else {
+                    include[depth] = true;
+                    total += values[depth];
+                    depth++;
+                    continue;
+                }
+            }
+            //回溯到最近一个选中的输出,改为不选后继续
+            while (depth > 0 && !include[depth - 1]) {
+                depth--;
+            }
+            if (depth == 0) {
+                return null;
+            }
+            include[depth - 1] = false;
+            total -= values[depth - 1];
+            backtrack = false;
+        }
+        return null;
+    }
+}
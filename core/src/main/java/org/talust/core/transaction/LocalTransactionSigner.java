@@ -31,6 +31,7 @@ import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.crypto.Utils;
 import org.talust.common.exception.VerificationException;
 import org.talust.core.core.Definition;
+import org.talust.core.core.KeySessionManager;
 import org.talust.core.model.Account;
 import org.talust.core.model.RedeemData;
 import org.talust.core.script.Script;
@@ -218,7 +219,7 @@ public class LocalTransactionSigner implements TransactionSigner {
 			return new byte[][] {sign1, sign2};
 		} else {
 			//普通账户
-			ECKey key = account.getEcKey();
+			ECKey key = KeySessionManager.get().getSigningKey(account);
 			ECKey.ECDSASignature ecSign = key.sign(hash);
 			byte[] sign = ecSign.encodeToDER();
 
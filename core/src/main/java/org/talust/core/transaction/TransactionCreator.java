@@ -28,6 +28,7 @@ import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.model.Coin;
 import org.talust.common.model.DepositAccount;
 import org.talust.core.core.Definition;
+import org.talust.core.core.KeySessionManager;
 import org.talust.core.core.NetworkParams;
 import org.talust.core.model.Account;
 import org.talust.core.model.Address;
@@ -36,6 +37,8 @@ import org.talust.core.script.ScriptBuilder;
 import org.talust.core.storage.ChainStateStorage;
 import org.talust.core.storage.TransactionStorage;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 @Slf4j
@@ -51,8 +54,8 @@ public class TransactionCreator {
         tx.setVersion(Definition.VERSION);
         tx.setType(Definition.TYPE_REG_CONSENSUS);
         Coin totalInputCoin = Coin.ZERO;
-        Coin pay = Coin.COIN.multiply((long) Double.parseDouble(money));
-        List<TransactionOutput> fromOutputs = selectNotSpentTransaction(pay, account.getAddress());
+        Coin pay = Coin.parseCoin(money);
+        List<TransactionOutput> fromOutputs = selectAndReserve(pay, account.getAddress());
         TransactionInput input = new TransactionInput();
         for (TransactionOutput output : fromOutputs) {
             input.addFrom(output);
@@ -79,7 +82,7 @@ public class TransactionCreator {
         try {
             if (account.getAccountType() == network.getSystemAccountVersion()||account.getAccountType() == network.getMainAccountVersion()) {
                 //普通账户的签名
-                signer.signInputs(tx, account.getEcKey());
+                signer.signInputs(tx, KeySessionManager.get().getSigningKey(account));
             }
         } catch (Exception e) {
             log.error(e.getMessage(), e);
@@ -113,39 +116,117 @@ public class TransactionCreator {
     }
 
 
-    public List<TransactionOutput> selectNotSpentTransaction(Coin amount, Address address) {
-
-        //获取到所有未花费的交易
-        List<TransactionOutput> outputs = transactionStorage.getNotSpentTransactionOutputs(address.getHash160());
-
-        //选择结果存放列表
-        List<TransactionOutput> thisOutputs = new ArrayList<TransactionOutput>();
+    /**
+     * 批量转账,收款列表按交易大小拆分为多笔交易,每笔交易包含多个收款输出及一个找零输出,只签名一次
+     * 各笔交易依次选择并预占输出,任意一笔可用余额不足时释放已预占的输出并返回空列表
+     *
+     * @param toAddresses 收款地址
+     * @param amounts     与收款地址一一对应的金额
+     */
+    public List<Transaction> createBatchPay(Account account, List<Address> toAddresses, List<Coin> amounts) {
+        List<Transaction> txs = new ArrayList<>();
+        List<TransactionOutput> reserved = new ArrayList<>();
+        boolean success = false;
+        try {
+            int index = 0;
+            while (index < toAddresses.size()) {
+                Transaction tx = new Transaction(network);
+                tx.setVersion(Definition.VERSION);
+                tx.setType(Definition.TYPE_PAY);
+                //按输出数量及序列化后的大小拆分,至少包含一个输出
+                int outputsSize = 0;
+                Coin pay = Coin.ZERO;
+                List<TransactionOutput> payOutputs = new ArrayList<>();
+                while (index < toAddresses.size() && payOutputs.size() < Definition.MAX_BATCH_TX_OUTPUTS) {
+                    TransactionOutput output = new TransactionOutput(tx, amounts.get(index), toAddresses.get(index));
+                    int size = getSerializedSize(output);
+                    if (payOutputs.size() > 0 && outputsSize + size > Definition.MAX_BATCH_TX_OUTPUTS_SIZE) {
+                        break;
+                    }
+                    payOutputs.add(output);
+                    outputsSize += size;
+                    pay = pay.add(amounts.get(index));
+                    index++;
+                }
+                List<TransactionOutput> fromOutputs = selectAndReserve(pay, account.getAddress());
+                reserved.addAll(fromOutputs);
+                Coin totalInputCoin = Coin.ZERO;
+                TransactionInput input = new TransactionInput();
+                for (TransactionOutput output : fromOutputs) {
+                    input.addFrom(output);
+                    totalInputCoin = totalInputCoin.add(Coin.valueOf(output.getValue()));
+                }
+                //可用余额不足
+                if (totalInputCoin.isLessThan(pay)) {
+                    return new ArrayList<>();
+                }
+                //创建一个输入的空签名
+                if (account.getAccountType() == network.getSystemAccountVersion() || account.getAccountType() == network.getMainAccountVersion()) {
+                    //普通账户的签名
+                    input.setScriptSig(ScriptBuilder.createInputScript(null, account.getEcKey()));
+                } else {
+                    //认证账户的签名
+                    input.setScriptSig(ScriptBuilder.createCertAccountInputScript(null, account.getAccountTransaction().getHash().getBytes(), account.getAddress().getHash160()));
+                }
+                tx.addInput(input);
+                for (TransactionOutput output : payOutputs) {
+                    tx.addOutput(output);
+                }
+                //是否找零
+                if (totalInputCoin.compareTo(pay) > 0) {
+                    tx.addOutput(totalInputCoin.subtract(pay), account.getAddress());
+                }
+                //签名交易
+                final LocalTransactionSigner signer = new LocalTransactionSigner();
+                if (account.getAccountType() == network.getSystemAccountVersion() || account.getAccountType() == network.getMainAccountVersion()) {
+                    //普通账户的签名
+                    signer.signInputs(tx, KeySessionManager.get().getSigningKey(account));
+                }
+                txs.add(tx);
+            }
+            success = true;
+            return txs;
+        } finally {
+            if (!success) {
+                UtxoReservation.get().release(reserved);
+            }
+        }
+    }
 
-        if (outputs == null || outputs.size() == 0) {
-            return thisOutputs;
+    private int getSerializedSize(TransactionOutput output) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(64);
+        try {
+            output.serialize(stream);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
         }
+        return stream.size();
+    }
 
-        //遍历选择，原则是尽量少的数据，也就是笔数最少
+    /**
+     * 选择未花费的输出并预占,并发的交易不会选中相同的输出
+     */
+    public List<TransactionOutput> selectAndReserve(Coin amount, Address address) {
+        UtxoReservation reservation = UtxoReservation.get();
+        synchronized (reservation.getAddressLock(address.getHash160())) {
+            List<TransactionOutput> outputs = selectNotSpentTransaction(amount, address);
+            reservation.reserve(outputs);
+            return outputs;
+        }
+    }
 
-        //小于amount的集合
-        List<TransactionOutput> lessThanList = new ArrayList<TransactionOutput>();
-        //大于amount的集合
-        List<TransactionOutput> moreThanList = new ArrayList<TransactionOutput>();
+    public List<TransactionOutput> selectNotSpentTransaction(Coin amount, Address address) {
 
-        for (TransactionOutput transactionOutput : outputs) {
-            if (transactionOutput.getValue() == amount.value) {
-                //如果刚好相等，则立即返回
-                thisOutputs.add(transactionOutput);
-                return thisOutputs;
-            } else if (transactionOutput.getValue() > amount.value) {
-                //加入大于集合
-                moreThanList.add(transactionOutput);
-            } else {
-                //加入小于于集合
-                lessThanList.add(transactionOutput);
+        //获取到所有未花费且未被预占的交易
+        List<TransactionOutput> outputs = new ArrayList<TransactionOutput>();
+        UtxoReservation reservation = UtxoReservation.get();
+        for (TransactionOutput output : transactionStorage.getNotSpentTransactionOutputs(address.getHash160())) {
+            if (!reservation.isReserved(output)) {
+                outputs.add(output);
             }
         }
-        transferPreferredWithLessNumber(amount, lessThanList, moreThanList, thisOutputs);
+
+        List<TransactionOutput> thisOutputs = CoinSelector.select(outputs, amount.value);
         //依然按照交易时间排序
         if (thisOutputs.size() > 0) {
             Collections.sort(thisOutputs, new Comparator<TransactionOutput>() {
@@ -196,19 +277,6 @@ public class TransactionCreator {
         }
     }
 
-    /*
-     * 交易选择 -- 以交易数据小优先，该种机制尽量选择一笔输入
-     */
-    private void transferPreferredWithLessNumber(Coin amount, List<TransactionOutput> lessThanList, List<TransactionOutput> moreThanList, List<TransactionOutput> outputs) {
-        if (moreThanList.size() > 0) {
-            //有比本次交易大的未输出交易，直接使用其中最小的一个
-            selectOneOutput(moreThanList, outputs);
-        } else {
-            //没有比本次交易最大的未输出交易
-            selectSmallChange(amount, lessThanList, outputs);
-        }
-    }
-
     /*
      * 交易选择 -- 以交易数据小优先，该种机制尽量选择一笔输入
      */
@@ -222,30 +290,6 @@ public class TransactionCreator {
         }
     }
 
-    /*
-     * 选择列表里面金额最小的一笔作为输出
-     */
-    private void selectOneOutput(List<TransactionOutput> moreThanList, List<TransactionOutput> outputs) {
-        if (moreThanList == null || moreThanList.size() == 0) {
-            return;
-        }
-        Collections.sort(moreThanList, new Comparator<TransactionOutput>() {
-            @Override
-            public int compare(TransactionOutput o1, TransactionOutput o2) {
-                long v1 = o1.getValue();
-                long v2 = o2.getValue();
-                if (v1 == v2) {
-                    return 0;
-                } else if (v1 > v2) {
-                    return 1;
-                } else {
-                    return -1;
-                }
-            }
-        });
-        outputs.add(moreThanList.get(0));
-    }
-
     /*
      * 出现的第一笔为输出
      */
@@ -269,54 +313,6 @@ public class TransactionCreator {
         }
     }
 
-    /*
-     * 选择零钱，原则是尽量少的找钱，尽量少的使用输出笔数
-     */
-    private void selectSmallChange(Coin amount, List<TransactionOutput> lessThanList, List<TransactionOutput> outputs) {
-        if (lessThanList == null || lessThanList.size() == 0) {
-            return;
-        }
-        //排序
-        Collections.sort(lessThanList, new Comparator<TransactionOutput>() {
-            @Override
-            public int compare(TransactionOutput o1, TransactionOutput o2) {
-                long v1 = o1.getValue();
-                long v2 = o2.getValue();
-                if (v1 == v2) {
-                    return 0;
-                } else if (v1 > v2) {
-                    return 1;
-                } else {
-                    return -1;
-                }
-            }
-        });
-
-        //已选择的金额
-        Coin total = Coin.ZERO;
-        //从小到大选择
-        for (TransactionOutput transactionOutput : lessThanList) {
-            outputs.add(transactionOutput);
-            total = total.add(Coin.valueOf(transactionOutput.getValue()));
-            if (total.isGreaterThan(amount)) {
-                //判断是否可以移除最小的几笔交易
-                List<TransactionOutput> removeList = new ArrayList<TransactionOutput>();
-                for (TransactionOutput to : outputs) {
-                    total = total.subtract(Coin.valueOf(to.getValue()));
-                    if (total.isGreaterThan(amount)) {
-                        removeList.add(to);
-                    } else {
-                        break;
-                    }
-                }
-                if (removeList.size() > 0) {
-                    outputs.removeAll(removeList);
-                }
-                break;
-            }
-        }
-    }
-
     /*
      * 选择零钱，原则先后顺序
      */
@@ -0,0 +1,111 @@
+package org.talust.core.transaction;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.tools.Configure;
+import org.talust.core.core.ByteHash;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 未花费输出预占
+ * 交易选中的输出在广播前先预占,并发的交易不会再选中同一输出
+ * 交易创建失败时释放,交易被钱包处理、输出标记为已花费时释放,未被释放的预占超时后自动失效
+ * 同一地址的选择与预占串行,不同地址之间互不影响
+ */
+@Slf4j
+public class UtxoReservation {
+    private static UtxoReservation instance = new UtxoReservation();
+
+    private UtxoReservation() {
+    }
+
+    public static UtxoReservation get() {
+        return instance;
+    }
+
+    //清理过期预占的间隔,单位毫秒
+    private static final long PURGE_INTERVAL = 10000L;
+
+    //已预占的输出,key为交易hash加输出序号,value为过期时间
+    private final Map<ByteHash, Long> reserved = new ConcurrentHashMap<>();
+    //每个地址选择输出时使用的锁
+    private final Map<ByteHash, Object> addressLocks = new ConcurrentHashMap<>();
+    private volatile long nextPurge;
+
+    /**
+     * 获取地址的选择锁,选择与预占需在该锁内完成
+     */
+    public Object getAddressLock(byte[] hash160) {
+        return addressLocks.computeIfAbsent(new ByteHash(hash160), k -> new Object());
+    }
+
+    /**
+     * 判断输出是否已被预占
+     */
+    public boolean isReserved(TransactionOutput output) {
+        ByteHash key = getKey(output.getParent().getHash(), output.getIndex());
+        Long expireAt = reserved.get(key);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            reserved.remove(key, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 预占一组输出,其中任何一个已被预占时全部不预占
+     * 调用方需持有输出所属地址的选择锁
+     */
+    public boolean reserve(List<TransactionOutput> outputs) {
+        purgeIfNeeded();
+        for (TransactionOutput output : outputs) {
+            if (isReserved(output)) {
+                return false;
+            }
+        }
+        long expireAt = System.currentTimeMillis() + Configure.UTXO_RESERVATION_TTL * 1000L;
+        for (TransactionOutput output : outputs) {
+            reserved.put(getKey(output.getParent().getHash(), output.getIndex()), expireAt);
+        }
+        return true;
+    }
+
+    public void release(List<TransactionOutput> outputs) {
+        for (TransactionOutput output : outputs) {
+            reserved.remove(getKey(output.getParent().getHash(), output.getIndex()));
+        }
+    }
+
+    public void release(Sha256Hash txHash, int index) {
+        reserved.remove(getKey(txHash, index));
+    }
+
+    public int size() {
+        return reserved.size();
+    }
+
+    private void purgeIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now < nextPurge) {
+            return;
+        }
+        nextPurge = now + PURGE_INTERVAL;
+        Iterator<Map.Entry<ByteHash, Long>> it = reserved.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() < now) {
+                it.remove();
+            }
+        }
+    }
+
+    private ByteHash getKey(Sha256Hash txHash, int index) {
+        return ByteHash.outpoint(txHash, index);
+    }
+}
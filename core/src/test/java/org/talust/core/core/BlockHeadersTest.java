@@ -0,0 +1,68 @@
+package org.talust.core.core;
+
+import junit.framework.TestCase;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.core.model.BlockHeader;
+import org.talust.core.network.MainNetworkParams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 批量区块头编解码测试
+ */
+public class BlockHeadersTest extends TestCase {
+
+    private BlockHeader header(Sha256Hash preHash, long height) {
+        BlockHeader header = new BlockHeader(MainNetworkParams.get());
+        header.setVersion(1);
+        header.setPreHash(preHash);
+        header.setMerkleHash(Sha256Hash.of(("merkle" + height).getBytes()));
+        header.setTime(1000 + height);
+        header.setHeight(height);
+        header.setScriptBytes(new byte[0]);
+        header.setTxCount(0);
+        return header;
+    }
+
+    private void write(ByteArrayOutputStream stream, Sha256Hash hash, BlockHeader header) throws IOException {
+        stream.write(hash.getBytes());
+        stream.write(header.baseSerialize());
+    }
+
+    public void testDecodeLinkedHeaders() throws IOException {
+        Sha256Hash hash1 = Sha256Hash.of("block1".getBytes());
+        Sha256Hash hash2 = Sha256Hash.of("block2".getBytes());
+        BlockHeader first = header(Sha256Hash.ZERO_HASH, 1);
+        BlockHeader second = header(hash1, 2);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(stream, hash1, first);
+        write(stream, hash2, second);
+        List<BlockHeader> headers = BlockHeaders.decode(MainNetworkParams.get(), stream.toByteArray());
+        assertNotNull(headers);
+        assertEquals(2, headers.size());
+        assertEquals(hash1, headers.get(0).getHash());
+        assertEquals(2, headers.get(1).getHeight());
+        assertEquals(hash1, headers.get(1).getPreHash());
+    }
+
+    public void testForgedHashRejected() throws IOException {
+        Sha256Hash hash1 = Sha256Hash.of("block1".getBytes());
+        Sha256Hash forged = Sha256Hash.of("forged".getBytes());
+        BlockHeader first = header(Sha256Hash.ZERO_HASH, 1);
+        BlockHeader second = header(hash1, 2);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        //远端提供的hash与后一个区块头签名的preHash不一致
+        write(stream, forged, first);
+        write(stream, Sha256Hash.of("block2".getBytes()), second);
+        assertNull(BlockHeaders.decode(MainNetworkParams.get(), stream.toByteArray()));
+    }
+
+    public void testTruncatedContentRejected() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(stream, Sha256Hash.of("block1".getBytes()), header(Sha256Hash.ZERO_HASH, 1));
+        stream.write(new byte[Sha256Hash.LENGTH - 1]);
+        assertNull(BlockHeaders.decode(MainNetworkParams.get(), stream.toByteArray()));
+    }
+}
@@ -0,0 +1,24 @@
+package org.talust.core.core;
+
+import junit.framework.TestCase;
+import org.talust.common.crypto.Sha256Hash;
+
+/**
+ * 交易输出key测试
+ */
+public class ByteHashTest extends TestCase {
+
+    public void testOutpointIndexNotTruncated() {
+        Sha256Hash txHash = Sha256Hash.of("outpoint".getBytes());
+        assertFalse(ByteHash.outpoint(txHash, 3).equals(ByteHash.outpoint(txHash, 259)));
+        assertFalse(ByteHash.outpoint(txHash, 0).equals(ByteHash.outpoint(txHash, 256)));
+        assertFalse(ByteHash.outpoint(txHash, 1).equals(ByteHash.outpoint(txHash, 65537)));
+    }
+
+    public void testOutpointEquals() {
+        Sha256Hash txHash = Sha256Hash.of("outpoint".getBytes());
+        assertEquals(ByteHash.outpoint(txHash, 300), ByteHash.outpoint(Sha256Hash.wrap(txHash.getBytes()), 300));
+        assertEquals(ByteHash.outpoint(txHash, 300).hashCode(), ByteHash.outpoint(txHash, 300).hashCode());
+        assertFalse(ByteHash.outpoint(txHash, 1).equals(ByteHash.outpoint(Sha256Hash.of("other".getBytes()), 1)));
+    }
+}
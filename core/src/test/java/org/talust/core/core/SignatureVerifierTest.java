@@ -0,0 +1,60 @@
+package org.talust.core.core;
+
+import junit.framework.TestCase;
+import org.talust.common.crypto.Sha256Hash;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * 签名验证缓存测试
+ */
+public class SignatureVerifierTest extends TestCase {
+
+    /**
+     * 将r、s拼接后的字节在另一个位置拆分,得到字节相同的另一组r、s,无法拆分时返回null
+     */
+    private ECKey.ECDSASignature resplit(ECKey.ECDSASignature signature) {
+        byte[] r = signature.r.toByteArray();
+        byte[] s = signature.s.toByteArray();
+        byte[] joined = new byte[r.length + s.length];
+        System.arraycopy(r, 0, joined, 0, r.length);
+        System.arraycopy(s, 0, joined, r.length, s.length);
+        byte[] r2 = Arrays.copyOf(joined, r.length + 1);
+        byte[] s2 = Arrays.copyOfRange(joined, r.length + 1, joined.length);
+        BigInteger newR = new BigInteger(r2);
+        BigInteger newS = new BigInteger(s2);
+        if (newR.signum() <= 0 || newS.signum() <= 0
+                || !Arrays.equals(newR.toByteArray(), r2) || !Arrays.equals(newS.toByteArray(), s2)) {
+            return null;
+        }
+        return new ECKey.ECDSASignature(newR, newS);
+    }
+
+    public void testResplitSignatureRejectedAfterCache() {
+        ECKey key = new ECKey();
+        for (int i = 0; ; i++) {
+            Sha256Hash hash = Sha256Hash.of(("message" + i).getBytes());
+            ECKey.ECDSASignature signature = key.sign(hash);
+            ECKey.ECDSASignature resplit = resplit(signature);
+            if (resplit == null) {
+                continue;
+            }
+            SignatureVerifier verifier = SignatureVerifier.get();
+            assertTrue(verifier.verify(hash.getBytes(), signature, key.getPubKey()));
+            //原签名已缓存,字节拼接相同的另一组r、s仍需重新验证
+            assertFalse(verifier.verify(hash.getBytes(), resplit, key.getPubKey()));
+            assertTrue(verifier.verify(hash.getBytes(), signature, key.getPubKey()));
+            return;
+        }
+    }
+
+    public void testInvalidSignatureNotCached() {
+        ECKey key = new ECKey();
+        Sha256Hash hash = Sha256Hash.of("message".getBytes());
+        ECKey.ECDSASignature signature = key.sign(hash);
+        ECKey.ECDSASignature wrong = new ECKey.ECDSASignature(signature.r, signature.s.add(BigInteger.ONE));
+        assertFalse(SignatureVerifier.get().verify(hash.getBytes(), wrong, key.getPubKey()));
+        assertFalse(SignatureVerifier.get().verify(hash.getBytes(), wrong, key.getPubKey()));
+    }
+}
@@ -0,0 +1,67 @@
+package org.talust.core.transaction;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 输出选择测试
+ */
+public class CoinSelectorTest extends TestCase {
+
+    private List<TransactionOutput> outputs(long... values) {
+        List<TransactionOutput> list = new ArrayList<>();
+        for (long value : values) {
+            TransactionOutput output = new TransactionOutput();
+            output.setValue(value);
+            list.add(output);
+        }
+        return list;
+    }
+
+    private long sum(List<TransactionOutput> outputs) {
+        long total = 0;
+        for (TransactionOutput output : outputs) {
+            total += output.getValue();
+        }
+        return total;
+    }
+
+    public void testExactMatchPreferred() {
+        assertEquals(6, sum(CoinSelector.select(outputs(5, 3, 2, 1), 6)));
+        assertEquals(11, sum(CoinSelector.select(outputs(10, 7, 4), 11)));
+    }
+
+    public void testSmallestSingleCoveringOutput() {
+        List<TransactionOutput> selected = CoinSelector.select(outputs(100, 30, 1), 50);
+        assertEquals(1, selected.size());
+        assertEquals(100, selected.get(0).getValue());
+    }
+
+    public void testInsufficientReturnsEmpty() {
+        assertTrue(CoinSelector.select(outputs(1, 2, 3), 7).isEmpty());
+        assertTrue(CoinSelector.select(new ArrayList<TransactionOutput>(), 1).isEmpty());
+    }
+
+    public void testAlwaysCoversTarget() {
+        Random random = new Random(1);
+        for (int round = 0; round < 500; round++) {
+            int count = random.nextInt(30);
+            long[] values = new long[count];
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                values[i] = 1 + random.nextInt(1000);
+                total += values[i];
+            }
+            long target = 1 + random.nextInt(20000);
+            List<TransactionOutput> selected = CoinSelector.select(outputs(values), target);
+            if (total >= target) {
+                assertTrue(sum(selected) >= target);
+            } else {
+                assertTrue(selected.isEmpty());
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.talust.core.transaction;
+
+import junit.framework.TestCase;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.tools.Configure;
+import org.talust.core.network.MainNetworkParams;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * 未花费输出预占测试
+ */
+public class UtxoReservationTest extends TestCase {
+    private long ttl;
+
+    @Override
+    protected void setUp() {
+        ttl = Configure.UTXO_RESERVATION_TTL;
+    }
+
+    @Override
+    protected void tearDown() {
+        Configure.UTXO_RESERVATION_TTL = ttl;
+    }
+
+    private TransactionOutput output(Transaction parent, int index) {
+        TransactionOutput output = new TransactionOutput();
+        output.setParent(parent);
+        output.setIndex(index);
+        output.setValue(1);
+        return output;
+    }
+
+    private Transaction transaction(String seed) {
+        Transaction tx = new Transaction(MainNetworkParams.get());
+        tx.setHash(Sha256Hash.of(seed.getBytes()));
+        return tx;
+    }
+
+    public void testIndexAbove255DoesNotCollide() {
+        UtxoReservation reservation = UtxoReservation.get();
+        Transaction tx = transaction("collide");
+        TransactionOutput low = output(tx, 3);
+        TransactionOutput high = output(tx, 259);
+        assertTrue(reservation.reserve(Collections.singletonList(low)));
+        assertTrue(reservation.isReserved(low));
+        assertFalse(reservation.isReserved(high));
+        assertTrue(reservation.reserve(Collections.singletonList(high)));
+        reservation.release(tx.getHash(), 259);
+        assertTrue(reservation.isReserved(low));
+        assertFalse(reservation.isReserved(high));
+        reservation.release(tx.getHash(), 3);
+        assertFalse(reservation.isReserved(low));
+    }
+
+    public void testReserveIsAllOrNothing() {
+        UtxoReservation reservation = UtxoReservation.get();
+        Transaction tx = transaction("all-or-nothing");
+        TransactionOutput first = output(tx, 0);
+        TransactionOutput second = output(tx, 1);
+        assertTrue(reservation.reserve(Collections.singletonList(first)));
+        assertFalse(reservation.reserve(Arrays.asList(first, second)));
+        assertFalse(reservation.isReserved(second));
+        reservation.release(Arrays.asList(first, second));
+        assertFalse(reservation.isReserved(first));
+    }
+
+    public void testReservationExpires() throws InterruptedException {
+        UtxoReservation reservation = UtxoReservation.get();
+        Configure.UTXO_RESERVATION_TTL = 0;
+        TransactionOutput output = output(transaction("expire"), 0);
+        assertTrue(reservation.reserve(Collections.singletonList(output)));
+        Thread.sleep(5);
+        assertFalse(reservation.isReserved(output));
+    }
+}
@@ -178,7 +178,7 @@ public class ChannelContain {
         List<MyChannel> myChannelList = mapChannel.get(remoteIp);
         if (null != myChannelList && myChannelList.size() > 0) {
             for (MyChannel myChannel : myChannelList) {
-                myChannel.getChannel().writeAndFlush(message);
+                PeerOutboundQueue.send(myChannel.getChannel(), message);
             }
         }
     }
@@ -188,7 +188,7 @@ public class ChannelContain {
         if (null != myChannelList && myChannelList.size() > 0) {
             for (MyChannel myChannel : myChannelList) {
                 if(myChannel.getChannel().id().asShortText().equals(channelId)){
-                    myChannel.getChannel().writeAndFlush(message);
+                    PeerOutboundQueue.send(myChannel.getChannel(), message);
                 }
             }
         }
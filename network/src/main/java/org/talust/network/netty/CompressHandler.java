@@ -0,0 +1,159 @@
+package org.talust.network.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.Message;
+import org.talust.common.model.MessageType;
+import org.talust.common.tools.Configure;
+
+import java.util.Arrays;
+
+/**
+ * 消息内容压缩
+ * 连接建立后双方互相发送支持的压缩方式,收到对方的协商消息后才对发出的大消息压缩,
+ * 未升级的节点不认识协商消息会直接丢弃,与其之间的消息保持不压缩
+ * 压缩格式为按32K分块的snappy数据,每块前带4字节的压缩后长度
+ * 解压时校验分块长度并限制解压后的长度,格式错误或超长时关闭连接
+ */
+@Slf4j
+public class CompressHandler extends ChannelDuplexHandler {
+    public static final int COMPRESS_SNAPPY = 1;
+
+    private static final byte[] SNAPPY = "snappy".getBytes();
+    //每块压缩前的最大长度,netty的snappy实现用short记录偏移,超过32K会出错
+    private static final int CHUNK_SIZE = 32768;
+
+    //对方是否支持压缩
+    private volatile boolean peerSupported;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (Configure.COMPRESS_ENABLE) {
+            Message negotiate = new Message();
+            negotiate.setType(MessageType.COMPRESS_NEGOTIATE.getType());
+            negotiate.setContent(SNAPPY);
+            ctx.writeAndFlush(negotiate);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Message) {
+            Message message = (Message) msg;
+            if (message.getType() != null && message.getType() == MessageType.COMPRESS_NEGOTIATE.getType()) {
+                peerSupported = Configure.COMPRESS_ENABLE && Arrays.equals(SNAPPY, message.getContent());
+                log.info("远端:{} 消息压缩协商结果:{}", ctx.channel().remoteAddress(), peerSupported);
+                return;
+            }
+            if (message.getCompress() != null && message.getCompress() == COMPRESS_SNAPPY) {
+                try {
+                    message.setContent(decompress(message.getContent()));
+                } catch (DecompressionException e) {
+                    log.warn("远端:{} 压缩消息错误,关闭连接:{}", ctx.channel().remoteAddress(), e.getMessage());
+                    ctx.close();
+                    return;
+                }
+                message.setCompress(null);
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (peerSupported && msg instanceof Message) {
+            Message message = (Message) msg;
+            byte[] content = message.getContent();
+            if (content != null && content.length >= Configure.COMPRESS_THRESHOLD && message.getCompress() == null) {
+                byte[] compressed = compress(content);
+                if (compressed.length < content.length) {
+                    //同一消息可能发往多个连接,不修改原消息
+                    msg = copyWithContent(message, compressed);
+                }
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private Message copyWithContent(Message message, byte[] content) {
+        Message copy = new Message();
+        copy.setType(message.getType());
+        copy.setContent(content);
+        copy.setSigner(message.getSigner());
+        copy.setSignContent(message.getSignContent());
+        copy.setTime(message.getTime());
+        copy.setMsgCount(message.getMsgCount());
+        copy.setCompress(COMPRESS_SNAPPY);
+        return copy;
+    }
+
+    public static byte[] compress(byte[] content) {
+        ByteBuf in = Unpooled.wrappedBuffer(content);
+        ByteBuf out = Unpooled.buffer(content.length / 2 + 16);
+        ByteBuf chunk = Unpooled.buffer(Math.min(content.length, CHUNK_SIZE) + 16);
+        try {
+            Snappy snappy = new Snappy();
+            while (in.isReadable()) {
+                int length = Math.min(in.readableBytes(), CHUNK_SIZE);
+                chunk.clear();
+                snappy.reset();
+                snappy.encode(in.readSlice(length), chunk, length);
+                out.writeInt(chunk.readableBytes());
+                out.writeBytes(chunk);
+            }
+            byte[] result = new byte[out.readableBytes()];
+            out.readBytes(result);
+            return result;
+        } finally {
+            in.release();
+            out.release();
+            chunk.release();
+        }
+    }
+
+    /**
+     * 解压对方发来的内容,每块的长度不能超过剩余内容,每块解压后不超过分块大小,总长度不超过最大消息长度
+     */
+    public static byte[] decompress(byte[] content) {
+        ByteBuf in = Unpooled.wrappedBuffer(content);
+        ByteBuf out = Unpooled.buffer(Math.min(content.length * 2, Configure.MAX_MESSAGE_SIZE), Configure.MAX_MESSAGE_SIZE);
+        ByteBuf chunk = Unpooled.buffer(CHUNK_SIZE, CHUNK_SIZE);
+        try {
+            Snappy snappy = new Snappy();
+            while (in.isReadable()) {
+                if (in.readableBytes() < 4) {
+                    throw new DecompressionException("压缩块长度不完整");
+                }
+                int length = in.readInt();
+                if (length <= 0 || length > in.readableBytes()) {
+                    throw new DecompressionException("压缩块长度错误:" + length);
+                }
+                chunk.clear();
+                snappy.reset();
+                try {
+                    snappy.decode(in.readSlice(length), chunk);
+                } catch (IndexOutOfBoundsException e) {
+                    throw new DecompressionException("压缩块解压后超过" + CHUNK_SIZE + "字节");
+                }
+                if (chunk.readableBytes() > out.maxWritableBytes()) {
+                    throw new DecompressionException("解压后超过最大消息长度:" + Configure.MAX_MESSAGE_SIZE);
+                }
+                out.writeBytes(chunk);
+            }
+            byte[] result = new byte[out.readableBytes()];
+            out.readBytes(result);
+            return result;
+        } finally {
+            in.release();
+            out.release();
+            chunk.release();
+        }
+    }
+}
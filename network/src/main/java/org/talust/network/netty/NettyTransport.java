@@ -0,0 +1,93 @@
+package org.talust.network.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+
+/**
+ * 网络传输层配置
+ * Linux下可用时使用epoll原生传输,否则使用nio
+ * 服务端接入的连接与本节点主动发起的连接共用同一组工作线程,socket参数及内存分配方式由Configure配置
+ */
+@Slf4j
+public class NettyTransport {
+    private static NettyTransport instance = new NettyTransport();
+
+    private final boolean epoll;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final ByteBufAllocator allocator;
+
+    private NettyTransport() {
+        epoll = Configure.NETTY_EPOLL && Epoll.isAvailable();
+        int workerThreads = Configure.NETTY_WORKER_THREADS > 0 ? Configure.NETTY_WORKER_THREADS : 2 * Runtime.getRuntime().availableProcessors();
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(1);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
+        } else {
+            bossGroup = new NioEventLoopGroup(1);
+            workerGroup = new NioEventLoopGroup(workerThreads);
+        }
+        allocator = Configure.NETTY_POOLED_ALLOCATOR ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+        log.info("网络传输使用:{},工作线程数:{}", epoll ? "epoll" : "nio", workerThreads);
+    }
+
+    public static NettyTransport get() {
+        return instance;
+    }
+
+    /**
+     * 创建服务端启动配置
+     */
+    public ServerBootstrap serverBootstrap() {
+        Class<? extends ServerChannel> channelClass = epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup).channel(channelClass)
+                .option(ChannelOption.SO_BACKLOG, Configure.NETTY_SO_BACKLOG)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.TCP_NODELAY, Configure.NETTY_TCP_NODELAY)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark());
+        return b;
+    }
+
+    /**
+     * 创建客户端启动配置
+     */
+    public Bootstrap bootstrap() {
+        Class<? extends SocketChannel> channelClass = epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+        Bootstrap b = new Bootstrap();
+        b.group(workerGroup).channel(channelClass)
+                .option(ChannelOption.TCP_NODELAY, Configure.NETTY_TCP_NODELAY)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark());
+        return b;
+    }
+
+    private WriteBufferWaterMark waterMark() {
+        return new WriteBufferWaterMark(Configure.NETTY_WRITE_BUFFER_LOW, Configure.NETTY_WRITE_BUFFER_HIGH);
+    }
+
+    public void shutdown() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+}
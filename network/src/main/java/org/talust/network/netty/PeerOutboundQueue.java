@@ -0,0 +1,287 @@
+package org.talust.network.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.model.Message;
+import org.talust.common.model.MessageType;
+import org.talust.common.tools.Configure;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个连接的发送队列
+ * 1.消息按优先级分类发送:共识及控制消息 > 区块 > 交易 > 同步请求及响应
+ * 2.只在连接可写时写出,重复的交易消息直接合并,待发送数据超过字节上限时丢弃最旧的交易消息,
+ *   丢弃交易后仍放不下其他消息时,说明远端长时间不读取,关闭该连接,发送方不会被阻塞
+ * 3.按配置限制每个连接的发送速率,慢节点只会积压自己的队列,不影响向其他节点发送
+ */
+@Slf4j
+public class PeerOutboundQueue extends ChannelInboundHandlerAdapter {
+    //共识及控制消息
+    public static final int PRIORITY_CONSENSUS = 0;
+    //区块广播
+    public static final int PRIORITY_BLOCK = 1;
+    //交易广播
+    public static final int PRIORITY_TRANSACTION = 2;
+    //同步请求及响应
+    public static final int PRIORITY_SYNC = 3;
+
+    //每条消息除内容外的估算开销
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    private final List<Deque<Message>> queues = new ArrayList<>();
+    //队列中的交易内容,用于合并重复的交易
+    private final Set<ByteArrayKey> queuedTransactions = new HashSet<>();
+    //队列中待发送的字节数
+    private long queuedBytes;
+    //是否已安排写出任务
+    private boolean drainScheduled;
+    private Channel channel;
+
+    //限速令牌,单位字节
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public PeerOutboundQueue() {
+        for (int i = 0; i <= PRIORITY_SYNC; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        tokens = Configure.PEER_MAX_BYTES_PER_SECOND;
+    }
+
+    /**
+     * 通过连接的发送队列发送消息,连接未安装发送队列时直接写出
+     */
+    public static void send(Channel channel, Message message) {
+        PeerOutboundQueue queue = channel.pipeline().get(PeerOutboundQueue.class);
+        if (queue == null) {
+            channel.writeAndFlush(message);
+            return;
+        }
+        queue.offer(message);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        channel = ctx.channel();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            scheduleDrain(0);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        synchronized (this) {
+            for (Deque<Message> queue : queues) {
+                queue.clear();
+            }
+            queuedTransactions.clear();
+            queuedBytes = 0;
+        }
+        super.channelInactive(ctx);
+    }
+
+    public void offer(Message message) {
+        int priority = priorityOf(message);
+        int size = sizeOf(message);
+        synchronized (this) {
+            if (priority == PRIORITY_TRANSACTION && message.getContent() != null
+                    && queuedTransactions.contains(new ByteArrayKey(message.getContent()))) {
+                //相同交易已在队列中
+                return;
+            }
+            //放入前先检查字节上限,队列为空时大消息也放行
+            evictIfNeeded(size);
+            if (queuedBytes > 0 && queuedBytes + size > Configure.PEER_QUEUE_MAX_BYTES) {
+                if (priority == PRIORITY_TRANSACTION) {
+                    log.warn("向远端:{} 的发送队列已满,丢弃交易消息", remoteAddress());
+                    return;
+                }
+                log.warn("向远端:{} 的发送队列已满且无可丢弃的交易消息,关闭连接", remoteAddress());
+                if (channel != null) {
+                    channel.close();
+                }
+                return;
+            }
+            if (priority == PRIORITY_TRANSACTION && message.getContent() != null) {
+                queuedTransactions.add(new ByteArrayKey(message.getContent()));
+            }
+            queues.get(priority).addLast(message);
+            queuedBytes += size;
+        }
+        scheduleDrain(0);
+    }
+
+    /**
+     * 放入新消息会超过字节上限时,丢弃最旧的交易消息,其他消息不丢弃
+     */
+    private void evictIfNeeded(int size) {
+        Deque<Message> queue = queues.get(PRIORITY_TRANSACTION);
+        while (!queue.isEmpty() && queuedBytes + size > Configure.PEER_QUEUE_MAX_BYTES) {
+            Message dropped = queue.pollFirst();
+            removed(dropped, PRIORITY_TRANSACTION);
+            log.warn("向远端:{} 的发送队列已满,丢弃交易消息", remoteAddress());
+        }
+    }
+
+    private Object remoteAddress() {
+        return channel == null ? null : channel.remoteAddress();
+    }
+
+    private void scheduleDrain(long delayNanos) {
+        synchronized (this) {
+            if (drainScheduled || channel == null) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        if (delayNanos > 0) {
+            channel.eventLoop().schedule(this::drain, delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            channel.eventLoop().execute(this::drain);
+        }
+    }
+
+    /**
+     * 在连接的事件线程中按优先级写出消息,直到连接不可写、限速或队列为空
+     */
+    private void drain() {
+        synchronized (this) {
+            drainScheduled = false;
+        }
+        boolean written = false;
+        long waitNanos = 0;
+        while (channel.isActive() && channel.isWritable()) {
+            Message message;
+            synchronized (this) {
+                int priority = nextPriority();
+                if (priority < 0) {
+                    break;
+                }
+                int size = sizeOf(queues.get(priority).peekFirst());
+                waitNanos = acquire(size);
+                if (waitNanos > 0) {
+                    break;
+                }
+                message = queues.get(priority).pollFirst();
+                removed(message, priority);
+            }
+            channel.write(message);
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+        if (waitNanos > 0) {
+            scheduleDrain(waitNanos);
+        }
+    }
+
+    private int nextPriority() {
+        for (int p = PRIORITY_CONSENSUS; p <= PRIORITY_SYNC; p++) {
+            if (!queues.get(p).isEmpty()) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 令牌桶限速,返回需要等待的纳秒数,不限速或令牌足够时返回0
+     */
+    private long acquire(int size) {
+        long rate = Configure.PEER_MAX_BYTES_PER_SECOND;
+        if (rate <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        //超过一秒额度的大消息在令牌满时放行,避免永远无法发送
+        if (tokens >= size || tokens >= rate) {
+            tokens -= size;
+            return 0;
+        }
+        return (long) ((size - tokens) * 1e9 / rate);
+    }
+
+    private void removed(Message message, int priority) {
+        queuedBytes -= sizeOf(message);
+        if (priority == PRIORITY_TRANSACTION && message.getContent() != null) {
+            queuedTransactions.remove(new ByteArrayKey(message.getContent()));
+        }
+    }
+
+    private static int sizeOf(Message message) {
+        return (message.getContent() == null ? 0 : message.getContent().length) + MESSAGE_OVERHEAD;
+    }
+
+    private static int priorityOf(Message message) {
+        MessageType type = message.getType() == null ? null : MessageType.getMessageType(message.getType());
+        if (type == null) {
+            log.warn("未知的消息类型:{},按同步消息发送", message.getType());
+            return PRIORITY_SYNC;
+        }
+        switch (type) {
+            case HEARTBEAT_REQ:
+            case HEARTBEAT_RESP:
+            case NODES_REQ:
+            case NODES_RESP:
+            case NODE_EXIT:
+            case ERROR_MESSAGE:
+            case MASTER_REQ:
+            case MASTER_RESP:
+            case NEW_MASTER_REQ:
+            case NEW_MASTER_RESP:
+            case DEPOSITS_STATUS_REQ:
+            case DEPOSITS_STATUS_RESP:
+            case COMPRESS_NEGOTIATE:
+                return PRIORITY_CONSENSUS;
+            case BLOCK_ARRIVED:
+                return PRIORITY_BLOCK;
+            case TRANSACTION:
+                return PRIORITY_TRANSACTION;
+            case HEIGHT_REQ:
+            case HEIGHT_RESP:
+            case BLOCK_REQ:
+            case BLOCK_RESP:
+            case HEADERS_REQ:
+            case HEADERS_RESP:
+                return PRIORITY_SYNC;
+            default:
+                log.warn("未分类的消息类型:{},按同步消息发送", type);
+                return PRIORITY_SYNC;
+        }
+    }
+
+    /**
+     * 以内容比较的字节数组,用于交易去重
+     */
+    private static class ByteArrayKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        private ByteArrayKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ByteArrayKey && Arrays.equals(bytes, ((ByteArrayKey) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -83,6 +83,10 @@ public class PeersManager {
             Configure.setMaxSuperPassivityConnectCount(peerConfig.getInteger("MAX_SUPER_ACTIVE_CONNECT_COUNT"));
             Configure.setNodeServerAddr(peerConfig.getString("NODE_SERVER_ADDR"));
             Configure.setGenesisServerAddr(peerConfig.getString("GENESIS_SERVER_ADDR"));
+            Configure.setMongodbUri(peerConfig.getString("MONGODB_URI"));
+            Configure.setSnapshotFile(peerConfig.getString("SNAPSHOT_FILE"));
+            Configure.setSnapshotHash(peerConfig.getString("SNAPSHOT_HASH"));
+            Configure.setSnapshotExportFile(peerConfig.getString("SNAPSHOT_EXPORT_FILE"));
         } catch (Exception e) {
             e.printStackTrace();
         }
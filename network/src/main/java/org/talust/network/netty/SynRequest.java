@@ -34,7 +34,11 @@ import org.talust.network.model.MyChannel;
 import org.talust.network.netty.queue.MessageQueue;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -56,6 +60,20 @@ public class SynRequest {
 
     //用于存储异步请求时,某个消息ID,对应的异步回调
     private Map<Long, SyncFuture<MessageChannel>> synMap = new ConcurrentHashMap<>();
+    //用于存储非阻塞请求时,某个消息ID,对应的回调
+    private Map<Long, CompletableFuture<MessageChannel>> asynMap = new ConcurrentHashMap<>();
+    //非阻塞请求的超时处理,请求完成后取消的超时任务直接从队列移除
+    private ScheduledExecutorService timeoutService = createTimeoutService();
+
+    private static ScheduledExecutorService createTimeoutService() {
+        ScheduledThreadPoolExecutor service = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "syn-request-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        service.setRemoveOnCancelPolicy(true);
+        return service;
+    }
 
     /**
      * 添加异步请求
@@ -106,11 +124,49 @@ public class SynRequest {
     }
 
 
+    /**
+     * 添加非阻塞请求,不占用调用线程
+     * 返回的future在收到响应时完成,超时或发送失败时以null完成
+     *
+     * @param message 节点消息
+     * @param toIp    需要通过该通道进行发送数据
+     * @param timeout 超时时间,单位毫秒
+     */
+    public CompletableFuture<MessageChannel> asynReq(Message message, String toIp, long timeout) {
+        CompletableFuture<MessageChannel> future = new CompletableFuture<>();
+        long mc = MessageCount.msgCount.addAndGet(1);
+        if (mc > 65530) {
+            MessageCount.msgCount.set(0);
+        }
+        asynMap.put(mc, future);
+        future.whenComplete((retMsg, e) -> asynMap.remove(mc, future));
+        try {
+            message.setMsgCount(mc);
+            MessageChannel mch = new MessageChannel();
+            mch.setMessage(message);
+            mch.setToIp(toIp);
+            mch.setChannelId(ChannelContain.get().getChannelByIp(toIp).id().asShortText());
+            mq.addMessage(mch);
+            ScheduledFuture<?> timeoutTask = timeoutService.schedule(() -> future.complete(null), timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((retMsg, e) -> timeoutTask.cancel(false));
+        } catch (Exception e) {
+            log.info("向ip:{} 发送请求失败:{}", toIp, e.getMessage());
+            future.complete(null);
+        }
+        return future;
+    }
+
     //异步响应
     public void synResp(MessageChannel message) {
-        SyncFuture<MessageChannel> syncFuture = synMap.remove(message.getMessage().getMsgCount());
+        Long msgCount = message.getMessage().getMsgCount();
+        SyncFuture<MessageChannel> syncFuture = synMap.remove(msgCount);
         if (syncFuture != null) {
             syncFuture.setResponse(message);
+            return;
+        }
+        CompletableFuture<MessageChannel> future = asynMap.remove(msgCount);
+        if (future != null) {
+            future.complete(message);
         }
     }
 
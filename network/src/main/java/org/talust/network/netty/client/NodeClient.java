@@ -29,29 +29,25 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
+import org.talust.network.netty.CompressHandler;
 import org.talust.network.netty.DecodeHandler;
 import org.talust.network.netty.EncodeHandler;
+import org.talust.network.netty.NettyTransport;
+import org.talust.network.netty.PeerOutboundQueue;
 
 import java.util.concurrent.TimeUnit;
 
 public class NodeClient {
     public Channel connect(String host, int port) throws Exception {
-        EventLoopGroup group = new NioEventLoopGroup();
-        Bootstrap b = new Bootstrap();
+        Bootstrap b = NettyTransport.get().bootstrap();
         try {
-            b.group(group)
-                    .channel(NioSocketChannel.class)
-                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
+            b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
                     .handler(new ChildChannelHandler());
             Channel  channel = b.connect(host, port).sync().channel();
             return channel;
         } catch (Exception e) {
-            group.shutdownGracefully(10,15,TimeUnit.SECONDS);
             throw new Exception("网络连接失败......");
         }
     }
@@ -63,6 +59,8 @@ public class NodeClient {
             ch.pipeline()
                     .addLast(new EncodeHandler())
                     .addLast(new DecodeHandler())
+                    .addLast(new CompressHandler())
+                    .addLast(new PeerOutboundQueue())
                     .addLast(new IdleStateHandler(120, 30, 0, TimeUnit.SECONDS))
                     .addLast(new NodeClientReqHandler());
 
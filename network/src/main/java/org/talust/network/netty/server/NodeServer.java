@@ -28,15 +28,14 @@ package org.talust.network.netty.server;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
 import lombok.extern.slf4j.Slf4j;
+import org.talust.network.netty.CompressHandler;
 import org.talust.network.netty.DecodeHandler;
 import org.talust.network.netty.EncodeHandler;
+import org.talust.network.netty.NettyTransport;
+import org.talust.network.netty.PeerOutboundQueue;
 
 import java.util.concurrent.TimeUnit;
 
@@ -44,19 +43,15 @@ import java.util.concurrent.TimeUnit;
 public class NodeServer {
 
     public void bind(int port) throws Exception {
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup(2 * Runtime.getRuntime().availableProcessors());
         try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class).option(ChannelOption.SO_BACKLOG, 1024)
+            ServerBootstrap b = NettyTransport.get().serverBootstrap()
                     .childHandler(new ChildChannelHandler());
 
             ChannelFuture f = b.bind(port).sync();
             log.info("本地网络服务开启,打开端口:{}", port);
             f.channel().closeFuture().sync();
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            NettyTransport.get().shutdown();
         }
     }
 
@@ -66,6 +61,8 @@ public class NodeServer {
             ch.pipeline()
                     .addLast(new DecodeHandler())
                     .addLast(new EncodeHandler())
+                    .addLast(new CompressHandler())
+                    .addLast(new PeerOutboundQueue())
                     .addLast(new IdleStateHandler(120, 0, 0, TimeUnit.SECONDS))
                     .addLast(new NodeServerRespHandler());
         }
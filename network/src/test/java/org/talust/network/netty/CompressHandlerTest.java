@@ -0,0 +1,77 @@
+package org.talust.network.netty;
+
+import io.netty.handler.codec.compression.DecompressionException;
+import junit.framework.TestCase;
+import org.talust.common.tools.Configure;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 消息压缩分块格式测试
+ */
+public class CompressHandlerTest extends TestCase {
+
+    private byte[] content(int length) {
+        byte[] content = new byte[length];
+        Random random = new Random(1);
+        for (int i = 0; i < length; i++) {
+            //可压缩的内容
+            content[i] = (byte) random.nextInt(8);
+        }
+        return content;
+    }
+
+    private void assertRejected(byte[] compressed) {
+        try {
+            CompressHandler.decompress(compressed);
+            fail("应拒绝错误的压缩内容");
+        } catch (DecompressionException e) {
+            //期望的异常
+        }
+    }
+
+    public void testRoundTripMultipleChunks() {
+        byte[] content = content(100000);
+        byte[] compressed = CompressHandler.compress(content);
+        assertTrue(compressed.length < content.length);
+        assertTrue(Arrays.equals(content, CompressHandler.decompress(compressed)));
+    }
+
+    public void testRejectChunkLongerThanInput() {
+        byte[] compressed = CompressHandler.compress(content(2000));
+        ByteBuffer.wrap(compressed).putInt(compressed.length);
+        assertRejected(compressed);
+    }
+
+    public void testRejectNegativeChunkLength() {
+        byte[] compressed = CompressHandler.compress(content(2000));
+        ByteBuffer.wrap(compressed).putInt(-1);
+        assertRejected(compressed);
+    }
+
+    public void testRejectTruncatedLength() {
+        byte[] compressed = CompressHandler.compress(content(2000));
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length + 2);
+        assertRejected(truncated);
+    }
+
+    public void testRejectOversizedChunk() {
+        //声明解压后1000000字节的分块,超过分块大小
+        byte[] chunk = {(byte) 0xC0, (byte) 0x84, 0x3D, 0x00, 'a'};
+        ByteBuffer compressed = ByteBuffer.allocate(4 + chunk.length);
+        compressed.putInt(chunk.length).put(chunk);
+        assertRejected(compressed.array());
+    }
+
+    public void testRejectOutputOverMaxMessageSize() {
+        int maxMessageSize = Configure.MAX_MESSAGE_SIZE;
+        Configure.MAX_MESSAGE_SIZE = 50000;
+        try {
+            assertRejected(CompressHandler.compress(new byte[100000]));
+        } finally {
+            Configure.MAX_MESSAGE_SIZE = maxMessageSize;
+        }
+    }
+}
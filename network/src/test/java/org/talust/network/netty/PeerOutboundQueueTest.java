@@ -0,0 +1,81 @@
+package org.talust.network.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import junit.framework.TestCase;
+import org.talust.common.model.Message;
+import org.talust.common.model.MessageType;
+import org.talust.common.tools.Configure;
+
+/**
+ * 连接发送队列字节上限测试
+ */
+public class PeerOutboundQueueTest extends TestCase {
+    private long maxBytes;
+
+    @Override
+    protected void setUp() {
+        maxBytes = Configure.PEER_QUEUE_MAX_BYTES;
+        Configure.PEER_QUEUE_MAX_BYTES = 1000;
+    }
+
+    @Override
+    protected void tearDown() {
+        Configure.PEER_QUEUE_MAX_BYTES = maxBytes;
+    }
+
+    private Message message(MessageType type, int length, int seed) {
+        Message message = new Message();
+        message.setType(type.getType());
+        byte[] content = new byte[length];
+        content[0] = (byte) seed;
+        message.setContent(content);
+        return message;
+    }
+
+    public void testTransactionsEvictedForOtherMessages() {
+        PeerOutboundQueue queue = new PeerOutboundQueue();
+        EmbeddedChannel channel = new EmbeddedChannel(queue);
+        //写出任务未执行前消息都留在队列中
+        for (int i = 0; i < 3; i++) {
+            queue.offer(message(MessageType.TRANSACTION, 236, i));
+        }
+        queue.offer(message(MessageType.BLOCK_ARRIVED, 536, 0));
+        assertTrue(channel.isActive());
+        channel.runPendingTasks();
+        int count = 0;
+        while (channel.readOutbound() != null) {
+            count++;
+        }
+        //丢弃最旧的两条交易后放入区块
+        assertEquals(2, count);
+    }
+
+    public void testCloseWhenNothingToEvict() {
+        PeerOutboundQueue queue = new PeerOutboundQueue();
+        EmbeddedChannel channel = new EmbeddedChannel(queue);
+        queue.offer(message(MessageType.BLOCK_ARRIVED, 736, 0));
+        queue.offer(message(MessageType.MASTER_REQ, 436, 1));
+        channel.runPendingTasks();
+        assertFalse(channel.isActive());
+    }
+
+    public void testTransactionDroppedWhenFull() {
+        PeerOutboundQueue queue = new PeerOutboundQueue();
+        EmbeddedChannel channel = new EmbeddedChannel(queue);
+        queue.offer(message(MessageType.BLOCK_ARRIVED, 736, 0));
+        queue.offer(message(MessageType.TRANSACTION, 436, 1));
+        assertTrue(channel.isActive());
+        channel.runPendingTasks();
+        assertNotNull(channel.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    public void testLargeMessageAllowedWhenEmpty() {
+        PeerOutboundQueue queue = new PeerOutboundQueue();
+        EmbeddedChannel channel = new EmbeddedChannel(queue);
+        queue.offer(message(MessageType.BLOCK_ARRIVED, 5000, 0));
+        channel.runPendingTasks();
+        assertTrue(channel.isActive());
+        assertNotNull(channel.readOutbound());
+    }
+}
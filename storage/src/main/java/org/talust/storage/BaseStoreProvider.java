@@ -2,8 +2,13 @@ package org.talust.storage;
 
 import lombok.extern.slf4j.Slf4j;
 import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.rocksdb.util.SizeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,6 +83,55 @@ public abstract class BaseStoreProvider implements StoreProvider {
         }
     }
 
+    /**
+     * 获取遍历存储的迭代器,使用完后需要调用close释放
+     */
+    public RocksIterator newIterator() {
+        return db.newIterator();
+    }
+
+    /**
+     * 获取存储的只读快照,使用完后需要调用releaseSnapshot释放
+     */
+    public Snapshot getSnapshot() {
+        return db.getSnapshot();
+    }
+
+    public void releaseSnapshot(Snapshot snapshot) {
+        db.releaseSnapshot(snapshot);
+    }
+
+    /**
+     * 按读取选项获取数据,读取选项中可指定快照
+     */
+    public byte[] get(ReadOptions readOptions, byte[] key) {
+        try {
+            return db.get(readOptions, key);
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 按读取选项获取迭代器,使用完后需要调用close释放
+     */
+    public RocksIterator newIterator(ReadOptions readOptions) {
+        return db.newIterator(readOptions);
+    }
+
+    /**
+     * 批量写入
+     */
+    public void write(WriteBatch batch) throws RocksDBException {
+        WriteOptions writeOptions = new WriteOptions();
+        try {
+            db.write(writeOptions, batch);
+        } finally {
+            writeOptions.close();
+        }
+    }
+
     /**
      * 释放资源
      *